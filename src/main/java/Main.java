@@ -2,21 +2,37 @@ package main.java;
 
 import javafx.application.Application;
 import javafx.stage.Stage;
-import main.java.entities.transit.BusLine;
-import main.java.entities.transit.SubwayLine;
+import main.java.entities.Money;
+import main.java.entities.transit.TransitNetwork;
 import main.java.system.Logger;
 import main.java.system.Parser;
 import main.java.system.TransitSystem;
+import main.java.system.fare.FareTable;
+import main.java.system.journal.StateStore;
+import main.java.system.ledger.CardLedger;
 import main.java.ui.client.TransitMap;
 import main.java.users.Admin;
 import main.java.users.Rider;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 
 /**
- * The entry point into the transit system
+ * The entry point into the transit system. If the transit.state system property
+ * names a directory, the system is kept durable there: it is loaded from the
+ * directory's snapshot when there is one instead of from the input files, and
+ * otherwise a snapshot is taken before the input events are processed and
+ * again once they have been, so they are never processed twice. If
+ * the transit.ledger system property names a file, the cards' balances and
+ * status are kept off the heap in that file. Without a state directory, the
+ * ledger is what keeps the balances across runs: the input events are
+ * processed only into a new ledger, and later runs take on the balances it kept
+ * without the trips that led to them.
  */
 public class Main extends Application {
+    private StateStore store;
+    private CardLedger ledger;
+
     /**
      * Create a transit system from the data in the input files
      * 
@@ -27,11 +43,9 @@ public class Main extends Application {
     private static TransitSystem loadSystem(Parser parser) throws IOException {
         Rider[] riders = parser.riderParser();
 
-        BusLine[] busLines = parser.busParser();
-
-        SubwayLine subwayLine = parser.subwayParser();
+        TransitNetwork network = parser.networkParser();
 
-        TransitSystem system = new TransitSystem(riders, busLines, subwayLine);
+        TransitSystem system = new TransitSystem(riders, network);
 
         parser.cardParser(system);
 
@@ -47,15 +61,50 @@ public class Main extends Application {
     public void start(Stage stage) throws IOException {
         Parser parser = new Parser();
 
-        // read in data to make system
-        TransitSystem system = loadSystem(parser);
+        String stateDirectory = System.getProperty("transit.state");
+        if (stateDirectory != null) {
+            store = new StateStore(Paths.get(stateDirectory));
+        }
+
+        // read in data to make system, from the snapshot if there is one
+        TransitSystem system = store == null ? null : store.load();
+        boolean restored = system != null;
+        if (!restored) {
+            system = loadSystem(parser);
+        }
+        system.setFares(FareTable.compile(parser.fareParser(), system.getNetwork()));
         // draw map of network
         TransitMap map = new TransitMap(system, 800, 40);
 
         Admin admin = new Admin(system);
-
-        // parse events from Events.txt
-        parser.eventParser(system);
+        if (store != null) {
+            store.recover(system, admin.o, admin.bus);
+            if (!restored) {
+                // the journal holds the input events from here on, so a run which stops
+                // part way through them resumes from this snapshot instead of replaying
+                // Events.txt on top of them
+                store.checkpoint();
+            }
+        }
+        boolean replayEvents = !restored;
+        String ledgerFile = System.getProperty("transit.ledger");
+        if (ledgerFile != null) {
+            ledger = new CardLedger(Paths.get(ledgerFile));
+            // a recovered state is newer than what the ledger holds
+            system.attachLedger(ledger, store != null);
+            if (store == null && !ledger.isNew()) {
+                // the balances the ledger kept already include every event in Events.txt
+                replayEvents = false;
+            }
+        }
+
+        // parse events from Events.txt, which a snapshot or kept ledger already includes
+        if (replayEvents) {
+            parser.eventParser(system);
+            if (store != null) {
+                store.checkpoint();
+            }
+        }
 
         stage.setTitle("Transit Map");
         stage.setScene(map.getTransitMap());
@@ -64,20 +113,37 @@ public class Main extends Application {
         // Any subsequent actions the system may take should be included here
         Rider testSubject = system.getCardholders()[0];
         Logger.trips(testSubject.recentTrips());
-        testSubject.reloadCard(15, testSubject.getCards().get(0));
-        testSubject.reloadCard(20, testSubject.getCards().get(0));
+        testSubject.reloadCard(Money.ofDollars(15), testSubject.getCards().get(0));
+        testSubject.reloadCard(Money.ofDollars(20), testSubject.getCards().get(0));
         testSubject.changeName("!@#");
         testSubject.changeName("");
         testSubject.changeName("  ");
         testSubject.changeName("Bob Vance");
         // notice the name in the log has changed
-        Logger.user(testSubject, String.format("Avg. Cost per Month: $%.2f", testSubject.averageMonthlyCost()));
+        Logger.user(testSubject, "Avg. Cost per Month: " + testSubject.averageMonthlyCost());
 
-        // Admin stats
-        Logger.admin("Total fare today: $" + admin.getFareOnDate(11, 11, 2020));
+        // Admin stats, counted from every event processed above
+        admin.bus.flush();
+        Logger.admin("Total fare today: " + admin.getFareOnDate(11, 11, 2020));
         Logger.admin("Total stops today: " + admin.getStopsOnDate(11, 11, 2020));
     }
 
+    /**
+     * Closes the state directory and the card ledger, if there are any, once
+     * every journaled tap and card update is on disk
+     *
+     * @throws IOException if the journal or ledger could not be written
+     */
+    @Override
+    public void stop() throws IOException {
+        if (store != null) {
+            store.close();
+        }
+        if (ledger != null) {
+            ledger.close();
+        }
+    }
+
     public static void main(String[] args) {
         launch(args);
     }
@@ -4,18 +4,36 @@ import main.java.system.UID.ID;
 import main.java.system.UID.IDGenerator;
 import main.java.system.event.Event;
 import main.java.system.Trip;
+import main.java.system.ledger.CardLedger;
 import main.java.users.Rider;
 
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * An object representing a transit card, used by a rider to tap in and out of
- * the transit system
+ * the transit system. The balance and the active flag are packed into a single
+ * atomically updated word, so charges, reloads and suspensions from any number
+ * of threads are applied without locks and without losing updates. The word is
+ * held on the heap, or in the card's slot of an off-heap CardLedger once the
+ * card is kept there. What the card has been charged on the current day and in
+ * the current week is packed into a second word beside it, so that daily and
+ * weekly caps are checked without going through the card's trips.
  */
 public class Card {
-    private float balance;
+    private static final long INITIAL_BALANCE = 1900;
+    private static final long ACTIVE = 1;
+    private static final int SPENT_BITS = 22;
+    private static final long MAX_SPENT = (1L << SPENT_BITS) - 1;
+    private static final int DAY_BITS = 64 - 2 * SPENT_BITS;
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+
+    // (balance in cents << 1) | ACTIVE if the card is active, null once in a ledger
+    private AtomicLong state;
+    // (day << 44) | (spent that day << 22) | spent that week, in cents; see packSpending
+    private long spending;
+    private CardLedger ledger;
     private final ID id;
-    private boolean active;
     private final Rider bearer;
     private ArrayList<Trip> trips;
 
@@ -25,8 +43,7 @@ public class Card {
      * @param issuedTo this User
      */
     public Card(Rider issuedTo) {
-        this.active = true;
-        this.balance = 19;
+        this.state = new AtomicLong(pack(INITIAL_BALANCE, true));
         this.bearer = issuedTo;
         this.id = IDGenerator.generateID('C');
         this.trips = new ArrayList<Trip>();
@@ -38,8 +55,7 @@ public class Card {
      * @param issuedTo this User
      */
     public Card(Rider issuedTo, String ID) {
-        this.active = true;
-        this.balance = 19;
+        this.state = new AtomicLong(pack(INITIAL_BALANCE, true));
         this.bearer = issuedTo;
         this.id = IDGenerator.fromString(ID);
         this.trips = new ArrayList<Trip>();
@@ -50,22 +66,44 @@ public class Card {
      * balance
      *
      * @param issuedTo this User
+     * @param ID       the ID of this card
+     * @param balance  the initial balance of this card
      */
-    public Card(Rider issuedTo, String ID, float balance) {
-        this.active = true;
-        this.balance = balance;
+    public Card(Rider issuedTo, String ID, Money balance) {
+        this.state = new AtomicLong(pack(balance.getCents(), true));
         this.bearer = issuedTo;
         this.id = IDGenerator.fromString(ID);
         this.trips = new ArrayList<Trip>();
     }
 
+    /**
+     * Create a card as it was captured in a snapshot, with the given registered
+     * ID, balance, status and spending
+     *
+     * @param issuedTo     this User
+     * @param id           the ID of this card, already registered with IDGenerator
+     * @param balanceCents the balance of this card in cents
+     * @param active       whether this card may be used
+     * @param spending     the card's spending word, as returned by getSpending
+     */
+    public Card(Rider issuedTo, ID id, long balanceCents, boolean active, long spending) {
+        this.state = new AtomicLong(pack(balanceCents, active));
+        this.spending = spending;
+        this.bearer = issuedTo;
+        this.id = id;
+        this.trips = new ArrayList<Trip>();
+    }
+
     /**
      * Sets the balance of this card
      * 
      * @param balance is the new balance of this card
      */
-    public void setBalance(float balance) {
-        this.balance = balance;
+    public void setBalance(Money balance) {
+        long current;
+        do {
+            current = loadState();
+        } while (!compareAndSetState(current, pack(balance.getCents(), (current & ACTIVE) != 0)));
     }
 
     /**
@@ -73,12 +111,23 @@ public class Card {
      * 
      * @return this card's balance
      */
-    public float getBalance() {
-        return this.balance;
+    public Money getBalance() {
+        return Money.ofCents(getBalanceCents());
+    }
+
+    /**
+     * Return the current balance of this card in cents
+     *
+     * @return this card's balance in cents
+     */
+    public long getBalanceCents() {
+        return loadState() >> 1;
     }
 
     /**
-     * returns a list of the trips on this card
+     * returns a list of the trips on this card, oldest first, including the one in
+     * progress. This is the card's trip history; taps are processed using the
+     * transit system's table of open trips and never read it.
      *
      * @return ArrayList
      */
@@ -87,8 +136,18 @@ public class Card {
     }
 
     /**
-     * Starts a new trip on this card with the given start event and returns that
-     * trip
+     * Returns the most recent trip taken with this card
+     *
+     * @return the latest trip, null if the card has not been used
+     */
+    public Trip getLatestTrip() {
+        int numTrips = this.trips.size();
+        return numTrips == 0 ? null : this.trips.get(numTrips - 1);
+    }
+
+    /**
+     * Starts a new trip on this card with the given start event, records it in
+     * this card's history and returns that trip
      * 
      * @param initialEvent the tap which started this trip
      * @return the trip which was just started
@@ -108,7 +167,11 @@ public class Card {
      */
     public void removeLatestEventFromTrip(Trip trip) {
         if (trip.getNumEvents() == 1) {
-            trips.remove(trip);
+            // the trip is almost always the latest one, so search from the end
+            int idx = trips.lastIndexOf(trip);
+            if (idx >= 0) {
+                trips.remove(idx);
+            }
         } else {
             trip.removeEvent(trip.getLatestEvent());
         }
@@ -120,7 +183,7 @@ public class Card {
      * @return true iff this card is active, false if it is currently suspended
      */
     public boolean isActive() {
-        return this.active;
+        return (loadState() & ACTIVE) != 0;
     }
 
     /**
@@ -144,10 +207,11 @@ public class Card {
     /**
      * Adds value to this card's balance
      * 
-     * @param value in dollars to be added to the card
+     * @param value to be added to the card
+     * @return the balance of the card after the value was added
      */
-    public void addBalance(float value) {
-        this.balance += value;
+    public Money addBalance(Money value) {
+        return Money.ofCents(addToState(value.getCents() << 1) >> 1);
     }
 
     /**
@@ -161,7 +225,7 @@ public class Card {
      */
     public boolean suspend(ID userId) {
         if (userId.equals(this.bearer.getId())) {
-            this.active = false;
+            setActive(false);
             return true;
         }
         return false;
@@ -177,25 +241,238 @@ public class Card {
      */
     public boolean reActivate(ID userId) {
         if (userId.equals(this.bearer.getId())) {
-            this.active = true;
+            setActive(true);
             return true;
         }
         return false;
     }
 
+    /**
+     * Sets whether this card is active, leaving its balance untouched
+     *
+     * @param active the new status of the card
+     */
+    private void setActive(boolean active) {
+        long current;
+        do {
+            current = loadState();
+        } while (!compareAndSetState(current, active ? current | ACTIVE : current & ~ACTIVE));
+    }
+
     /**
      * Charges the given amount to the card. The card must be active with a positive
      * balance to be charged.
      * 
-     * @param amount to be charged
+     * @param amount to be charged, in cents
      * @return whether the charge was successful. True iff the card is active with a
      *         positive balance when tapped
      */
-    public boolean charge(float amount) {
-        if (this.active && this.balance > 0) {
-            this.balance -= amount;
-            return true;
+    public boolean charge(long amount) {
+        return charge(amount, 1);
+    }
+
+    /**
+     * Charges the given amount to the card if it is active and its balance is at
+     * least the given minimum. The check and the debit happen as one atomic step,
+     * so a concurrent charge or reload can never be lost or overdraw the card past
+     * the check.
+     *
+     * @param amount         to be charged, in cents
+     * @param minimumBalance the balance, in cents, the card must have to be charged
+     * @return whether the charge was successful. True iff the card is active with
+     *         at least the minimum balance when tapped
+     */
+    public boolean charge(long amount, long minimumBalance) {
+        long current;
+        do {
+            current = loadState();
+            if ((current & ACTIVE) == 0 || (current >> 1) < minimumBalance) {
+                return false;
+            }
+        } while (!compareAndSetState(current, current - (amount << 1)));
+        return true;
+    }
+
+    /**
+     * Returns how much of the given amount may be charged to this card at the
+     * given time without going over the given daily and weekly caps, counting what
+     * it has been charged earlier that day and that week. Days are counted from
+     * midnight and weeks from Monday. Must be called with the card's lock held.
+     *
+     * @param amount      the amount to be charged, in cents
+     * @param epochSecond the time of the charge, in seconds since
+     *                    1970-01-01T00:00:00
+     * @param dayCap      the most the card may be charged in a day, in cents
+     * @param weekCap     the most the card may be charged in a week, in cents
+     * @return the amount capped so neither cap is exceeded, never negative
+     */
+    public long capToSpending(long amount, long epochSecond, long dayCap, long weekCap) {
+        long current = rollSpending(loadSpending(), Math.floorDiv(epochSecond, SECONDS_PER_DAY));
+        long spentToday = (current >>> SPENT_BITS) & MAX_SPENT;
+        long spentThisWeek = current & MAX_SPENT;
+        long allowed = Math.min(dayCap - spentToday, weekCap - spentThisWeek);
+        return Math.max(0, Math.min(amount, allowed));
+    }
+
+    /**
+     * Adds the given charge to what this card has spent on the day and week of the
+     * given time, starting a new day or week first if the time falls in one. Must
+     * be called with the card's lock held.
+     *
+     * @param epochSecond the time of the charge, in seconds since
+     *                    1970-01-01T00:00:00
+     * @param amount      the amount charged, in cents
+     */
+    public void addSpending(long epochSecond, long amount) {
+        long day = Math.floorDiv(epochSecond, SECONDS_PER_DAY);
+        long current = rollSpending(loadSpending(), day);
+        long spentToday = Math.min(MAX_SPENT, ((current >>> SPENT_BITS) & MAX_SPENT) + amount);
+        long spentThisWeek = Math.min(MAX_SPENT, (current & MAX_SPENT) + amount);
+        storeSpending(packSpending(day, spentToday, spentThisWeek));
+    }
+
+    /**
+     * Returns this card's spending word: the day it was last charged on, what it
+     * was charged that day and what it was charged that week
+     *
+     * @return the packed spending, for a snapshot to pass back to the card's
+     *         constructor
+     */
+    public long getSpending() {
+        return loadSpending();
+    }
+
+    /**
+     * Keeps this card's balance, status and spending in the given ledger from now
+     * on, instead of on the heap. If the ledger already holds this card from an
+     * earlier run, the state kept there is kept unless overwrite is set. Must be
+     * called before the card is used by more than one thread.
+     *
+     * @param ledger    the ledger to keep this card in
+     * @param overwrite true to replace what the ledger holds for this card with
+     *                  its current balance, status and spending, false to take
+     *                  on what the ledger holds
+     * @return true iff this card is kept in the given ledger, false if the ledger
+     *         has no slot for it and it stays on the heap
+     */
+    public boolean keepIn(CardLedger ledger, boolean overwrite) {
+        if (this.ledger != null) {
+            return this.ledger == ledger;
         }
-        return false;
+        if (!ledger.claim(this, state.get(), spending, overwrite)) {
+            return false;
+        }
+        this.ledger = ledger;
+        this.state = null;
+        return true;
+    }
+
+    /**
+     * Returns the ledger this card is kept in
+     *
+     * @return the card's ledger, null if it is kept on the heap
+     */
+    public CardLedger getLedger() {
+        return this.ledger;
+    }
+
+    /**
+     * Returns this card's state word
+     *
+     * @return the packed balance and active flag
+     */
+    private long loadState() {
+        CardLedger kept = this.ledger;
+        return kept == null ? state.get() : kept.get(id.getSerial());
+    }
+
+    /**
+     * Replaces this card's state word if it is still the expected one
+     *
+     * @param expect the state word the card is expected to have
+     * @param update the new state word
+     * @return true iff the state was replaced
+     */
+    private boolean compareAndSetState(long expect, long update) {
+        CardLedger kept = this.ledger;
+        return kept == null ? state.compareAndSet(expect, update) : kept.compareAndSet(id.getSerial(), expect, update);
+    }
+
+    /**
+     * Adds the given amount to this card's state word
+     *
+     * @param delta the amount to add
+     * @return the new state word
+     */
+    private long addToState(long delta) {
+        CardLedger kept = this.ledger;
+        return kept == null ? state.addAndGet(delta) : kept.addAndGet(id.getSerial(), delta);
+    }
+
+    /**
+     * Returns this card's spending word
+     *
+     * @return the packed spending
+     */
+    private long loadSpending() {
+        CardLedger kept = this.ledger;
+        return kept == null ? spending : kept.getSpending(id.getSerial());
+    }
+
+    /**
+     * Replaces this card's spending word
+     *
+     * @param update the new spending word
+     */
+    private void storeSpending(long update) {
+        CardLedger kept = this.ledger;
+        if (kept == null) {
+            spending = update;
+        } else {
+            kept.setSpending(id.getSerial(), update);
+        }
+    }
+
+    /**
+     * Moves the given spending word on to the given day, clearing the day's
+     * spending if it is a later day and the week's if it is in a later week
+     *
+     * @param current the spending word
+     * @param day     the day of a charge, in days since 1970-01-01
+     * @return the spending word as of that day
+     */
+    private static long rollSpending(long current, long day) {
+        long lastDay = current >>> (2 * SPENT_BITS);
+        long today = day & ((1L << DAY_BITS) - 1);
+        if (lastDay == today) {
+            return current;
+        }
+        // weeks start on Mondays, and 1970-01-01 was a Thursday
+        boolean sameWeek = Math.floorDiv(lastDay + 3, 7) == Math.floorDiv(today + 3, 7);
+        return packSpending(today, 0, sameWeek ? current & MAX_SPENT : 0);
+    }
+
+    /**
+     * Packs a day and what was spent on it and in its week into a single word.
+     * Amounts are held up to MAX_SPENT cents, which caps may not usefully exceed.
+     *
+     * @param day           the day, in days since 1970-01-01
+     * @param spentToday    the amount charged that day, in cents
+     * @param spentThisWeek the amount charged that week, in cents
+     * @return the packed spending
+     */
+    private static long packSpending(long day, long spentToday, long spentThisWeek) {
+        return ((day & ((1L << DAY_BITS) - 1)) << (2 * SPENT_BITS)) | (spentToday << SPENT_BITS) | spentThisWeek;
+    }
+
+    /**
+     * Packs a balance and an active flag into a single state word
+     *
+     * @param balance the balance in cents
+     * @param active  whether the card is active
+     * @return the packed state
+     */
+    private static long pack(long balance, boolean active) {
+        return (balance << 1) | (active ? ACTIVE : 0);
     }
 }
\ No newline at end of file
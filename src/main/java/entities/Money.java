@@ -0,0 +1,119 @@
+package main.java.entities;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * An immutable amount of money, held as a whole number of cents. Amounts are
+ * stored and added as primitive cents everywhere fares are charged or totalled,
+ * so sums are exact; this type is only used where amounts enter or leave the
+ * system, such as reloads, balances shown to riders and revenue reports.
+ */
+public final class Money implements Comparable<Money> {
+    public static final Money ZERO = new Money(0);
+
+    private final long cents;
+
+    /**
+     * Create an amount of the given number of cents
+     *
+     * @param cents the amount in cents
+     */
+    private Money(long cents) {
+        this.cents = cents;
+    }
+
+    /**
+     * Returns the amount of the given number of cents
+     *
+     * @param cents the amount in cents
+     * @return the amount
+     */
+    public static Money ofCents(long cents) {
+        return cents == 0 ? ZERO : new Money(cents);
+    }
+
+    /**
+     * Returns the amount of the given number of whole dollars
+     *
+     * @param dollars the amount in dollars
+     * @return the amount
+     */
+    public static Money ofDollars(long dollars) {
+        return ofCents(Math.multiplyExact(dollars, 100L));
+    }
+
+    /**
+     * Parses a decimal amount of dollars, such as "19" or "7.50". Fractions of a
+     * cent are rounded to the nearest cent.
+     *
+     * @param dollars the amount in dollars
+     * @return the amount
+     * @throws NumberFormatException if the string is not a decimal number
+     */
+    public static Money parse(String dollars) {
+        BigDecimal amount = new BigDecimal(dollars.trim());
+        try {
+            return ofCents(amount.movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact());
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Amount out of range: " + dollars);
+        }
+    }
+
+    /**
+     * Return this amount in cents
+     *
+     * @return the number of cents
+     */
+    public long getCents() {
+        return this.cents;
+    }
+
+    /**
+     * Returns the sum of this amount and the given one
+     *
+     * @param other the amount to add
+     * @return the sum of the amounts
+     */
+    public Money plus(Money other) {
+        return ofCents(Math.addExact(this.cents, other.cents));
+    }
+
+    /**
+     * Returns the difference of this amount and the given one
+     *
+     * @param other the amount to subtract
+     * @return this amount less the other
+     */
+    public Money minus(Money other) {
+        return ofCents(Math.subtractExact(this.cents, other.cents));
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(this.cents, other.cents);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Money && ((Money) other).cents == this.cents;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(this.cents);
+    }
+
+    /**
+     * Returns this amount in dollars and cents, such as "$7.50" or "-$0.50"
+     *
+     * @return this amount as a string
+     */
+    @Override
+    public String toString() {
+        long abs = Math.abs(this.cents);
+        String sign = this.cents < 0 ? "-" : "";
+        long fraction = abs % 100;
+        return sign + "$" + (abs / 100) + (fraction < 10 ? ".0" : ".") + fraction;
+    }
+}
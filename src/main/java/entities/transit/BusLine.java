@@ -23,6 +23,7 @@ public class BusLine extends TransitLine {
      */
     public void setRoute(BusStop[] stops) {
         this.stops = stops;
+        indexRoute(stops);
     }
 
     /**
@@ -36,11 +37,6 @@ public class BusLine extends TransitLine {
      * Get a bus stop along this line with the given name
      */
     public BusStop findStopOnLine(String targetName) {
-        for (BusStop stop : this.stops) {
-            if (stop.getName().equals(targetName)) {
-                return stop;
-            }
-        }
-        return null;
+        return (BusStop) lookupStop(targetName);
     }
 }
@@ -0,0 +1,67 @@
+package main.java.entities.transit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An Object representing a station complex: every stop in the network which
+ * shares a name. Riders may transfer between any two stops of a complex which
+ * are on different lines. Each complex has an integer ID so that deciding
+ * whether two stops are transfers is a comparison of IDs.
+ */
+public class StationComplex {
+    private final int id;
+    private final String name;
+    private ArrayList<TransitStop> members;
+
+    /**
+     * Create a new station complex with no stops
+     *
+     * @param id   the ID of this complex, unique within its network
+     * @param name the name shared by every stop in this complex
+     */
+    StationComplex(int id, String name) {
+        this.id = id;
+        this.name = name;
+        this.members = new ArrayList<>(2);
+    }
+
+    /**
+     * Adds the given stop to this complex
+     *
+     * @param stop a stop with the same name as this complex
+     */
+    void addMember(TransitStop stop) {
+        members.add(stop);
+        stop.setComplex(this);
+    }
+
+    /**
+     * Return the ID of this complex
+     *
+     * @return this complex's ID
+     */
+    public int getId() {
+        return this.id;
+    }
+
+    /**
+     * Return the name shared by the stops in this complex
+     *
+     * @return this complex's name
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Return every stop in this complex, in the order their lines were added to
+     * the network
+     *
+     * @return the stops in this complex
+     */
+    public List<TransitStop> getMembers() {
+        return Collections.unmodifiableList(members);
+    }
+}
@@ -24,6 +24,7 @@ public class SubwayLine extends TransitLine {
      */
     public void setRoute(SubwayStation[] stations) {
         this.stations = stations;
+        indexRoute(stations);
     }
 
     /**
@@ -41,11 +42,6 @@ public class SubwayLine extends TransitLine {
      *         station exists
      */
     public SubwayStation findStopOnLine(String targetName) {
-        for (SubwayStation station : this.stations) {
-            if (station.getName().equals(targetName)) {
-                return station;
-            }
-        }
-        return null;
+        return (SubwayStation) lookupStop(targetName);
     }
 }
\ No newline at end of file
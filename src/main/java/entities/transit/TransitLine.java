@@ -2,6 +2,8 @@ package main.java.entities.transit;
 
 import javafx.scene.paint.Paint;
 
+import java.util.HashMap;
+
 /**
  * An Object representing a line in the transit system. Can be either a Bus or
  * Subway line
@@ -9,6 +11,7 @@ import javafx.scene.paint.Paint;
 public abstract class TransitLine {
     private String name;
     private Paint color;
+    private HashMap<String, TransitStop> stopsByName;
 
     /**
      * Create a new TransitLine called `name`
@@ -17,6 +20,7 @@ public abstract class TransitLine {
      */
     public TransitLine(String name) {
         this.name = name;
+        this.stopsByName = new HashMap<>();
     }
 
     /**
@@ -62,6 +66,30 @@ public abstract class TransitLine {
      */
     public abstract TransitStop findStopOnLine(String targetName);
 
+    /**
+     * Records the position of each stop along the given route and indexes the
+     * stops by name. Must be called by subclasses whenever their route is set.
+     *
+     * @param route the ordered stops this line runs through
+     */
+    protected void indexRoute(TransitStop[] route) {
+        stopsByName = new HashMap<>(route.length * 2);
+        for (int i = 0; i < route.length; i++) {
+            route[i].setPosition(i);
+            stopsByName.put(route[i].getName(), route[i]);
+        }
+    }
+
+    /**
+     * Gets a stop along this line by its name from the index built by indexRoute
+     *
+     * @param targetName name of the stop on this line
+     * @return the stop with that name. null if no such stop exists
+     */
+    protected TransitStop lookupStop(String targetName) {
+        return stopsByName.get(targetName);
+    }
+
     /**
      * Returns the number of stops reached in a ride including the stop exited at,
      * and excluding the stop entered at.
@@ -69,25 +97,13 @@ public abstract class TransitLine {
      * @param start name of the starting location on this line
      * @param end   the name of the location of drop off on this line
      *
-     * @return the number of stops traveled in the ride
+     * @return the number of stops traveled in the ride. 0 if either stop is not on
+     *         this line or the end does not come after the start
      */
     public int getDistTraveled(TransitStop start, TransitStop end) {
-        if (start.getLine() != this || end.getLine() != this) {
+        if (start.getLine() != this || end.getLine() != this || start.getPosition() < 0 || end.getPosition() < 0) {
             return 0;
         }
-        int count = 0;
-        boolean foundStart = false;
-        int i = 0;
-
-        TransitStop[] stops = this.getStops();
-        while (stops[i] != end) {
-            if (stops[i++] == start) {
-                foundStart = true;
-            }
-            if (foundStart) {
-                count++;
-            }
-        }
-        return count;
+        return Math.max(0, end.getPosition() - start.getPosition());
     }
 }
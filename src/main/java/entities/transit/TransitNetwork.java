@@ -0,0 +1,146 @@
+package main.java.entities.transit;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * An Object representing the geometry of a transit network: its bus lines, its
+ * subway line, a dictionary of every stop in the network, and the station
+ * complexes of stops which riders may transfer between. Lines are added one at
+ * a time so the network can be built while its description is still being read.
+ */
+public class TransitNetwork {
+    private ArrayList<BusLine> busLines;
+    private SubwayLine subwayLine;
+    private ArrayList<TransitStop> stops;
+    private ArrayList<StationComplex> complexes;
+    private HashMap<String, StationComplex> complexesByName;
+
+    /**
+     * Create a new network with no lines
+     */
+    public TransitNetwork() {
+        this.busLines = new ArrayList<>();
+        this.stops = new ArrayList<>();
+        this.complexes = new ArrayList<>();
+        this.complexesByName = new HashMap<>();
+    }
+
+    /**
+     * Adds the given bus line, whose route has already been set, to this network
+     *
+     * @param line the bus line to add
+     */
+    public void addLine(BusLine line) {
+        busLines.add(line);
+        addStops(line);
+    }
+
+    /**
+     * Sets the subway line, whose route has already been set, of this network. A
+     * network has only one subway line.
+     *
+     * @param line the subway line of this network
+     * @return true iff the line was added, false if this network already has a
+     *         subway line
+     */
+    public boolean addLine(SubwayLine line) {
+        if (this.subwayLine != null) {
+            return false;
+        }
+        this.subwayLine = line;
+        addStops(line);
+        return true;
+    }
+
+    /**
+     * Adds every stop on the given line to the stop dictionary and to the station
+     * complex of stops sharing its name, creating the complex if needed
+     *
+     * @param line the line whose stops will be added
+     */
+    private void addStops(TransitLine line) {
+        for (TransitStop stop : line.getStops()) {
+            stop.setOrdinal(stops.size());
+            stops.add(stop);
+            StationComplex complex = complexesByName.get(stop.getName());
+            if (complex == null) {
+                complex = new StationComplex(complexes.size(), stop.getName());
+                complexes.add(complex);
+                complexesByName.put(stop.getName(), complex);
+            }
+            complex.addMember(stop);
+        }
+    }
+
+    /**
+     * Return an array of all the bus lines in this network, in the order they were
+     * added
+     *
+     * @return this network's bus lines
+     */
+    public BusLine[] getBusLines() {
+        return busLines.toArray(new BusLine[0]);
+    }
+
+    /**
+     * Return the subway line in this network
+     *
+     * @return this network's subway line, null if it has none
+     */
+    public SubwayLine getSubwayLine() {
+        return this.subwayLine;
+    }
+
+    /**
+     * Return the number of stops in this network
+     *
+     * @return the number of stops on all lines
+     */
+    public int getNumStops() {
+        return stops.size();
+    }
+
+    /**
+     * Return the stop with the given position in this network's stop dictionary.
+     * Stops are numbered in the order their lines were added, then by their order
+     * along the line.
+     *
+     * @param ordinal the position of the stop in the dictionary
+     * @return the stop at that position
+     */
+    public TransitStop getStop(int ordinal) {
+        return stops.get(ordinal);
+    }
+
+    /**
+     * Return the number of station complexes in this network
+     *
+     * @return the number of distinct stop names
+     */
+    public int getNumComplexes() {
+        return complexes.size();
+    }
+
+    /**
+     * Return the station complex with the given ID
+     *
+     * @param id the ID of the complex
+     * @return the complex with that ID
+     */
+    public StationComplex getComplex(int id) {
+        return complexes.get(id);
+    }
+
+    /**
+     * Return the station complex of every stop in this network with the given
+     * name. Riders may transfer between any two of its stops which are on
+     * different lines.
+     *
+     * @param name the name of the stops
+     * @return the complex with that name, null if no stop has that name
+     */
+    public StationComplex findComplex(String name) {
+        return complexesByName.get(name);
+    }
+}
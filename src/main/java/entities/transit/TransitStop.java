@@ -7,6 +7,10 @@ package main.java.entities.transit;
 public class TransitStop {
     private String name;
     private TransitLine line;
+    private int position;
+    private int ordinal;
+    private StationComplex complex;
+    private int complexId;
     private int x, y;
 
     /**
@@ -18,6 +22,9 @@ public class TransitStop {
     public TransitStop(String name, TransitLine line) {
         this.name = name;
         this.line = line;
+        this.position = -1;
+        this.ordinal = -1;
+        this.complexId = -1;
     }
 
     /**
@@ -74,14 +81,75 @@ public class TransitStop {
         return this.line;
     }
 
+    /**
+     * Return the position of this stop along its line, where the first stop on the
+     * line is at position 0
+     *
+     * @return this stop's position, -1 if it is not on its line's route
+     */
+    public int getPosition() {
+        return this.position;
+    }
+
+    /**
+     * Sets the position of this stop along its line. Called by the line when its
+     * route is set.
+     *
+     * @param position the index of this stop in its line's route
+     */
+    void setPosition(int position) {
+        this.position = position;
+    }
+
+    /**
+     * Return the position of this stop in the stop dictionary of its network
+     *
+     * @return this stop's ordinal, -1 if it has not been added to a network
+     */
+    public int getOrdinal() {
+        return this.ordinal;
+    }
+
+    /**
+     * Sets the position of this stop in the stop dictionary of its network. Called
+     * by the network when the stop is added to it.
+     *
+     * @param ordinal the index of this stop in the network's stop dictionary
+     */
+    void setOrdinal(int ordinal) {
+        this.ordinal = ordinal;
+    }
+
+    /**
+     * Return the station complex this stop belongs to
+     *
+     * @return the complex of stops sharing this stop's name, null if this stop has
+     *         not been added to a network
+     */
+    public StationComplex getComplex() {
+        return this.complex;
+    }
+
+    /**
+     * Sets the station complex this stop belongs to. Called by the complex when
+     * the stop is added to it.
+     *
+     * @param complex the complex of stops sharing this stop's name
+     */
+    void setComplex(StationComplex complex) {
+        this.complex = complex;
+        this.complexId = complex.getId();
+    }
+
     /**
      * Return whether or not a rider can transfer to the candidate stop from this
-     * stop
+     * stop. Stops are transfers if they are in the same station complex and on
+     * different lines.
      *
      * @param candidate the stop which will be determined to be a transfer or not
      * @return true iff the candidate stop can be transferred to from this stop
      */
     public boolean canTransferTo(TransitStop candidate) {
-        return name.equals(candidate.getName()) && line != candidate.getLine();
+        return complexId == candidate.complexId && complexId >= 0 && line != candidate.line;
     }
 }
@@ -0,0 +1,168 @@
+package main.java.system;
+
+import main.java.entities.Card;
+import main.java.system.UID.ID;
+
+import java.util.Arrays;
+
+/**
+ * An index of every transit card in the system keyed by the numeric value of
+ * its ID. Cards are kept in a dense array in the order they were registered and
+ * an open-addressing table of primitive keys maps each card ID to its position
+ * in that array, so a lookup is a single hash probe sequence and each card costs
+ * a fixed number of bytes regardless of how many cards its rider holds.
+ * Cards may be registered while taps are being processed on other threads:
+ * registration is synchronized, and lookups never lock. A grown table is only
+ * published once it is complete.
+ */
+public class CardRegistry {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int EMPTY = -1;
+
+    private volatile Table table;
+    private int size;
+
+    /**
+     * Create a new, empty card registry
+     */
+    public CardRegistry() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Create a new, empty card registry with room for the given number of cards
+     * before it has to grow
+     *
+     * @param expected the number of cards expected to be registered
+     */
+    public CardRegistry(int expected) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < expected) {
+            capacity <<= 1;
+        }
+        this.table = new Table(capacity);
+    }
+
+    /**
+     * Adds the given card to this registry. If a card with the same ID has already
+     * been registered it is replaced by the given card.
+     *
+     * @param card the card to register
+     */
+    public synchronized void register(Card card) {
+        Table t = this.table;
+        long key = card.getId().toLong();
+        int idx = probe(t.keys, t.positions, key);
+
+        if (t.positions[idx] != EMPTY) {
+            t.cards[t.positions[idx]] = card;
+            this.table = t;
+            return;
+        }
+
+        if (size == t.cards.length) {
+            t = grow(t);
+            idx = probe(t.keys, t.positions, key);
+        }
+        t.cards[size] = card;
+        t.keys[idx] = key;
+        t.positions[idx] = size++;
+        // republish so that lookups which read the table afterwards see the card
+        this.table = t;
+    }
+
+    /**
+     * Returns the card registered with the given numeric ID
+     *
+     * @param id the numeric value of the card's ID
+     * @return the card with the given ID. null if no such card has been registered
+     */
+    public Card get(long id) {
+        Table t = this.table;
+        int pos = t.positions[probe(t.keys, t.positions, id)];
+        return pos == EMPTY ? null : t.cards[pos];
+    }
+
+    /**
+     * Return the number of cards in this registry
+     *
+     * @return the number of registered cards
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the index in the given table at which the given key is stored, or the
+     * empty index at which it would be inserted if it is not in the table
+     *
+     * @param keys      the keys of the table to search
+     * @param positions the positions of the table to search, EMPTY marks free
+     *                  slots
+     * @param key       the key to look for
+     * @return the index of the key, or of the first free slot in its probe sequence
+     */
+    private static int probe(long[] keys, int[] positions, long key) {
+        int mask = keys.length - 1;
+        int idx = hash(key) & mask;
+        while (positions[idx] != EMPTY && keys[idx] != key) {
+            idx = (idx + 1) & mask;
+        }
+        return idx;
+    }
+
+    /**
+     * Builds a table with double the capacity of the given one, re-inserting
+     * every key into it. The given table is left untouched for lookups still
+     * using it.
+     *
+     * @param old the full table
+     * @return the larger table
+     */
+    private static Table grow(Table old) {
+        Table grown = new Table(old.cards.length * 2);
+
+        for (int i = 0; i < old.keys.length; i++) {
+            if (old.positions[i] != EMPTY) {
+                int idx = probe(grown.keys, grown.positions, old.keys[i]);
+                grown.keys[idx] = old.keys[i];
+                grown.positions[idx] = old.positions[i];
+            }
+        }
+        System.arraycopy(old.cards, 0, grown.cards, 0, old.cards.length);
+
+        return grown;
+    }
+
+    /**
+     * Spreads the bits of a card ID so that sequential IDs do not cluster in the
+     * table
+     *
+     * @param key the card ID to hash
+     * @return a well distributed hash of the key
+     */
+    private static int hash(long key) {
+        return (int) ID.mix(key);
+    }
+
+    /**
+     * The arrays backing the registry, replaced as a whole when it grows
+     */
+    private static class Table {
+        private final long[] keys;
+        private final int[] positions;
+        private final Card[] cards;
+
+        /**
+         * Creates an empty table with room for the given number of cards
+         *
+         * @param capacity the number of cards the table can hold
+         */
+        Table(int capacity) {
+            this.keys = new long[capacity * 2];
+            this.positions = new int[capacity * 2];
+            this.cards = new Card[capacity];
+            Arrays.fill(this.positions, EMPTY);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package main.java.system;
+
+import main.java.system.event.Event;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes log records to a file as JSON lines on a thread of its own. Threads
+ * logging a record only add it to a lock-free queue; the writer thread turns
+ * the records it finds waiting into text, collects them in a buffer and writes
+ * the buffer to the file in one call. The text of a tap is only built on the
+ * writer thread, so logging a tap costs the tapping thread one queued record.
+ */
+class LogWriter implements Closeable {
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final long IDLE_NANOS = 1_000_000;
+
+    private final FileChannel channel;
+    private final ConcurrentLinkedQueue<Record> queue;
+    private final ByteBuffer buffer;
+    private final StringBuilder line;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    /**
+     * Opens the given file for appending and starts the writer thread
+     *
+     * @param file the file to write records to, created if it does not exist
+     * @throws IOException if the file cannot be opened
+     */
+    LogWriter(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        this.queue = new ConcurrentLinkedQueue<>();
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        this.line = new StringBuilder(256);
+        this.thread = new Thread(this::run, "log-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues a record with a message to be written
+     *
+     * @param level the level of the record
+     * @param scope the tag of the record
+     * @param msg   the message
+     */
+    void add(Logger.Level level, String scope, String msg) {
+        queue.add(new Record(level, scope, msg, null));
+    }
+
+    /**
+     * Queues a record of a tap, whose text is built when it is written
+     *
+     * @param evt the tap
+     */
+    void add(Event evt) {
+        queue.add(new Record(Logger.Level.EVENT, "EVENT", null, evt));
+    }
+
+    /**
+     * Writes every record already queued, then stops the writer thread and closes
+     * the file
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes queued records in batches until the writer is closed and the queue is
+     * empty
+     */
+    private void run() {
+        try {
+            while (true) {
+                boolean wasClosed = closed;
+                Record record;
+                while ((record = queue.poll()) != null) {
+                    encode(record);
+                }
+                drain();
+                if (wasClosed && queue.isEmpty()) {
+                    break;
+                }
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+        } catch (IOException e) {
+            // the log file is gone, so this is the only place left to say so
+            System.err.println("[ERROR] The log file could not be written. " + e.getMessage());
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // nothing more can be written either way
+            }
+        }
+    }
+
+    /**
+     * Appends a record to the buffer as one line of JSON, writing the buffer out
+     * first if the line does not fit
+     *
+     * @param record the record to encode
+     * @throws IOException if the buffer cannot be written
+     */
+    private void encode(Record record) throws IOException {
+        line.setLength(0);
+        line.append("{\"logged\":").append(record.logged);
+        line.append(",\"level\":\"").append(record.level).append('"');
+        if (record.event == null) {
+            line.append(",\"scope\":");
+            quote(record.scope);
+            line.append(",\"msg\":");
+            quote(record.msg);
+        } else {
+            Event evt = record.event;
+            line.append(",\"time\":\"").append(evt.getTimeStamp()).append('"');
+            line.append(",\"card\":").append(evt.getCard().getId().toLong());
+            line.append(",\"rider\":");
+            quote(evt.getCard().getBearer().getName());
+            line.append(",\"action\":\"").append(evt.getDirection()).append('"');
+            line.append(",\"stop\":");
+            quote(evt.getLocation().getName());
+            line.append(",\"line\":");
+            quote(evt.getLocation().getLine().getName());
+        }
+        line.append("}\n");
+
+        byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > buffer.remaining()) {
+            drain();
+        }
+        if (bytes.length > buffer.remaining()) {
+            channel.write(ByteBuffer.wrap(bytes));
+        } else {
+            buffer.put(bytes);
+        }
+    }
+
+    /**
+     * Appends a string to the line as a quoted JSON string
+     *
+     * @param s the string to quote, written as null if it is null
+     */
+    private void quote(String s) {
+        if (s == null) {
+            line.append("null");
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c == '\n') {
+                line.append("\\n");
+            } else if (c < 0x20) {
+                line.append(String.format("\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    /**
+     * Writes whatever is in the buffer to the file
+     *
+     * @throws IOException if the file cannot be written
+     */
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * One record waiting to be written
+     */
+    private static class Record {
+        private final long logged;
+        private final Logger.Level level;
+        private final String scope;
+        private final String msg;
+        private final Event event;
+
+        /**
+         * Creates a record logged now
+         *
+         * @param level the level of the record
+         * @param scope the tag of the record
+         * @param msg   the message, null for a tap
+         * @param event the tap, null for a message
+         */
+        Record(Logger.Level level, String scope, String msg, Event event) {
+            this.logged = System.currentTimeMillis();
+            this.level = level;
+            this.scope = scope;
+            this.msg = msg;
+            this.event = event;
+        }
+    }
+}
@@ -3,40 +3,146 @@ package main.java.system;
 import main.java.system.event.Event;
 import main.java.users.Rider;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 
 /**
- * A class containing the logic to print transit system messages to the console
+ * A class containing the logic to print transit system messages to the console,
+ * or to write them to a log file in the background. Messages below the current
+ * level are dropped before any of their text is built. The level and the log
+ * file can be set with the transit.log.level and transit.log.file system
+ * properties.
  */
 public class Logger {
     /**
-     * Writes a formatted output to the console with the given timestamp. Writes the
-     * message with format [scope] timestamp: msg
+     * The levels of messages, from the most to the least frequent
+     */
+    public enum Level {
+        /**
+         * Every tap handled
+         */
+        EVENT,
+        /**
+         * Messages to riders and admins, and trip listings
+         */
+        INFO,
+        /**
+         * Errors
+         */
+        ERROR,
+        /**
+         * No messages at all
+         */
+        OFF
+    }
+
+    private static volatile Level level = Level.EVENT;
+    private static volatile LogWriter writer;
+
+    static {
+        String configured = System.getProperty("transit.log.level");
+        if (configured != null) {
+            try {
+                level = Level.valueOf(configured.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                error("Unknown log level " + configured + ".", "Use one of EVENT, INFO, ERROR or OFF.");
+            }
+        }
+        String file = System.getProperty("transit.log.file");
+        if (file != null) {
+            try {
+                toFile(Paths.get(file));
+            } catch (IOException e) {
+                error("Could not open the log file " + file + ".", "Messages will be printed to the console.");
+            }
+        }
+    }
+
+    /**
+     * Sets the lowest level of messages which are logged
+     * 
+     * @param level the new level
+     */
+    public static void setLevel(Level level) {
+        Logger.level = level;
+    }
+
+    /**
+     * Return whether messages of the given level are logged
+     * 
+     * @param msgLevel the level of a message
+     * @return true iff messages of that level are logged
+     */
+    public static boolean isEnabled(Level msgLevel) {
+        return msgLevel.compareTo(level) >= 0;
+    }
+
+    /**
+     * Writes every message logged from now on to the given file as JSON lines
+     * instead of printing it to the console. The file is written on a background
+     * thread, and whatever is still queued is written when the program exits.
      * 
+     * @param file the file to append messages to
+     * @throws IOException if the file cannot be opened
+     */
+    public static synchronized void toFile(Path file) throws IOException {
+        LogWriter previous = writer;
+        if (previous == null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(Logger::close, "log-close"));
+        }
+        writer = new LogWriter(file);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Writes out every message queued for the log file and goes back to printing
+     * messages to the console
+     */
+    public static synchronized void close() {
+        LogWriter previous = writer;
+        writer = null;
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Logs a message with the given scope and timestamp. On the console the message
+     * is written with format [scope] timestamp: msg
+     * 
+     * @param msgLevel  the level of the message
      * @param scope     the string representing the type of message being logged
      * @param msg       the string to be logged
      * @param timestamp the datetime which the message will be tagged with
      */
-    private static void output(String scope, String msg, LocalDateTime timestamp) {
-        String prefix;
-        if (timestamp == null) {
-            prefix = String.format("[%s] ", scope);
-        } else {
-            prefix = String.format("[%s] %s: ", scope, timestamp.toString());
+    private static void output(Level msgLevel, String scope, String msg, LocalDateTime timestamp) {
+        LogWriter sink = writer;
+        if (sink != null) {
+            sink.add(msgLevel, scope, timestamp == null ? msg : timestamp + ": " + msg);
+            return;
         }
 
-        System.out.println(prefix + msg);
+        StringBuilder line = new StringBuilder().append('[').append(scope).append("] ");
+        if (timestamp != null) {
+            line.append(timestamp).append(": ");
+        }
+        System.out.println(line.append(msg));
     }
 
     /**
-     * Writes a formatted log message to the console with the given scope and
-     * message. Writes the message with format [scope] msg
+     * Logs a message with the given scope. On the console the message is written
+     * with format [scope] msg
      * 
-     * @param scope the scope to tag the message with
-     * @param msg   the message itself
+     * @param msgLevel the level of the message
+     * @param scope    the scope to tag the message with
+     * @param msg      the message itself
      */
-    private static void output(String scope, String msg) {
-        output(scope, msg, null);
+    private static void output(Level msgLevel, String scope, String msg) {
+        output(msgLevel, scope, msg, null);
     }
 
     /**
@@ -46,24 +152,36 @@ public class Logger {
      * @param remedy  an explanation on how one might fix this error
      */
     public static void error(String err_msg, String remedy) {
-        output("ERROR", err_msg + " " + remedy);
+        if (isEnabled(Level.ERROR)) {
+            output(Level.ERROR, "ERROR", err_msg + " " + remedy);
+        }
     }
 
     /**
      * Writes the given tap event to the console. Unpacks the information from the
-     * given event and prints in a human readable format with the EVENT tag
+     * given event and prints in a human readable format with the EVENT tag. When
+     * logging to a file, the event is unpacked on the writer thread instead.
      * 
      * @param evt the event object to be printed
      */
     public static void event(Event evt) {
+        if (!isEnabled(Level.EVENT)) {
+            return;
+        }
+        LogWriter sink = writer;
+        if (sink != null) {
+            sink.add(evt);
+            return;
+        }
+
         String cardholder = evt.getCard().getBearer().getName();
         String action = evt.getDirection() + "ed";
         String loc = evt.getLocation().getName();
         String line = evt.getLocation().getLine().getName();
 
-        String msg = String.format("%s %s %s on %s", cardholder, action, loc, line);
+        String msg = cardholder + " " + action + " " + loc + " on " + line;
 
-        output("EVENT", msg, evt.getTimeStamp());
+        output(Level.EVENT, "EVENT", msg, evt.getTimeStamp());
     }
 
     /**
@@ -72,9 +190,12 @@ public class Logger {
      * @param trips the array of trips to display
      */
     public static void trips(Trip[] trips) {
+        if (!isEnabled(Level.INFO)) {
+            return;
+        }
         for (Trip t : trips) {
             if (t != null) {
-                output("TRIP", t.toString());
+                output(Level.INFO, "TRIP", t.toString());
             }
         }
     }
@@ -87,15 +208,19 @@ public class Logger {
      * @param msg  the message to display to the user
      */
     public static void user(Rider user, String msg) {
-        output(user.getName(), msg);
+        if (isEnabled(Level.INFO)) {
+            output(Level.INFO, user.getName(), msg);
+        }
     }
 
     /**
      * Logs the given message to the system admin. Logs with ADMIN tag
-     *
+     * 
      * @param msg the message to display
      */
     public static void admin(String msg) {
-        output("ADMIN", msg);
+        if (isEnabled(Level.INFO)) {
+            output(Level.INFO, "ADMIN", msg);
+        }
     }
 }
@@ -0,0 +1,209 @@
+package main.java.system;
+
+import main.java.entities.Card;
+import main.java.system.UID.ID;
+
+/**
+ * A table of the trips currently in progress, with at most one open trip per
+ * card, keyed by the numeric ID of the card. Tap handling only ever looks at
+ * this table to decide whether a tap continues a trip, so its cost does not
+ * depend on how many trips a card has taken before. The table is split into
+ * independently locked segments, each an open-addressing table of primitive
+ * keys, so taps on different cards rarely wait for one another.
+ */
+public class OpenTripTable {
+    private static final int NUM_SEGMENTS = 64;
+
+    private final Segment[] segments;
+
+    /**
+     * Create a new table with no open trips
+     */
+    public OpenTripTable() {
+        this.segments = new Segment[NUM_SEGMENTS];
+        for (int i = 0; i < NUM_SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Returns the trip in progress on the given card
+     *
+     * @param card the card whose trip is wanted
+     * @return the card's open trip, null if it has none
+     */
+    public Trip get(Card card) {
+        long key = card.getId().toLong();
+        return segmentFor(key).get(key);
+    }
+
+    /**
+     * Sets the trip in progress on the given card, replacing any trip which was
+     * open before
+     *
+     * @param card the card the trip was taken with
+     * @param trip the card's new open trip
+     */
+    public void put(Card card, Trip trip) {
+        long key = card.getId().toLong();
+        segmentFor(key).put(key, trip);
+    }
+
+    /**
+     * Closes the trip in progress on the given card
+     *
+     * @param card the card whose trip is closed
+     * @return the trip which was open, null if the card had none
+     */
+    public Trip remove(Card card) {
+        long key = card.getId().toLong();
+        return segmentFor(key).remove(key);
+    }
+
+    /**
+     * Return the number of open trips in this table
+     *
+     * @return the number of cards with a trip in progress
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the segment responsible for the given card ID
+     *
+     * @param key the numeric ID of a card
+     * @return the segment which holds that card's open trip
+     */
+    private Segment segmentFor(long key) {
+        return segments[hash(key) & (NUM_SEGMENTS - 1)];
+    }
+
+    /**
+     * Spreads the bits of a card ID so that sequential IDs are spread across
+     * segments and slots
+     *
+     * @param key the card ID to hash
+     * @return a well distributed hash of the key
+     */
+    private static int hash(long key) {
+        return (int) ID.mix(key);
+    }
+
+    /**
+     * One independently locked part of the table, holding the open trips of the
+     * cards whose IDs hash to it
+     */
+    private static class Segment {
+        private long[] keys = new long[16];
+        private Trip[] trips = new Trip[16];
+        private int size;
+
+        /**
+         * Returns the open trip for the given card ID
+         *
+         * @param key the numeric ID of the card
+         * @return the open trip, null if there is none
+         */
+        synchronized Trip get(long key) {
+            return trips[indexOf(key)];
+        }
+
+        /**
+         * Sets the open trip for the given card ID
+         *
+         * @param key  the numeric ID of the card
+         * @param trip the card's open trip
+         */
+        synchronized void put(long key, Trip trip) {
+            int idx = indexOf(key);
+            if (trips[idx] == null) {
+                if ((size + 1) * 2 > trips.length) {
+                    grow();
+                    idx = indexOf(key);
+                }
+                keys[idx] = key;
+                size++;
+            }
+            trips[idx] = trip;
+        }
+
+        /**
+         * Removes the open trip for the given card ID, shifting back any entries
+         * further along the probe sequence so that no gaps are left
+         *
+         * @param key the numeric ID of the card
+         * @return the trip which was removed, null if there was none
+         */
+        synchronized Trip remove(long key) {
+            int idx = indexOf(key);
+            Trip removed = trips[idx];
+            if (removed == null) {
+                return null;
+            }
+            int mask = trips.length - 1;
+            int gap = idx;
+            int next = (gap + 1) & mask;
+            while (trips[next] != null) {
+                int home = (hash(keys[next]) >>> 6) & mask;
+                // move the entry back if its home slot is not between the gap and it
+                if (((next - home) & mask) >= ((next - gap) & mask)) {
+                    keys[gap] = keys[next];
+                    trips[gap] = trips[next];
+                    gap = next;
+                }
+                next = (next + 1) & mask;
+            }
+            trips[gap] = null;
+            size--;
+            return removed;
+        }
+
+        /**
+         * Return the number of open trips in this segment
+         *
+         * @return the number of entries
+         */
+        synchronized int size() {
+            return size;
+        }
+
+        /**
+         * Returns the index of the given key, or of the free slot where it would be
+         * inserted
+         *
+         * @param key the numeric ID of the card
+         * @return the index of the key or of the first free slot in its probe
+         *         sequence
+         */
+        private int indexOf(long key) {
+            int mask = trips.length - 1;
+            int idx = (hash(key) >>> 6) & mask;
+            while (trips[idx] != null && keys[idx] != key) {
+                idx = (idx + 1) & mask;
+            }
+            return idx;
+        }
+
+        /**
+         * Doubles the capacity of this segment
+         */
+        private void grow() {
+            long[] oldKeys = keys;
+            Trip[] oldTrips = trips;
+            keys = new long[oldKeys.length * 2];
+            trips = new Trip[oldTrips.length * 2];
+            for (int i = 0; i < oldTrips.length; i++) {
+                if (oldTrips[i] != null) {
+                    int idx = indexOf(oldKeys[i]);
+                    keys[idx] = oldKeys[i];
+                    trips[idx] = oldTrips[i];
+                }
+            }
+        }
+    }
+}
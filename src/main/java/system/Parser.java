@@ -1,11 +1,18 @@
 package main.java.system;
 
 import main.java.entities.Card;
+import main.java.entities.Money;
 import main.java.system.UID.IDGenerator;
 import main.java.entities.transit.BusLine;
 import main.java.entities.transit.BusStop;
 import main.java.entities.transit.SubwayLine;
 import main.java.entities.transit.SubwayStation;
+import main.java.entities.transit.TransitNetwork;
+import main.java.system.ingest.BinaryEventLogReader;
+import main.java.system.ingest.BinaryEventLogWriter;
+import main.java.system.ingest.MappedEventReader;
+import main.java.system.fare.FareRules;
+import main.java.system.ingest.PartitionedEventReplayer;
 import main.java.users.Rider;
 
 import java.io.BufferedReader;
@@ -25,6 +32,8 @@ public class Parser {
     File riders;
     File events;
     File cards;
+    File binaryEvents;
+    File fares;
 
     /**
      * Construct the parser, attach File variables to the file path
@@ -36,6 +45,8 @@ public class Parser {
         this.cards = new File(path + "/src/main/java/files/Cards.txt");
         this.lines = new File(path + "/src/main/java/files/Lines.txt");
         this.events = new File(path + "/src/main/java/files/Events.txt");
+        this.binaryEvents = new File(path + "/src/main/java/files/Events.bin");
+        this.fares = new File(path + "/src/main/java/files/Fares.txt");
     }
 
     /**
@@ -89,97 +100,114 @@ public class Parser {
     }
 
     /**
-     * Creates Array of BusLines based on the lines given in the LinesFile. Lines
-     * will be written in the format of
-     * "[LineType];[LineName];[StopName1];[StopName2];....;[StopNameN]" where
-     * <ul>
-     * <li>[LineType] is the type of the Line, either bus or subway</li>
-     *
-     * <li>[LineName] is the name of the Line</li>
+     * Processes the tap events in the EventsFile by memory-mapping the file and
+     * tokenizing each event in place rather than reading it line by line. Events
+     * have the same format as those read by eventParser.
      *
-     * <li>[StopName(n)] is the name of the Stop</li>
-     * </ul>
-     *
-     * @return Busline[] which is an array of all BusLines
+     * @param transitSystem is the transit system that handles main activities
      * @throws IOException when an exception occurs during file IO
      */
-    public BusLine[] busParser() throws IOException {
-
-        BufferedReader brLines = new BufferedReader(new FileReader(this.lines));
-
-        int buses = busLineCount();
-        BusLine[] busLines = new BusLine[buses];
-        int k = 0;
-        String st;
-        while ((st = brLines.readLine()) != null) {
-            String[] data = st.split(";");
-            if (data[0].equals("Bus")) {
-                busLines[k] = new BusLine(data[1]);
-                BusStop[] busStops = new BusStop[data.length - 2];
-                for (int i = 0; i < busStops.length; i++) {
-                    busStops[i] = new BusStop(data[i + 2], busLines[k]);
-                }
-                busLines[k].setRoute(busStops);
-                k++;
-            }
-        }
-        return (busLines);
+    public void mappedEventParser(TransitSystem transitSystem) throws IOException {
+        new MappedEventReader(transitSystem).replay(events);
     }
 
     /**
-     * Responsible for returning the count of the amount of busLines in the file
-     * 
-     * @return int number of busLines
+     * Processes the tap events in the EventsFile on the given number of threads.
+     * Taps made with the same card are processed in the order they appear in the
+     * file, so the end state is the same as that of eventParser.
+     *
+     * @param transitSystem is the transit system that handles main activities
+     * @param threads       the number of threads to process taps on
      * @throws IOException when an exception occurs during file IO
      */
-    private int busLineCount() throws IOException {
+    public void parallelEventParser(TransitSystem transitSystem, int threads) throws IOException {
+        new PartitionedEventReplayer(transitSystem, threads).replay(events);
+    }
 
-        BufferedReader brLines = new BufferedReader(new FileReader(this.lines));
+    /**
+     * Processes the tap events in the binary EventsFile, written by eventConverter.
+     *
+     * @param transitSystem is the transit system that handles main activities
+     * @throws IOException when an exception occurs during file IO
+     */
+    public void binaryEventParser(TransitSystem transitSystem) throws IOException {
+        new BinaryEventLogReader(transitSystem).replay(binaryEvents);
+    }
 
-        int count = 0;
-        String st;
-        while ((st = brLines.readLine()) != null) {
-            count++;
-        }
-        if (count == 0) {
-            return 0;
-        }
-        return count - 1;
+    /**
+     * Converts the tap events in the EventsFile to the compact binary format read
+     * by binaryEventParser. Each tap takes a fixed 12 bytes and the stops and
+     * lines of the network are written once in the header.
+     *
+     * @param transitSystem is the transit system whose network the events use
+     * @throws IOException when an exception occurs during file IO
+     */
+    public void eventConverter(TransitSystem transitSystem) throws IOException {
+        BinaryEventLogWriter.convert(transitSystem, events, binaryEvents);
     }
 
     /**
-     * Creates a SubwayLine based on the lines given in the LinesFile. Lines will be
-     * written in the format of
+     * Creates the transit network described by the LinesFile, reading the file
+     * once. Lines will be written in the format of
      * "[LineType];[LineName];[StopName1];[StopName2];....;[StopNameN]" where
      * <ul>
-     * <li>[LineType] is the type of the Line, either bus or subway</li>
+     * <li>[LineType] is the type of the Line, either Bus or Subway</li>
      *
      * <li>[LineName] is the name of the Line</li>
      *
      * <li>[StopName(n)] is the name of the Stop</li>
      * </ul>
+     * A network has only one subway line, any further subway lines are skipped.
      *
-     * @return SubwayLine which is an array of all BusLines
+     * @return TransitNetwork containing every line in the file and its stops
      * @throws IOException when an exception occurs during file IO
      */
-    public SubwayLine subwayParser() throws IOException {
-
-        BufferedReader brLines = new BufferedReader(new FileReader(this.lines));
-
-        SubwayLine subwayLines = null;
-        String st;
-        while ((st = brLines.readLine()) != null) {
-            String[] data = st.split(";");
-            if (data[0].equals("Subway")) {
-                subwayLines = new SubwayLine(data[1]);
-                SubwayStation[] subwayStation = new SubwayStation[data.length - 2];
-                for (int i = 0; i < subwayStation.length; i++) {
-                    subwayStation[i] = new SubwayStation(data[i + 2], subwayLines);
+    public TransitNetwork networkParser() throws IOException {
+        TransitNetwork network = new TransitNetwork();
+
+        try (BufferedReader brLines = new BufferedReader(new FileReader(this.lines), 1 << 16)) {
+            String st;
+            while ((st = brLines.readLine()) != null) {
+                String[] data = st.split(";");
+                if (data[0].equals("Bus")) {
+                    BusLine busLine = new BusLine(data[1]);
+                    BusStop[] busStops = new BusStop[data.length - 2];
+                    for (int i = 0; i < busStops.length; i++) {
+                        busStops[i] = new BusStop(data[i + 2], busLine);
+                    }
+                    busLine.setRoute(busStops);
+                    network.addLine(busLine);
+                } else if (data[0].equals("Subway")) {
+                    SubwayLine subwayLine = new SubwayLine(data[1]);
+                    SubwayStation[] subwayStations = new SubwayStation[data.length - 2];
+                    for (int i = 0; i < subwayStations.length; i++) {
+                        subwayStations[i] = new SubwayStation(data[i + 2], subwayLine);
+                    }
+                    subwayLine.setRoute(subwayStations);
+                    if (!network.addLine(subwayLine)) {
+                        Logger.error("Skipped subway line " + data[1] + ".", "Only one subway line is supported.");
+                    }
+                } else if (!st.isEmpty()) {
+                    Logger.error("Skipped line of unknown type " + data[0] + ".",
+                            "Lines must be of type Bus or Subway.");
                 }
-                subwayLines.setRoute(subwayStation);
             }
         }
-        return (subwayLines);
+        return network;
+    }
+
+    /**
+     * Reads the fare rules in the FaresFile; see FareRules for how they are
+     * written. If there is no FaresFile the default fares are used.
+     *
+     * @return the fare rules
+     * @throws IOException when an exception occurs during file IO
+     */
+    public FareRules fareParser() throws IOException {
+        if (!this.fares.exists()) {
+            return FareRules.defaults();
+        }
+        return FareRules.read(this.fares.toPath());
     }
 
     /**
@@ -208,9 +236,10 @@ public class Parser {
             if (data.length == 2) {
                 card = new Card(rider, data[1]);
             } else {
-                card = new Card(rider, data[1], Float.parseFloat(data[2]));
+                card = new Card(rider, data[1], Money.parse(data[2]));
             }
             rider.issueCard(card);
+            transitSystem.registerCard(card);
         }
     }
 }
\ No newline at end of file
@@ -5,13 +5,24 @@ import main.java.system.UID.ID;
 import main.java.system.UID.IDGenerator;
 import main.java.entities.transit.*;
 import main.java.system.event.BusEventHandler;
+import main.java.system.event.Direction;
 import main.java.system.event.Event;
 import main.java.system.event.SubwayEventHandler;
+import main.java.system.fare.FareMode;
+import main.java.system.fare.FareRules;
+import main.java.system.fare.FareTable;
+import main.java.system.journal.TapJournal;
+import main.java.system.ledger.CardLedger;
 import main.java.system.metrics.Observable;
 import main.java.users.Rider;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * A class representing a public transportation system. Keeps track of all bus
@@ -19,9 +30,29 @@ import java.time.format.DateTimeFormatter;
  * inputs, such as events generated by a user tapping into or out of the system.
  */
 public class TransitSystem extends Observable {
+    private static final int NUM_CARD_LOCKS = 1024;
+    private static final BusEventHandler BUS_EVENT_HANDLER = new BusEventHandler();
+    private static final SubwayEventHandler SUBWAY_EVENT_HANDLER = new SubwayEventHandler();
+
+    /**
+     * Returned by handleTapEvent when a tap was refused, either because the card
+     * could not be charged or because the tap does not follow from the card's
+     * previous taps
+     */
+    public static final long DECLINED = -1;
+
     private Rider[] cardholders;
+    private TransitNetwork network;
     private BusLine[] busLines;
     private SubwayLine subwayLine;
+    private CardRegistry cards;
+    private OpenTripTable openTrips;
+    private TripExpiryWheel expiry;
+    private final Object[] cardLocks;
+    private final Map<String, BusLine> busLinesByName;
+    private volatile TapJournal journal;
+    private volatile CardLedger ledger;
+    private volatile FareTable fares;
 
     private DateTimeFormatter dtFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd-HH:mm:ss");
 
@@ -34,9 +65,105 @@ public class TransitSystem extends Observable {
      * @param subwayLine  the subway route which is in this network
      */
     public TransitSystem(Rider[] cardholders, BusLine[] busLines, SubwayLine subwayLine) {
+        this(cardholders, networkOf(busLines, subwayLine));
+    }
+
+    /**
+     * Construct a new TransitSystem given a user base and the network of lines it
+     * runs
+     *
+     * @param cardholders the initial set of Riders who have cards for this network
+     * @param network     the bus and subway lines which are part of the system
+     */
+    public TransitSystem(Rider[] cardholders, TransitNetwork network) {
         this.cardholders = cardholders;
-        this.busLines = busLines;
-        this.subwayLine = subwayLine;
+        this.network = network;
+        this.busLines = network.getBusLines();
+        this.subwayLine = network.getSubwayLine();
+        int numCards = 0;
+        for (Rider rider : cardholders) {
+            numCards += rider.getCards().size();
+        }
+        this.cards = new CardRegistry(numCards);
+        this.openTrips = new OpenTripTable();
+        this.expiry = new TripExpiryWheel(this);
+        this.cardLocks = new Object[NUM_CARD_LOCKS];
+        for (int i = 0; i < NUM_CARD_LOCKS; i++) {
+            this.cardLocks[i] = new Object();
+        }
+        this.busLinesByName = indexBusLines(this.busLines);
+        this.fares = FareTable.compile(FareRules.defaults(), network);
+
+        for (Rider rider : cardholders) {
+            for (Card card : rider.getCards()) {
+                this.cards.register(card);
+            }
+        }
+    }
+
+    /**
+     * Builds a network out of the given lines
+     *
+     * @param busLines   the bus lines in the network
+     * @param subwayLine the subway line in the network
+     * @return a network containing the given lines
+     */
+    private static TransitNetwork networkOf(BusLine[] busLines, SubwayLine subwayLine) {
+        TransitNetwork network = new TransitNetwork();
+        network.addLine(subwayLine);
+        for (BusLine line : busLines) {
+            network.addLine(line);
+        }
+        return network;
+    }
+
+    /**
+     * Builds the read-only index from line name to bus line used to resolve bus
+     * taps. Each line's stops are in turn indexed by name on the line itself.
+     *
+     * @param busLines the bus lines to index
+     * @return a map from each line's name to the first line with that name
+     */
+    private static Map<String, BusLine> indexBusLines(BusLine[] busLines) {
+        HashMap<String, BusLine> index = new HashMap<>(busLines.length * 2);
+        for (BusLine line : busLines) {
+            index.putIfAbsent(line.getName(), line);
+        }
+        return Collections.unmodifiableMap(index);
+    }
+
+    /**
+     * Construct a new TransitSystem which shares the riders, lines and cards of the
+     * given system but has no observers of its own. Taps processed by the new
+     * system update the same cards and trips as the given one, so it may be used
+     * to process taps for a separate set of cards while collecting metrics apart
+     * from the given system. The new system expires the trips it opens on its own
+     * clock; see transferOpenTripsTo.
+     *
+     * @param other the transit system whose network and cardholders will be shared
+     */
+    public TransitSystem(TransitSystem other) {
+        this.cardholders = other.cardholders;
+        this.network = other.network;
+        this.busLines = other.busLines;
+        this.subwayLine = other.subwayLine;
+        this.cards = other.cards;
+        this.openTrips = other.openTrips;
+        this.expiry = new TripExpiryWheel(this);
+        this.cardLocks = other.cardLocks;
+        this.busLinesByName = other.busLinesByName;
+        this.journal = other.journal;
+        this.ledger = other.ledger;
+        this.fares = other.fares;
+    }
+
+    /**
+     * Returns the network of lines and stops in this system
+     *
+     * @return this system's transit network
+     */
+    public TransitNetwork getNetwork() {
+        return this.network;
     }
 
     /**
@@ -75,10 +202,181 @@ public class TransitSystem extends Observable {
         Card newCard = new Card(rider);
 
         rider.issueCard(newCard);
+        registerCard(newCard);
 
         return newCard;
     }
 
+    /**
+     * Returns the trip in progress on the given card
+     *
+     * @param card the card whose trip is wanted
+     * @return the card's open trip, null if it has none
+     */
+    public Trip findOpenTrip(Card card) {
+        return this.openTrips.get(card);
+    }
+
+    /**
+     * Returns the time of the latest tap processed by this system, which is the
+     * time its open trips are expired against
+     *
+     * @return the latest tap time in seconds since the epoch (UTC),
+     *         Long.MIN_VALUE if no tap has been processed
+     */
+    public long getClock() {
+        return this.expiry.getClock();
+    }
+
+    /**
+     * Moves this system's clock forward to the given time, closing every open trip
+     * whose window ended more than the allowed tap delay before then. Times
+     * before the clock are ignored.
+     *
+     * @param second the new time in seconds since the epoch (UTC)
+     */
+    public void advanceClock(long second) {
+        this.expiry.advanceTo(second);
+    }
+
+    /**
+     * Hands every trip still open in this system over to the given system, which
+     * will close them when their windows expire on its clock. Used to return the
+     * trips opened by a view of a system to that system.
+     *
+     * @param target the system which will expire this system's open trips
+     */
+    public void transferOpenTripsTo(TransitSystem target) {
+        this.expiry.transferTo(target.expiry);
+    }
+
+    /**
+     * Records every tap this system handles from now on in the given journal,
+     * along with what it was charged or whether it was declined
+     *
+     * @param journal the journal to append taps to, null to stop journaling
+     */
+    public void attachJournal(TapJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Sets the fares charged from the next tap on. Taps already being processed
+     * finish with the fares they started with. May be called while taps are being
+     * processed.
+     *
+     * @param fares the fare table, compiled for this system's network
+     */
+    public void setFares(FareTable fares) {
+        this.fares = fares;
+    }
+
+    /**
+     * Returns the fares this system currently charges
+     *
+     * @return the current fare table
+     */
+    public FareTable getFares() {
+        return this.fares;
+    }
+
+    /**
+     * Keeps the balance, status and spending of every card in this system in the
+     * given off-heap ledger from now on, including cards registered later. Cards
+     * the ledger holds from an earlier run take on the state kept there unless
+     * overwrite is set, such as when the state of the cards has just been
+     * recovered from a snapshot and journal. Must be called while no taps are
+     * being processed.
+     *
+     * @param ledger    the ledger to keep the cards in
+     * @param overwrite true to replace what the ledger holds with the cards'
+     *                  current state, false to take on what it holds
+     * @return the number of cards which could not be given a slot and stay on the
+     *         heap
+     */
+    public int attachLedger(CardLedger ledger, boolean overwrite) {
+        this.ledger = ledger;
+        int left = 0;
+        for (Rider rider : cardholders) {
+            for (Card card : rider.getCards()) {
+                if (!card.keepIn(ledger, overwrite)) {
+                    left++;
+                }
+            }
+        }
+        return left;
+    }
+
+    /**
+     * Waits until every tap handled so far is durable in this system's journal.
+     * Returns at once if the system has no journal.
+     *
+     * @throws IOException if the journal could not be written
+     */
+    public void syncJournal() throws IOException {
+        TapJournal current = this.journal;
+        if (current != null) {
+            current.sync();
+        }
+    }
+
+    /**
+     * Runs the given action while no tap is being processed, such as to capture a
+     * consistent snapshot of every card and trip. Taps arriving in the meantime
+     * wait until the action is done.
+     *
+     * @param action the action to run
+     */
+    public void runExclusively(Runnable action) {
+        holdCardLocks(0, action);
+    }
+
+    /**
+     * Takes the card locks from the given one up, in order, and runs the given
+     * action holding all of them
+     *
+     * @param first  the index of the first lock to take
+     * @param action the action to run
+     */
+    private void holdCardLocks(int first, Runnable action) {
+        if (first == NUM_CARD_LOCKS) {
+            action.run();
+            return;
+        }
+        synchronized (this.cardLocks[first]) {
+            holdCardLocks(first + 1, action);
+        }
+    }
+
+    /**
+     * Makes the given trip the trip in progress on the given card and starts its
+     * window. Used to bring back the open trips of a restored snapshot.
+     *
+     * @param card the card the trip is being taken with
+     * @param trip the trip in progress
+     */
+    public void reopenTrip(Card card, Trip trip) {
+        synchronized (lockFor(card)) {
+            this.openTrips.put(card, trip);
+        }
+        this.expiry.schedule(card, trip);
+    }
+
+    /**
+     * Adds the given card to this system's card registry so that taps made with it
+     * can be processed. The card should already have been issued to its bearer.
+     * If the system keeps its cards in a ledger, the card is moved into it.
+     *
+     * @param card the card to be registered in this system
+     */
+    public void registerCard(Card card) {
+        CardLedger current = this.ledger;
+        if (current != null) {
+            card.keepIn(current, false);
+        }
+        this.cards.register(card);
+    }
+
     /**
      * Returns the Bus Stop in the system corresponding to the given name and name
      * of line
@@ -89,12 +387,11 @@ public class TransitSystem extends Observable {
      *         exists in the system
      */
     private BusStop findBusStopInSystem(String stopName, String lineName) {
-        for (BusLine line : this.busLines) {
-            if (line.getName().equals(lineName)) {
-                return line.findStopOnLine(stopName);
-            }
+        BusLine line = this.busLinesByName.get(lineName);
+        if (line == null) {
+            return null;
         }
-        return null;
+        return line.findStopOnLine(stopName);
     }
 
     /**
@@ -104,14 +401,20 @@ public class TransitSystem extends Observable {
      * @return the Card with id: id. null if no such card is in the system
      */
     private Card findCardInSystem(ID id) {
-        for (Rider rider : this.cardholders) {
-            for (Card card : rider.getCards()) {
-                if (card.getId().equals(id)) {
-                    return card;
-                }
-            }
+        if (id == null) {
+            return null;
         }
-        return null;
+        return this.cards.get(id.toLong());
+    }
+
+    /**
+     * Finds and returns the transit card in the system with the given numeric id
+     *
+     * @param id the numeric value of the desired card's id
+     * @return the Card with id: id. null if no such card is in the system
+     */
+    public Card findCardInSystem(long id) {
+        return this.cards.get(id);
     }
 
     /**
@@ -161,15 +464,15 @@ public class TransitSystem extends Observable {
         String[] tokens = rawEvent.split(", ");
         ID cardID = IDGenerator.findIDString(tokens[0]);
         Card card = this.findCardInSystem(cardID);
-        LocalDateTime eventDateTime = LocalDateTime.parse(tokens[4], dtFormat);
+        long eventTime = LocalDateTime.parse(tokens[4], dtFormat).toEpochSecond(ZoneOffset.UTC);
         Event ret;
 
         if (tokens[1].equals("tap")) {
             BusStop busStop = this.findBusStopInSystem(tokens[2], tokens[3]);
-            ret = new Event(busStop, eventDateTime, card);
+            ret = new Event(busStop, eventTime, card);
         } else {
             SubwayStation station = this.subwayLine.findStopOnLine(tokens[2]);
-            ret = new Event(station, eventDateTime, card, tokens[1]);
+            ret = new Event(station, eventTime, card, Direction.parse(tokens[1]));
         }
         return ret;
     }
@@ -183,16 +486,91 @@ public class TransitSystem extends Observable {
      *                  parseTapEvent
      */
     public void handleTapEvent(String eventData) {
-        Event event = this.parseTapEvent(eventData);
+        handleTapEvent(this.parseTapEvent(eventData));
+    }
+
+    /**
+     * Processes an already parsed tap event in the transit system. Manages trips
+     * and charging for a new tap event. May be called from many threads at once:
+     * taps on different cards are processed in parallel, while taps on the same
+     * card are processed one at a time under a lock shared by a fixed stripe of
+     * cards. Taps on the same card must be submitted in the order they were made,
+     * and no more than 15 minutes of tap time behind the latest tap of any card,
+     * for the outcome to match processing them one by one.
+     *
+     * @param event the tap event to process. Events on a bus have no direction,
+     *              events at a subway station are either "enter" or "exit"
+     * @return the amount charged for the tap in cents, which is 0 for taps that
+     *         are not charged, or DECLINED if the tap was refused
+     */
+    public long handleTapEvent(Event event) {
+        Card card = event.getCard();
+        // expiring trips takes the locks of other cards, so it is done before this
+        // card's lock is held
+        this.expiry.advanceTo(event.getEpochSecond());
+
+        long charged;
+        Trip opened = null;
+        synchronized (lockFor(card)) {
+            Trip previousTrip = this.openTrips.get(card);
+            if (previousTrip != null && TripExpiryWheel.isPastWindow(previousTrip, event.getEpochSecond())) {
+                // closed by the card's own time, so the outcome does not depend on how far
+                // the wheel has been moved by other cards' taps; a rider still on a vehicle
+                // keeps the trip open to tap out
+                this.openTrips.remove(card);
+                completeTrip(previousTrip);
+                previousTrip = null;
+            }
+            charged = processTap(event, previousTrip);
+            TapJournal current = this.journal;
+            if (current != null) {
+                // appended under the card's lock so the journal keeps each card's taps in
+                // order; declined taps are kept too, as they still move the clock
+                current.append(event, charged);
+            }
+
+            Trip openTrip = this.openTrips.get(card);
+            if (openTrip != previousTrip) {
+                if (previousTrip != null) {
+                    // a new trip replaced the one in progress
+                    completeTrip(previousTrip);
+                }
+                opened = openTrip;
+            }
+        }
+        if (opened != null) {
+            this.expiry.schedule(card, opened);
+        }
+        return charged;
+    }
+
+    /**
+     * Returns the lock guarding the trips of the given card
+     *
+     * @param card the card whose lock is wanted
+     * @return the lock for the card's stripe
+     */
+    private Object lockFor(Card card) {
+        return this.cardLocks[(int) ID.mix(card.getId().toLong()) & (NUM_CARD_LOCKS - 1)];
+    }
+
+    /**
+     * Applies a tap to its card's trips and charges for it. Must be called with
+     * the card's lock held.
+     *
+     * @param event        the tap event to process
+     * @param previousTrip the card's trip in progress before the tap
+     * @return the amount charged in cents, or DECLINED
+     */
+    private long processTap(Event event, Trip previousTrip) {
         Card card = event.getCard();
         Trip currentTrip;
-        boolean hasBeenCharged;
+        long charged = 0;
         TransitStop loc = event.getLocation();
         boolean chargeable = false;
 
         if (event.getDirection() == null) {
-            BusEventHandler busEventHandler = new BusEventHandler(event);
-            currentTrip = busEventHandler.handleTap();
+            currentTrip = BUS_EVENT_HANDLER.handleTap(event, this.openTrips);
 
             if (currentTrip.getLatestEvent().isEntering()) {
                 chargeable = true;
@@ -203,19 +581,24 @@ public class TransitSystem extends Observable {
                 stopsPassed(currentTrip, numStops);
             }
         } else {
-            SubwayEventHandler subwayEventHandler = new SubwayEventHandler(event);
-            currentTrip = subwayEventHandler.handleTap();
+            currentTrip = SUBWAY_EVENT_HANDLER.handleTap(event, this.openTrips);
             if (currentTrip != null) {
                 chargeable = true;
+            } else if (!event.isEntering()) {
+                charged = DECLINED;
             }
         }
 
         // if this was a good tap event process the charge
         if (chargeable) {
-            hasBeenCharged = chargeRider(currentTrip);
-            if (!hasBeenCharged) { // if the charge was not successful remove the event since it didn't go through
+            charged = chargeRider(currentTrip);
+            if (charged == DECLINED) { // if the charge was not successful remove the event since it didn't go through
                 Logger.error("Could not charge card.",
                         "You are either too low on funds or this card has been suspended.");
+                if (currentTrip.getNumEvents() == 1) {
+                    // the trip this tap started never happened, so the previous one is still open
+                    restoreOpenTrip(card, previousTrip);
+                }
                 card.removeLatestEventFromTrip(currentTrip);
             } else {
                 // if we are exiting a subway, count stops
@@ -225,6 +608,60 @@ public class TransitSystem extends Observable {
                 }
             }
         }
+        return charged;
+    }
+
+    /**
+     * Called by the expiry wheel once the window of an open trip has passed.
+     * Closes the trip if it is still the card's trip in progress, unless the
+     * rider's latest tap put them on a vehicle, in which case they are given one
+     * more window to tap out.
+     *
+     * @param card     the card the trip was taken with
+     * @param trip     the trip whose window has passed
+     * @param extended whether the trip has already been given a second window
+     * @return true iff the trip should stay open for another window
+     */
+    boolean tripWindowExpired(Card card, Trip trip, boolean extended) {
+        synchronized (lockFor(card)) {
+            if (this.openTrips.get(card) != trip) {
+                // the trip was already replaced by a newer one
+                return false;
+            }
+            if (!extended && trip.getLatestEvent().isEntering()) {
+                return true;
+            }
+            this.openTrips.remove(card);
+            completeTrip(trip);
+            return false;
+        }
+    }
+
+    /**
+     * Finalizes the cost of the given trip, which is no longer in progress, and
+     * notifies the observers that it was completed. A trip which is continued
+     * after being closed is only counted once.
+     *
+     * @param trip the trip which was completed
+     */
+    private void completeTrip(Trip trip) {
+        if (trip.complete()) {
+            this.notifyTripCompleted(trip);
+        }
+    }
+
+    /**
+     * Makes the given trip the trip in progress on the given card again
+     *
+     * @param card the card whose open trip is restored
+     * @param trip the trip which was open before, null if there was none
+     */
+    private void restoreOpenTrip(Card card, Trip trip) {
+        if (trip == null) {
+            this.openTrips.remove(card);
+        } else {
+            this.openTrips.put(card, trip);
+        }
     }
 
     /**
@@ -232,38 +669,36 @@ public class TransitSystem extends Observable {
      * is the most recent event in the given trip.
      * 
      * @param trip the trip which contains the event we want to charge for
-     * @return true if the rider was charged successully. That is, if the rider had
-     *         the funds and the card was not suspended
+     * @return the amount charged in cents if the rider was charged successully,
+     *         DECLINED if the rider did not have the funds or the card was
+     *         suspended
      */
-    private boolean chargeRider(Trip trip) {
+    private long chargeRider(Trip trip) {
         Event tap = trip.getLatestEvent();
         Card card = tap.getCard();
 
-        float amount = 0;
+        FareTable table = this.fares;
+        FareMode mode = FareMode.of(tap.getLocation());
+        long minimumBalance = table.getMinimumBalance(mode);
 
-        if (tap.getLocation().getClass() == SubwayStation.class) { // taps for a subway
-            SubwayStation start = (SubwayStation) trip.getSecondLastEvent().getLocation();
-            SubwayStation end = (SubwayStation) trip.getLatestEvent().getLocation();
+        // subway legs are charged on the way out, bus legs as the rider boards
+        int boarding = mode == FareMode.SUBWAY ? trip.getNumEvents() - 2 : trip.getNumEvents() - 1;
+        long amount = table.legFare(trip, boarding, tap.getLocation());
 
-            amount = subwayLine.getDistTraveled(start, end) * 0.5F;
+        if (mode == FareMode.BUS && card.getBalanceCents() < minimumBalance) {
+            return DECLINED;
         }
 
-        if (tap.getLocation().getClass() == BusStop.class) {
-            amount = 2;
-            if (card.getBalance() < 2) {
-                return false;
-            }
+        // what the card has spent today and this week is kept with it, so the caps cost no lookups
+        amount = card.capToSpending(amount, tap.getEpochSecond(), table.getDayCap(), table.getWeekCap());
+        long toCharge = trip.addCost(amount, table.getTripCap());
+        if (!card.charge(toCharge, minimumBalance)) {
+            return DECLINED;
         }
+        card.addSpending(tap.getEpochSecond(), toCharge);
 
-        float toCharge = trip.addCost(amount);
-        boolean hasCharged = card.charge(toCharge);
-
-        if (hasCharged) {
-            String todayDate = getDate(tap);
-
-            this.notifyObservers(todayDate, toCharge);
-        }
-        return hasCharged;
+        this.notifyObservers(tap, toCharge);
+        return toCharge;
     }
 
     /**
@@ -274,26 +709,6 @@ public class TransitSystem extends Observable {
      * @param n    the number of stops travelled
      */
     private void stopsPassed(Trip trip, int n) {
-        Event latestEvent = trip.getLatestEvent();
-        String todayEvent = getDate(latestEvent);
-
-        this.notifyObservers(todayEvent, n);
-    }
-
-    /**
-     * Returns the date of when a given event occurred
-     *
-     * @param event the event we want the corresponding date for
-     * @return the date that event took place on.
-     */
-    private String getDate(Event event) {
-        LocalDateTime eventDate = event.getTimeStamp();
-
-        int month = eventDate.getMonth().getValue();
-        int day = eventDate.getDayOfMonth();
-        int year = eventDate.getYear();
-        String date = Integer.toString(month) + '/' + Integer.toString(day) + '/' + Integer.toString(year);
-
-        return date;
+        this.notifyObservers(trip.getLatestEvent(), n);
     }
 }
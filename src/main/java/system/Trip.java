@@ -1,5 +1,6 @@
 package main.java.system;
 
+import main.java.entities.Money;
 import main.java.system.event.Event;
 
 import java.time.LocalDateTime;
@@ -12,9 +13,9 @@ import java.util.ArrayList;
  * An Object representing a list of events in a time frame.
  */
 public class Trip {
-    float MAX = 6;
     private ArrayList<Event> events;
-    private float price;
+    private long price;
+    private boolean complete;
 
     /**
      * Construct a new Trip starting with the given event.
@@ -38,7 +39,7 @@ public class Trip {
         Event curr = events.get(0);
 
         int i = 1;
-        while (curr.getTimeStamp().isBefore(e.getTimeStamp()) && i < getNumEvents()) {
+        while (curr.getEpochSecond() < e.getEpochSecond() && i < getNumEvents()) {
             curr = events.get(i++);
         }
         events.add(i, e);
@@ -62,6 +63,25 @@ public class Trip {
         return this.events.get(events.size() - 1);
     }
 
+    /**
+     * Returns the first event in this trip
+     *
+     * @return the event which started this trip
+     */
+    public Event getFirstEvent() {
+        return this.events.get(0);
+    }
+
+    /**
+     * Returns the event at the given position in this trip
+     *
+     * @param i the position of the event, 0 for the first
+     * @return the event at that position
+     */
+    public Event getEvent(int i) {
+        return this.events.get(i);
+    }
+
     /**
      * Returns the second last event in this trip
      * 
@@ -83,6 +103,16 @@ public class Trip {
         return events.get(0).getTimeStamp();
     }
 
+    /**
+     * Returns when this trip started in seconds
+     *
+     * @return the number of seconds between 1970-01-01T00:00:00 and the first
+     *         event
+     */
+    public long getStartSecond() {
+        return events.get(0).getEpochSecond();
+    }
+
     /**
      * Returns when the latest event in this trip occurred
      *
@@ -106,24 +136,56 @@ public class Trip {
      * 
      * @return this trip's current price total
      */
-    public float getCurrentPrice() {
+    public Money getCurrentPrice() {
+        return Money.ofCents(this.price);
+    }
+
+    /**
+     * Return the amount spent on this trip so far in cents
+     *
+     * @return this trip's current price total in cents
+     */
+    public long getPriceCents() {
         return this.price;
     }
 
+    /**
+     * Marks this trip as completed
+     *
+     * @return true iff this trip had not been completed before
+     */
+    public boolean complete() {
+        boolean first = !this.complete;
+        this.complete = true;
+        return first;
+    }
+
+    /**
+     * Returns whether this trip has been completed, either because its time window
+     * ran out or because a newer trip was started. A tap arriving late may still
+     * continue a trip whose window was closed on another card's clock.
+     *
+     * @return true iff this trip has been closed
+     */
+    public boolean isComplete() {
+        return this.complete;
+    }
+
     /**
      * Adds the given amount to this trips total cost, capping the value at the max
      * allowed for a single trip. Returns the difference between the price before
      * adding cost and after.
      * 
-     * @param amount the amount of money to add to this trip's cost
+     * @param amount the amount of money to add to this trip's cost, in cents
+     * @param cap    the most a single trip may cost, in cents
      * 
-     * @return the amount of value actually added to the price
+     * @return the amount of value actually added to the price, in cents
      */
-    public float addCost(float amount) {
-        float originalPrice = this.price;
+    public long addCost(long amount, long cap) {
+        long originalPrice = this.price;
 
-        if (originalPrice + amount > MAX) {
-            this.price = MAX;
+        if (originalPrice + amount > cap) {
+            this.price = Math.max(originalPrice, cap);
         } else {
             this.price += amount;
         }
@@ -146,7 +208,7 @@ public class Trip {
         }
         stops += getLatestEvent().getLocation().getName();
 
-        String cost = String.format("Cost: $%.2f", price);
+        String cost = "Cost: " + getCurrentPrice();
 
         String rider = getLatestEvent().getCard().getBearer().getName();
 
@@ -0,0 +1,324 @@
+package main.java.system;
+
+import main.java.entities.Card;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A hierarchical timer wheel which closes open trips once the window in which
+ * they may be continued has passed. The wheel is driven by the time of the taps
+ * processed by its transit system rather than by the wall clock, so replaying
+ * old events expires trips exactly as if they were happening live. Each level
+ * of the wheel has 64 slots; a slot on the lowest level spans one minute and a
+ * slot on each higher level spans all 64 slots of the level below it, so
+ * scheduling and expiring a trip both take constant time. The wheel may be
+ * advanced and scheduled from several threads; taps which do not move the
+ * clock into a new minute only update the clock and never lock.
+ *
+ * <p>
+ * A trip whose latest tap put the rider on a vehicle is given one more window
+ * once its first has passed, so the rider can still tap out and be charged for
+ * the leg. Whether a trip is still open to a tap is decided by the time of the
+ * tap itself, so the wheel only has to close the trips of cards which are not
+ * tapped again. Its clock is the latest tap of any card, which runs ahead of
+ * the taps still being handled for other cards when taps are handled on several
+ * threads, so a trip is only closed once the clock is MAX_TAP_DELAY_SECONDS
+ * past its window. A tap made within the window is then never handled after
+ * its trip was closed, as long as it is handled no later than that behind the
+ * latest tap.
+ */
+class TripExpiryWheel {
+    /**
+     * The number of seconds after it starts during which a trip may be continued
+     */
+    static final long TRIP_WINDOW_SECONDS = 2 * 60 * 60;
+
+    /**
+     * How far behind the latest tap of any card a tap may be handled and still
+     * continue a trip whose window it was made in
+     */
+    static final long MAX_TAP_DELAY_SECONDS = 15 * 60;
+
+    private static final int SECONDS_PER_TICK = 60;
+    private static final int LEVELS = 4;
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    private final TransitSystem owner;
+    private final Timer[][] wheel;
+    private final AtomicLong clock;
+    private volatile long currentTick;
+    private int size;
+
+    /**
+     * Creates a new wheel with no trips which reports expired windows to the
+     * given system
+     *
+     * @param owner the transit system whose open trips this wheel expires
+     */
+    TripExpiryWheel(TransitSystem owner) {
+        this.owner = owner;
+        this.wheel = new Timer[LEVELS][SLOTS];
+        this.clock = new AtomicLong(Long.MIN_VALUE);
+    }
+
+    /**
+     * Starts the window of the given trip, which was just opened on the given
+     * card or reopened on it from a snapshot
+     *
+     * @param card the card the trip is being taken with
+     * @param trip the trip whose window starts
+     */
+    synchronized void schedule(Card card, Trip trip) {
+        Timer timer = new Timer(card, trip, trip.getStartSecond() + TRIP_WINDOW_SECONDS + MAX_TAP_DELAY_SECONDS);
+        long now = clock.get();
+        if (now != Long.MIN_VALUE && now > timer.deadline) {
+            // a trip still open after its first window, such as one reopened from a
+            // snapshot, was given its second one
+            timer.extended = true;
+            timer.deadline += TRIP_WINDOW_SECONDS;
+        }
+        schedule(timer);
+    }
+
+    /**
+     * Returns whether a tap at the given time comes after every window of the
+     * given trip, and so cannot continue it. A rider whose latest tap put them on
+     * a vehicle has a second window to tap out in; whether a new boarding within
+     * it still continues the trip is left to the tap's handler.
+     *
+     * @param trip   the card's open trip
+     * @param second the time of the tap in seconds since the epoch
+     * @return true iff the trip started more than TRIP_WINDOW_SECONDS before, or
+     *         twice that if the rider is still on a vehicle
+     */
+    static boolean isPastWindow(Trip trip, long second) {
+        long windows = trip.getLatestEvent().isEntering() ? 2 : 1;
+        return trip.getStartSecond() < second - windows * TRIP_WINDOW_SECONDS;
+    }
+
+    /**
+     * Return the time of the latest tap this wheel has been advanced to
+     *
+     * @return the wheel's clock in seconds since the epoch, Long.MIN_VALUE if it
+     *         has never been advanced
+     */
+    long getClock() {
+        return this.clock.get();
+    }
+
+    /**
+     * Advances the wheel to the given time, reporting every trip whose window
+     * ended before then. Times earlier than the wheel's clock are ignored.
+     *
+     * @param second the time of the tap being processed, in seconds since the
+     *               epoch
+     */
+    void advanceTo(long second) {
+        long current = clock.get();
+        while (second > current) {
+            if (current != Long.MIN_VALUE && Math.floorDiv(second, SECONDS_PER_TICK) <= currentTick) {
+                // still in the minute already swept, so nothing new can be due
+                if (clock.compareAndSet(current, second)) {
+                    return;
+                }
+                current = clock.get();
+            } else {
+                sweep(second);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Moves the wheel into the minute of the given time, reporting every trip due
+     * on the way
+     *
+     * @param second the new time in seconds since the epoch
+     */
+    private synchronized void sweep(long second) {
+        long previous = clock.get();
+        while (second > previous && !clock.compareAndSet(previous, second)) {
+            previous = clock.get();
+        }
+        if (second <= previous) {
+            return;
+        }
+        long targetTick = Math.floorDiv(second, SECONDS_PER_TICK);
+        if (previous == Long.MIN_VALUE) {
+            // the wheel had no time yet, so place anything waiting relative to this one
+            currentTick = targetTick;
+            Timer timer = drain();
+            while (timer != null) {
+                Timer next = timer.next;
+                schedule(timer);
+                timer = next;
+            }
+            return;
+        }
+
+        long tick = currentTick;
+        while (tick < targetTick && size > 0) {
+            tick++;
+            currentTick = tick;
+            int index = (int) (tick & SLOT_MASK);
+            if (index == 0) {
+                cascade(1);
+            }
+            Timer due = wheel[0][index];
+            wheel[0][index] = null;
+            while (due != null) {
+                Timer next = due.next;
+                size--;
+                expire(due);
+                due = next;
+            }
+        }
+        if (targetTick > currentTick) {
+            // nothing is waiting, so there are no slots to sweep on the way
+            currentTick = targetTick;
+        }
+    }
+
+    /**
+     * Moves every trip still waiting in this wheel to the given wheel, leaving
+     * this one empty
+     *
+     * @param target the wheel which will expire the trips from now on
+     */
+    void transferTo(TripExpiryWheel target) {
+        Timer timer;
+        synchronized (this) {
+            timer = drain();
+        }
+        synchronized (target) {
+            while (timer != null) {
+                Timer next = timer.next;
+                target.schedule(timer);
+                timer = next;
+            }
+        }
+    }
+
+    /**
+     * Removes every timer from this wheel
+     *
+     * @return the removed timers, linked through their next fields
+     */
+    private Timer drain() {
+        Timer drained = null;
+        for (Timer[] level : wheel) {
+            for (int i = 0; i < SLOTS; i++) {
+                Timer timer = level[i];
+                level[i] = null;
+                while (timer != null) {
+                    Timer next = timer.next;
+                    timer.next = drained;
+                    drained = timer;
+                    timer = next;
+                }
+            }
+        }
+        size = 0;
+        return drained;
+    }
+
+    /**
+     * Reports an expired window to the owning system, giving the trip one more
+     * window if the system asks for it
+     *
+     * @param timer the timer which is due
+     */
+    private void expire(Timer timer) {
+        if (owner.tripWindowExpired(timer.card, timer.trip, timer.extended)) {
+            timer.extended = true;
+            timer.deadline += TRIP_WINDOW_SECONDS;
+            schedule(timer);
+        }
+    }
+
+    /**
+     * Moves the timers in the current slot of the given level down to the levels
+     * below, first refilling that slot from the level above if it has wrapped
+     *
+     * @param level the level to cascade from
+     */
+    private void cascade(int level) {
+        if (level >= LEVELS) {
+            return;
+        }
+        int index = (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        if (index == 0) {
+            cascade(level + 1);
+        }
+        Timer timer = wheel[level][index];
+        wheel[level][index] = null;
+        while (timer != null) {
+            Timer next = timer.next;
+            size--;
+            schedule(timer);
+            timer = next;
+        }
+    }
+
+    /**
+     * Places the given timer in the slot for its expiry. A timer expires in the
+     * first tick which starts after its deadline, so trips are never closed while
+     * a tap which may still continue them may still be handled.
+     *
+     * @param timer the timer to place
+     */
+    private void schedule(Timer timer) {
+        long now = clock.get();
+        long tick = Math.floorDiv(timer.deadline, SECONDS_PER_TICK) + 1;
+        long delta = tick - currentTick;
+        if (delta <= 0 && now != Long.MIN_VALUE && now > timer.deadline) {
+            // the window has already passed
+            expire(timer);
+            return;
+        }
+        if (delta <= 0) {
+            tick = currentTick + 1;
+            delta = 1;
+        }
+
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        if (delta >= 1L << (SLOT_BITS * LEVELS)) {
+            // beyond the range of the wheel, park it in the furthest slot and let it cascade
+            tick = currentTick + (1L << (SLOT_BITS * LEVELS)) - 1;
+        }
+        int index = (int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        timer.next = wheel[level][index];
+        wheel[level][index] = timer;
+        size++;
+    }
+
+    /**
+     * The window of one open trip waiting to expire
+     */
+    private static class Timer {
+        private final Card card;
+        private final Trip trip;
+        private long deadline;
+        private boolean extended;
+        private Timer next;
+
+        /**
+         * Creates a timer for the given trip
+         *
+         * @param card     the card the trip is being taken with
+         * @param trip     the open trip
+         * @param deadline the last second at which a tap continuing the trip may
+         *                 still be handled
+         */
+        Timer(Card card, Trip trip, long deadline) {
+            this.card = card;
+            this.trip = trip;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -1,72 +1,204 @@
 package main.java.system.UID;
 
 /**
- * This is the ID class responsible for representing objects
+ * This is the ID class responsible for representing objects. An ID is a string
+ * of digits where the first digit is the type of the object ("1" for cards, "2"
+ * for riders) and the remaining digits are its serial number. The type, the
+ * number of serial digits, and the serial number itself are packed into a
+ * single long so that comparing and hashing IDs never allocates.
  */
 public class ID {
 
-    private static final char CARD = 'C';
-    private static final char RIDER = 'R';
-    private static int globalCardCount = 0;
-    private static int globalRiderCount = 0;
+    static final char CARD = 'C';
+    static final char RIDER = 'R';
+    static final int DIGITS = 8;
 
-    private char type; // Type of Object this ID represents
-    private String UID; // Unique ID
+    private static final int TYPE_SHIFT = 56;
+    private static final int WIDTH_SHIFT = 48;
+    private static final long SERIAL_MASK = (1L << WIDTH_SHIFT) - 1;
+    private static final int MAX_LENGTH = 18;
+    private static final long[] POWERS_OF_TEN = new long[MAX_LENGTH + 1];
 
-    /**
-     * Creates a new ID based on the type of the object given
-     * 
-     * @param Type is the type of the object
-     */
-    public ID(char Type) {
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
 
-        this.type = Type;
+    private final long packed; // type digit, serial width, and serial number
 
-        if (Type == CARD) {
-            this.UID = "1" + String.format("%08d", globalCardCount);
-            globalCardCount++;
-        } else if (Type == RIDER) {
-            this.UID = "2" + String.format("%08d", globalRiderCount);
-            globalRiderCount++;
-        } else {
-            System.out.println("Input Invalid");
+    /**
+     * Creates a new ID of the given type with the given serial number, padded to
+     * the standard number of digits
+     *
+     * @param Type   is the type of the object
+     * @param serial is the serial number of the object
+     * @throws IllegalArgumentException if the serial number has more than DIGITS
+     *                                  digits
+     */
+    ID(char Type, long serial) {
+        if (serial < 0 || serial >= POWERS_OF_TEN[DIGITS]) {
+            throw new IllegalArgumentException("Serial " + serial + " does not fit in " + DIGITS + " digits");
         }
+        this.packed = pack(typeDigit(Type), DIGITS, serial);
+    }
+
+    /**
+     * Creates an ID from its packed representation
+     *
+     * @param packed the packed type, width and serial of the ID
+     */
+    ID(long packed) {
+        this.packed = packed;
     }
 
     /**
      * Creates an ID if input given is a string, Assumes the correct format, inputs
      * the type and UID directly
-     * 
+     *
      * @param id is the id string of the object
+     * @throws NumberFormatException if the string is not a valid ID
      */
     public ID(String id) {
-        this.type = id.charAt(0);
-        this.UID = id;
+        long packed = pack(id, 0, id.length());
+        if (packed < 0) {
+            throw new NumberFormatException("Invalid ID: " + id);
+        }
+        this.packed = packed;
     }
 
     /**
-     * Adds to the global Count
+     * Packs the ID written in the given range of characters. Does not allocate.
+     *
+     * @param text  the characters containing the ID
+     * @param start the index of the first digit of the ID
+     * @param end   the index after the last digit of the ID
+     * @return the packed ID, or -1 if the range is not a valid ID
      */
-    public static void addToCount(char Type) {
+    public static long pack(CharSequence text, int start, int end) {
+        int length = end - start;
+        if (length < 1 || length > MAX_LENGTH) {
+            return -1;
+        }
+        long serial = 0;
+        for (int i = start + 1; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            serial = serial * 10 + (c - '0');
+        }
+        char type = text.charAt(start);
+        if (type < '0' || type > '9' || serial > SERIAL_MASK) {
+            return -1;
+        }
+        return pack(type - '0', length - 1, serial);
+    }
+
+    /**
+     * Packs the given type digit, serial width and serial number into a long
+     *
+     * @param type   the leading digit of the ID
+     * @param width  the number of digits in the serial number
+     * @param serial the serial number
+     * @return the packed ID
+     */
+    static long pack(int type, int width, long serial) {
+        return ((long) type << TYPE_SHIFT) | ((long) width << WIDTH_SHIFT) | serial;
+    }
+
+    /**
+     * Returns the leading digit used by IDs of the given type
+     *
+     * @param Type the type of the object, either CARD or RIDER
+     * @return the digit that starts IDs of that type
+     */
+    static int typeDigit(char Type) {
         if (Type == CARD) {
-            globalCardCount++;
+            return 1;
         } else if (Type == RIDER) {
-            globalRiderCount++;
+            return 2;
+        }
+        throw new IllegalArgumentException("Input Invalid");
+    }
+
+    /**
+     * Returns the packed ID that follows the given one, with the same type and
+     * width and the next serial number
+     *
+     * @param packed a packed ID
+     * @return the packed ID with the next serial number, or -1 if the serial is
+     *         the last one its width can hold
+     */
+    static long next(long packed) {
+        long serial = packed & SERIAL_MASK;
+        int width = (int) (packed >>> WIDTH_SHIFT) & 0xFF;
+        if (serial + 1 >= POWERS_OF_TEN[width] || serial == SERIAL_MASK) {
+            return -1;
         }
+        return packed + 1;
+    }
+
+    /**
+     * Gets the packed representation of the ID
+     *
+     * @return long holding the type, width and serial of the ID
+     */
+    public long getPacked() {
+        return this.packed;
+    }
+
+    /**
+     * Gets the serial number of the ID
+     *
+     * @return the digits of the ID after the type digit
+     */
+    public long getSerial() {
+        return this.packed & SERIAL_MASK;
+    }
+
+    /**
+     * Gets the number of digits in the serial number of the ID
+     *
+     * @return the width of the serial number
+     */
+    int getWidth() {
+        return (int) (this.packed >>> WIDTH_SHIFT) & 0xFF;
+    }
+
+    /**
+     * Gets the numeric value of the ID
+     *
+     * @return long value of the ID's digits
+     */
+    public long toLong() {
+        int type = (int) (this.packed >>> TYPE_SHIFT);
+        return type * POWERS_OF_TEN[getWidth()] + getSerial();
     }
 
     /**
      * Gets the string representation of the ID
-     * 
+     *
      * @return String of the ID
      */
     public String toString() {
-        return this.UID;
+        StringBuilder sb = new StringBuilder(getWidth() + 1);
+        sb.append(Long.toString(this.packed >>> TYPE_SHIFT));
+        if (getWidth() == 0) {
+            // an ID of only its type digit has no serial to write
+            return sb.toString();
+        }
+        String serial = Long.toString(getSerial());
+        for (int i = serial.length(); i < getWidth(); i++) {
+            sb.append('0');
+        }
+        return sb.append(serial).toString();
     }
 
     /**
      * Checks equality of this object in comparison to another
-     * 
+     *
      * @param otherObject is the other object in question
      * @return a boolean whether it is equal or not
      */
@@ -74,29 +206,45 @@ public class ID {
         if (!(otherObject instanceof ID)) {
             return false;
         }
-        return (this.UID.equals(otherObject.toString()));
+        return this.packed == ((ID) otherObject).packed;
     }
 
     /**
-     * Gets the type of the ID
-     * 
-     * @return char of the type
+     * Returns a hash code for this ID
+     *
+     * @return int hash of the packed ID
      */
-    public char getType() {
-        return this.type;
+    public int hashCode() {
+        return Long.hashCode(this.packed);
     }
 
     /**
-     * gets count of this particular type
-     * 
-     * @return int count of this type
+     * Spreads the bits of a key, such as a packed ID or a numeric card ID, so that
+     * sequential keys do not cluster when hashed into tables or partitions
+     *
+     * @param key the key to mix
+     * @return the mixed key, whose low bits depend on every bit of the key
      */
-    public static int getCount(char type) {
-        if (type == CARD) {
-            return globalCardCount;
-        } else {
-            return globalRiderCount;
+    public static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    /**
+     * Gets the type of the ID
+     *
+     * @return char of the type
+     */
+    public char getType() {
+        int type = (int) (this.packed >>> TYPE_SHIFT);
+        if (type == 1) {
+            return CARD;
+        } else if (type == 2) {
+            return RIDER;
         }
+        return (char) ('0' + type);
     }
 
 }
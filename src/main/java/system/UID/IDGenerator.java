@@ -1,6 +1,6 @@
 package main.java.system.UID;
 
-import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class is responsible for generating ID's for objects in the application.
@@ -8,70 +8,105 @@ import java.util.ArrayList;
  */
 public class IDGenerator {
 
-    private static ArrayList<ID> IDList = new ArrayList<>();
+    private static final IDRegistry registry = new IDRegistry();
+    private static final AtomicLong nextCardSerial = new AtomicLong();
+    private static final AtomicLong nextRiderSerial = new AtomicLong();
 
     /**
      * Creates a new ID object based on the object type;
      * 
      * @param Type is the object type for this particular ID
      * @return ID
+     * @throws IllegalArgumentException if every serial of ID.DIGITS digits has
+     *                                  been used
      */
     public static ID generateID(char Type) {
-        ID id = new ID(Type);
-        IDList.add(id);
+        AtomicLong serials = serialsFor(Type);
+        ID id;
+        do {
+            id = new ID(Type, serials.getAndIncrement());
+        } while (!registry.add(id));
         return id;
     }
 
     /**
      * Creates a new ID object based on the String; if the String for this
-     * particular ID already exists, create new one based on the type instead.
+     * particular ID already exists, the next unused serial number is used instead.
      * 
      * @param text is the string ID that will be the ID
      * @return ID
+     * @throws IllegalArgumentException if the string is not a valid ID, or it and
+     *                                  every later serial of the same width are
+     *                                  in use
      */
     public static ID fromString(String text) {
-        char type = text.charAt(0);
-        ID id;
-        String temp = text;
-
-        while (findIDString(temp) != null) { // If ID exists in array then create ID based off globalCount
-
-            String strID;
-            int intID = Integer.parseInt(temp);
-
-            if (type == 'C') {
-                strID = "1" + String.format("%08d", ID.getCount(type));
-            } else {
-                strID = "2" + String.format("%08d", ID.getCount(type));
-            }
+        ID id = new ID(text);
 
-            if (temp.equals(strID)) {
-                ID.addToCount(type);
+        while (!registry.add(id)) { // If ID exists in the registry then try the next serial
+            long next = ID.next(id.getPacked());
+            if (next < 0) {
+                throw new IllegalArgumentException("Every ID from " + text + " on with as many digits is in use");
             }
+            id = new ID(next);
+        }
 
-            intID++;
-            temp = Integer.toString(intID);
-
+        if (id.getWidth() == ID.DIGITS && (id.getType() == ID.CARD || id.getType() == ID.RIDER)) {
+            // make sure generated IDs start after the highest one read in
+            long serial = id.getSerial();
+            serialsFor(id.getType()).accumulateAndGet(serial + 1, Math::max);
         }
+        return id;
+    }
 
-        id = new ID(temp); // If ID does not exist in array then create an ID based off String
-        IDList.add(id);
+    /**
+     * Registers the ID with the given packed value, as read back from a snapshot.
+     * Generated IDs of its type start after it, as for IDs read with fromString.
+     *
+     * @param packed the packed value of the ID, as returned by ID.getPacked
+     * @return the ID with that value, the one already registered if there is one
+     */
+    public static ID fromPacked(long packed) {
+        ID id = new ID(packed);
+        if (!registry.add(id)) {
+            return registry.get(packed);
+        }
+        if (id.getWidth() == ID.DIGITS && (id.getType() == ID.CARD || id.getType() == ID.RIDER)) {
+            serialsFor(id.getType()).accumulateAndGet(id.getSerial() + 1, Math::max);
+        }
         return id;
     }
 
     /**
-     * Checks whether or not any ID in the system carries the same String
+     * Returns the ID in the system that carries the same String
      * 
      * @param text is the string ID that we test for equality
-     * @return true or false depending on whether the string exists in the IDs or
-     *         not
+     * @return the ID with that string, or null if the string is not an ID in the
+     *         system
      */
     public static ID findIDString(String text) {
-        for (ID id : IDList) {
-            if (id.toString().equals(text)) {
-                return id;
-            }
+        return findID(ID.pack(text, 0, text.length()));
+    }
+
+    /**
+     * Returns the ID in the system with the given packed value. Does not allocate.
+     *
+     * @param packed the packed value of the ID, as returned by ID.pack
+     * @return the ID with that value, or null if it is not an ID in the system
+     */
+    public static ID findID(long packed) {
+        if (packed < 0) {
+            return null;
         }
-        return null;
+        return registry.get(packed);
+    }
+
+    /**
+     * Returns the serial counter for IDs of the given type
+     *
+     * @param Type the object type, either card or rider
+     * @return the counter holding the next serial for that type
+     */
+    private static AtomicLong serialsFor(char Type) {
+        return Type == ID.CARD ? nextCardSerial : nextRiderSerial;
     }
 }
@@ -0,0 +1,96 @@
+package main.java.system.UID;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A hashed set of every ID in use, keyed by the packed value of the ID. Lookups
+ * probe an open-addressing table of references without taking a lock or
+ * allocating, while insertions are serialized and publish a new, larger table
+ * once the current one becomes half full.
+ */
+class IDRegistry {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private volatile AtomicReferenceArray<ID> table = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    private int size;
+
+    /**
+     * Returns the registered ID with the given packed value
+     *
+     * @param packed the packed value of the ID to find
+     * @return the registered ID, null if no such ID has been registered
+     */
+    ID get(long packed) {
+        AtomicReferenceArray<ID> table = this.table;
+        int mask = table.length() - 1;
+        int idx = hash(packed) & mask;
+        ID id;
+        while ((id = table.get(idx)) != null) {
+            if (id.getPacked() == packed) {
+                return id;
+            }
+            idx = (idx + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether an ID with the given packed value has been registered
+     *
+     * @param packed the packed value of the ID
+     * @return true iff the ID is in this registry
+     */
+    boolean contains(long packed) {
+        return get(packed) != null;
+    }
+
+    /**
+     * Adds the given ID to this registry unless an equal ID is already registered
+     *
+     * @param id the ID to add
+     * @return true iff the ID was added, false if it was already in use
+     */
+    synchronized boolean add(ID id) {
+        if (contains(id.getPacked())) {
+            return false;
+        }
+        if ((size + 1) * 2 > table.length()) {
+            AtomicReferenceArray<ID> larger = new AtomicReferenceArray<>(table.length() * 2);
+            for (int i = 0; i < table.length(); i++) {
+                ID existing = table.get(i);
+                if (existing != null) {
+                    insert(larger, existing);
+                }
+            }
+            this.table = larger;
+        }
+        insert(table, id);
+        size++;
+        return true;
+    }
+
+    /**
+     * Stores the given ID in the first free slot of its probe sequence
+     *
+     * @param table the table to insert into
+     * @param id    the ID to insert
+     */
+    private static void insert(AtomicReferenceArray<ID> table, ID id) {
+        int mask = table.length() - 1;
+        int idx = hash(id.getPacked()) & mask;
+        while (table.get(idx) != null) {
+            idx = (idx + 1) & mask;
+        }
+        table.set(idx, id);
+    }
+
+    /**
+     * Spreads the bits of a packed ID so that sequential serials do not cluster
+     *
+     * @param packed the packed ID to hash
+     * @return a well distributed hash of the ID
+     */
+    private static int hash(long packed) {
+        return (int) ID.mix(packed);
+    }
+}
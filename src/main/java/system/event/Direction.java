@@ -0,0 +1,44 @@
+package main.java.system.event;
+
+/**
+ * Whether a rider is entering or exiting transit with a tap
+ */
+public enum Direction {
+    ENTER("enter"), EXIT("exit");
+
+    private final String name;
+
+    /**
+     * Creates a direction with the given name
+     *
+     * @param name the name of the direction as it appears in tap events
+     */
+    Direction(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the direction with the given name
+     *
+     * @param name "enter" or "exit"
+     * @return the direction with that name, null if there is none
+     */
+    public static Direction parse(String name) {
+        for (Direction direction : values()) {
+            if (direction.name.equals(name)) {
+                return direction;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the name of this direction as it appears in tap events
+     *
+     * @return "enter" or "exit"
+     */
+    @Override
+    public String toString() {
+        return this.name;
+    }
+}
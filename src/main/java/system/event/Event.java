@@ -4,14 +4,17 @@ import main.java.entities.Card;
 import main.java.entities.transit.TransitStop;
 
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 
 /**
  * An object representing an event where a user taps their transit card
  */
 public class Event {
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+
     private TransitStop location;
-    private LocalDateTime timeStamp;
-    private String direction;
+    private long timeStamp;
+    private Direction direction;
     private Card card;
 
     /**
@@ -19,10 +22,11 @@ public class Event {
      * known
      * 
      * @param location  of this event
-     * @param timeStamp of when the event occurred
+     * @param timeStamp of when the event occurred, in seconds since
+     *                  1970-01-01T00:00:00
      * @param card      the card which was tapped
      */
-    public Event(TransitStop location, LocalDateTime timeStamp, Card card) {
+    public Event(TransitStop location, long timeStamp, Card card) {
         this.location = location;
         this.timeStamp = timeStamp;
         this.card = card;
@@ -33,13 +37,14 @@ public class Event {
      * action, and direction are known
      * 
      * @param location  at which the user tapped their card
-     * @param timeStamp the date and time that the tap occurred
+     * @param timeStamp the date and time that the tap occurred, in seconds since
+     *                  1970-01-01T00:00:00
      * @param card      the card which was tapped
      * @param direction whether the user is entering or exiting transit
      */
-    public Event(TransitStop location, LocalDateTime timeStamp, Card card, String direction) {
+    public Event(TransitStop location, long timeStamp, Card card, Direction direction) {
         this(location, timeStamp, card);
-        this.setDirection(direction);
+        this.direction = direction;
     }
 
     /**
@@ -57,9 +62,27 @@ public class Event {
      * @return the date and time at which the event occurred
      */
     public LocalDateTime getTimeStamp() {
+        return LocalDateTime.ofEpochSecond(this.timeStamp, 0, ZoneOffset.UTC);
+    }
+
+    /**
+     * Return the timestamp of this event in seconds
+     *
+     * @return the number of seconds between 1970-01-01T00:00:00 and the event
+     */
+    public long getEpochSecond() {
         return this.timeStamp;
     }
 
+    /**
+     * Return the day this event happened on
+     *
+     * @return the number of days between 1970-01-01 and the day of the event
+     */
+    public int getEpochDay() {
+        return (int) Math.floorDiv(this.timeStamp, SECONDS_PER_DAY);
+    }
+
     /**
      * Return the card that created this event
      * 
@@ -72,31 +95,28 @@ public class Event {
     /**
      * Return whether the cardholder is entering or exiting transit
      * 
-     * @return the direction the user is going in the system. Either "enter",
-     *         "exit", or null if the direction is unknown
+     * @return the direction the user is going in the system, null if the direction
+     *         is unknown
      */
-    public String getDirection() {
+    public Direction getDirection() {
         return this.direction;
     }
 
     /**
      * Return whether or not the direction of this event is enter
      * 
-     * @return true iff the direction of this trip is "enter", false otherwise
+     * @return true iff the direction of this trip is ENTER, false otherwise
      */
     public boolean isEntering() {
-        return this.direction.equals("enter");
+        return this.direction == Direction.ENTER;
     }
 
     /**
-     * Sets the direction of this event to the given direction. Does nothing if the
-     * given string not a valid direction
+     * Sets the direction of this event to the given direction
      *
-     * @param direction of the event. either "enter" or "exit"
+     * @param direction of the event
      */
-    public void setDirection(String direction) {
-        if (direction.equals("enter") || direction.equals("exit")) {
-            this.direction = direction;
-        }
+    public void setDirection(Direction direction) {
+        this.direction = direction;
     }
 }
@@ -2,6 +2,7 @@ package main.java.system.event;
 
 import main.java.entities.transit.TransitStop;
 import main.java.system.Logger;
+import main.java.system.OpenTripTable;
 import main.java.system.Trip;
 
 /**
@@ -9,35 +10,25 @@ import main.java.system.Trip;
  * tapping into or out of a subway
  */
 public class SubwayEventHandler extends TapEventHandler {
-    /**
-     * Construct a new SubwayEventHandler to process the given tap at a subway
-     * station
-     * 
-     * @param tap the event to process
-     */
-    public SubwayEventHandler(Event tap) {
-        super(tap);
-    }
-
     /**
      * Helper method to handle the case where the user is entering the subway
+     *
+     * @param tap       the event to process
+     * @param openTrips the trips in progress on each card
+     * @param openTrip  the card's trip in progress, null if there is none
      */
-    private void handleEnter() {
-        Trip currentTrip;
-        if (numTrips == 0) {
-            card.startTrip(tap);
+    private void handleEnter(Event tap, OpenTripTable openTrips, Trip openTrip) {
+        if (openTrip == null) {
+            startTrip(tap, openTrips);
+        } else if (hasExpired(openTrip, tap)) {
+            // this trip was started more than 2hrs ago
+            startTrip(tap, openTrips);
         } else {
-            currentTrip = tripsOnCard.get(numTrips - 1);
-            if (currentTrip.getStartTime().isBefore(tap.getTimeStamp().minusHours(2))) {
-                // this trip was started more than 2hrs ago
-                card.startTrip(tap);
+            TransitStop prevLoc = openTrip.getLatestEvent().getLocation();
+            if (prevLoc.canTransferTo(tap.getLocation())) {
+                openTrip.addEvent(tap);
             } else {
-                TransitStop prevLoc = currentTrip.getLatestEvent().getLocation();
-                if (prevLoc.canTransferTo(tap.getLocation())) {
-                    currentTrip.addEvent(tap);
-                } else {
-                    card.startTrip(tap);
-                }
+                startTrip(tap, openTrips);
             }
         }
     }
@@ -46,18 +37,20 @@ public class SubwayEventHandler extends TapEventHandler {
      * Helper to handle the case where the event is a user tapping out of a subway.
      * Returns the trip associated with the event so that the user may be charged
      * 
+     * @param tap      the event to process
+     * @param openTrip the card's trip in progress, null if there is none
      * @return the trip that this event has been inserted into, may be null if the
      *         user will not be charged for this event
      */
-    private Trip handleExit() {
+    private Trip handleExit(Event tap, Trip openTrip) {
         Trip currentTrip;
-        if (numTrips == 0) {
+        if (openTrip == null) {
             // the user is trying to tap out but there was no tap in
             Logger.error("It appears as though you did not use this card to tap into the subway.",
                     "Try another card or contact a transit employee for help.");
             currentTrip = null;
         } else {
-            currentTrip = tripsOnCard.get(numTrips - 1);
+            currentTrip = openTrip;
             TransitStop prev = currentTrip.getLatestEvent().getLocation();
             TransitStop curr = tap.getLocation();
             if (prev.getLine() == curr.getLine() && prev.getLine().getDistTraveled(prev, curr) > 0) {
@@ -77,17 +70,20 @@ public class SubwayEventHandler extends TapEventHandler {
      * Applies logic to handle a tap event at the subway. Returns the trip which
      * will be used to charge the user for this event.
      * 
+     * @param tap       the event to process
+     * @param openTrips the trips in progress on each card
      * @return the trip that will be used to calculate the fare for this event. Is
      *         null if the user will not be charged
      */
     @Override
-    public Trip handleTap() {
+    public Trip handleTap(Event tap, OpenTripTable openTrips) {
         Logger.event(tap);
+        Trip openTrip = openTrips.get(tap.getCard());
         if (tap.isEntering()) {
-            handleEnter();
+            handleEnter(tap, openTrips, openTrip);
             return null;
         } else {
-            return handleExit();
+            return handleExit(tap, openTrip);
         }
     }
 }
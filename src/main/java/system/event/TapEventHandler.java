@@ -1,38 +1,55 @@
 package main.java.system.event;
 
-import main.java.entities.Card;
+import main.java.system.OpenTripTable;
 import main.java.system.Trip;
 
-import java.util.ArrayList;
-
 /**
  * Abstract parent for TapEventHandlers. Child classes of this will be
  * responsible for taking in a tap event and applying system logic to charge the
- * rider, update trips, and keep metrics
+ * rider, update trips, and keep metrics. Handlers keep no state of their own, so
+ * a single handler may process every tap of its kind on any number of threads.
  */
 public abstract class TapEventHandler {
-    Event tap;
-    Card card;
-    ArrayList<Trip> tripsOnCard;
-    int numTrips;
+    /**
+     * The number of seconds after it starts during which a trip may be continued
+     */
+    static final long TRANSFER_WINDOW_SECONDS = 2 * 60 * 60;
 
     /**
-     * Construct a new TapEventHandler to process the given tap event
-     * 
-     * @param tap the event to process
+     * Starts a new trip on the card with the given tap, and makes it the card's
+     * trip in progress
+     *
+     * @param tap       the tap which starts the trip
+     * @param openTrips the trips in progress on each card
+     * @return the trip which was just started
+     */
+    static Trip startTrip(Event tap, OpenTripTable openTrips) {
+        Trip newTrip = tap.getCard().startTrip(tap);
+        openTrips.put(tap.getCard(), newTrip);
+        return newTrip;
+    }
+
+    /**
+     * Returns whether the given trip started too long before the given tap to be
+     * continued by it
+     *
+     * @param trip the trip in progress
+     * @param tap  the tap being processed
+     * @return true iff the trip started more than 2hrs before the tap
      */
-    public TapEventHandler(Event tap) {
-        this.tap = tap;
-        this.card = tap.getCard();
-        this.tripsOnCard = card.getTrips();
-        this.numTrips = tripsOnCard.size();
+    static boolean hasExpired(Trip trip, Event tap) {
+        return trip.getStartSecond() < tap.getEpochSecond() - TRANSFER_WINDOW_SECONDS;
     }
 
     /**
      * The entry point into a TapEventHandler. This processes the event and returns
-     * the associated trip object.
+     * the associated trip object. Only the card's trip in progress, looked up in
+     * the given table, is considered when deciding whether the tap continues a
+     * trip.
      * 
+     * @param tap       the event to process
+     * @param openTrips the trips in progress on each card
      * @return the trip generated by handling this event
      */
-    public abstract Trip handleTap();
+    public abstract Trip handleTap(Event tap, OpenTripTable openTrips);
 }
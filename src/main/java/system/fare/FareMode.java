@@ -0,0 +1,55 @@
+package main.java.system.fare;
+
+import main.java.entities.transit.SubwayLine;
+import main.java.entities.transit.SubwayStation;
+import main.java.entities.transit.TransitLine;
+import main.java.entities.transit.TransitStop;
+
+/**
+ * The modes of transit which fares are set for
+ */
+public enum FareMode {
+    /**
+     * Subway legs, charged when the rider taps out and the distance is known
+     */
+    SUBWAY,
+    /**
+     * Bus legs, charged when the rider boards
+     */
+    BUS;
+
+    /**
+     * Returns the mode of the given stop
+     *
+     * @param stop a stop in the network
+     * @return SUBWAY for a subway station, BUS otherwise
+     */
+    public static FareMode of(TransitStop stop) {
+        return stop.getClass() == SubwayStation.class ? SUBWAY : BUS;
+    }
+
+    /**
+     * Returns the mode of the given line
+     *
+     * @param line a line in the network
+     * @return SUBWAY for the subway line, BUS otherwise
+     */
+    public static FareMode of(TransitLine line) {
+        return line instanceof SubwayLine ? SUBWAY : BUS;
+    }
+
+    /**
+     * Returns the mode with the given name, ignoring case
+     *
+     * @param name the name of a mode, such as "Subway" or "Bus"
+     * @return the mode, null if there is none with that name
+     */
+    public static FareMode named(String name) {
+        for (FareMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name.trim())) {
+                return mode;
+            }
+        }
+        return null;
+    }
+}
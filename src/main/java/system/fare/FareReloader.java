@@ -0,0 +1,98 @@
+package main.java.system.fare;
+
+import main.java.system.Logger;
+import main.java.system.TransitSystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts changes to a fare file into effect while a transit system is running.
+ * When the file changes its rules are compiled off to the side and the new
+ * table replaces the system's in one step, so taps are never charged by a half
+ * built table and never wait for one to be built.
+ */
+public class FareReloader implements Closeable {
+    private final Path file;
+    private final TransitSystem system;
+    private FileTime loaded;
+    // the last change which could not be compiled, reported only once
+    private FileTime rejected;
+    private ScheduledExecutorService reloads;
+
+    /**
+     * Creates a reloader for the given fare file and system. The system's fares
+     * are not changed until reload is called.
+     *
+     * @param file   the fare file
+     * @param system the system to charge the file's fares
+     */
+    public FareReloader(Path file, TransitSystem system) {
+        this.file = file;
+        this.system = system;
+    }
+
+    /**
+     * Compiles the fare file and puts it into effect if it changed since it was
+     * last loaded. If it cannot be read or compiled the system keeps its current
+     * fares.
+     *
+     * @return true iff new fares were put into effect
+     */
+    public synchronized boolean reload() {
+        FileTime modified = null;
+        try {
+            modified = Files.getLastModifiedTime(file);
+            if (modified.equals(loaded) || modified.equals(rejected)) {
+                return false;
+            }
+            FareRules rules = FareRules.read(file);
+            system.setFares(FareTable.compile(rules, system.getNetwork()));
+            loaded = modified;
+            return true;
+        } catch (IOException e) {
+            Logger.error("Could not load the fares in " + file + ".", "The current fares stay in effect.");
+            return false;
+        } catch (RuntimeException e) {
+            // caught so a bad edit never ends the reloads scheduled by reloadEvery
+            rejected = modified;
+            Logger.error("Could not compile the fares in " + file + ": " + e.getMessage() + ".",
+                    "The current fares stay in effect until the file is fixed.");
+            return false;
+        }
+    }
+
+    /**
+     * Checks the fare file for changes every period on a background thread until
+     * the reloader is closed
+     *
+     * @param period the time between checks
+     * @param unit   the unit of the period
+     */
+    public synchronized void reloadEvery(long period, TimeUnit unit) {
+        if (reloads == null) {
+            reloads = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "fare-reload");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        reloads.scheduleAtFixedRate(this::reload, period, period, unit);
+    }
+
+    /**
+     * Stops checking the fare file for changes
+     */
+    @Override
+    public synchronized void close() {
+        if (reloads != null) {
+            reloads.shutdown();
+        }
+    }
+}
@@ -0,0 +1,416 @@
+package main.java.system.fare;
+
+import main.java.entities.Money;
+import main.java.system.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DateTimeException;
+import java.time.DayOfWeek;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+
+/**
+ * The fare rules of a transit system as they are written in a fare file, before
+ * they are compiled into a FareTable. Each line of the file is one rule written
+ * as "[Scope];[Rule];[Values]", amounts are in dollars, and lines starting with
+ * # are comments:
+ *
+ * <ul>
+ * <li>"[Mode];base;[amount]" is the amount every leg on the mode costs before
+ * its distance is added</li>
+ *
+ * <li>"[Mode];perStop;[amount]" is the amount each stop travelled adds</li>
+ *
+ * <li>"[Mode];band;[fromStops];[toStops];[amount]" sets the amount legs of
+ * fromStops to toStops stops add instead of the per stop amount</li>
+ *
+ * <li>"[Mode];minimumBalance;[amount]" is the balance a card needs to be
+ * charged for a leg on the mode</li>
+ *
+ * <li>"Line;[LineName];[Rule];[Values]" sets a base, perStop or band rule for
+ * one line, overriding its mode's</li>
+ *
+ * <li>"Peak;[Mode or All];[Days];[HH:mm]-[HH:mm];[percent]" charges legs
+ * boarded in that window that percentage of their fare. Days are a day such as
+ * Mon, a range such as Mon-Fri, or Daily.</li>
+ *
+ * <li>"Transfer;[FromMode];[ToMode];[amount]" takes the amount off a leg on
+ * ToMode which continues a trip whose previous leg was on FromMode</li>
+ *
+ * <li>"Trip;cap;[amount]" is the most a single trip may cost</li>
+ *
+ * <li>"Day;cap;[amount]" and "Week;cap;[amount]" are the most a card may be
+ * charged from midnight to midnight and from Monday to Sunday</li>
+ * </ul>
+ *
+ * Modes are Subway and Bus. Subway legs are charged when the rider taps out,
+ * and bus legs when the rider boards, before the distance is known.
+ */
+public final class FareRules {
+    static final long UNSET = Long.MIN_VALUE;
+    static final int MINUTES_PER_DAY = 24 * 60;
+    static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+
+    /**
+     * The most cents any amount in a rule may be, as a leg's fare is compiled
+     * into an int
+     */
+    static final long MAX_AMOUNT = Integer.MAX_VALUE;
+
+    /**
+     * The highest percentage a peak may charge, as peaks are compiled into shorts
+     */
+    static final int MAX_PEAK_PERCENT = Short.MAX_VALUE;
+
+    /**
+     * The base, per stop and band rules of a mode or a line. On a line, rules
+     * which are not set are taken from its mode.
+     */
+    static final class LegRules {
+        long base = UNSET;
+        long perStop = UNSET;
+        // each band is {fromStops, toStops, amount}
+        ArrayList<long[]> bands;
+    }
+
+    private final EnumMap<FareMode, LegRules> modes;
+    private final HashMap<String, LegRules> lines;
+    private final long[] minimumBalances;
+    // each peak is {mode ordinal or -1 for all, first minute of the week, minutes, percent}
+    private final ArrayList<int[]> peaks;
+    private final long[][] transferDiscounts;
+    private long tripCap;
+    private long dayCap;
+    private long weekCap;
+
+    /**
+     * Creates an empty set of rules: every leg is free and nothing is capped
+     */
+    private FareRules() {
+        this.modes = new EnumMap<>(FareMode.class);
+        for (FareMode mode : FareMode.values()) {
+            modes.put(mode, new LegRules());
+        }
+        this.lines = new HashMap<>();
+        this.minimumBalances = new long[FareMode.values().length];
+        this.peaks = new ArrayList<>();
+        this.transferDiscounts = new long[FareMode.values().length][FareMode.values().length];
+        this.tripCap = Long.MAX_VALUE;
+        this.dayCap = Long.MAX_VALUE;
+        this.weekCap = Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the rules used when no fare file is given: $0.50 per subway stop,
+     * $2.00 per bus boarding with at least that much on the card, and at most
+     * $6.00 per trip, with no daily or weekly cap
+     *
+     * @return the default rules
+     */
+    public static FareRules defaults() {
+        FareRules rules = new FareRules();
+        rules.modes.get(FareMode.SUBWAY).perStop = 50;
+        rules.minimumBalances[FareMode.SUBWAY.ordinal()] = 1;
+        rules.modes.get(FareMode.BUS).base = 200;
+        rules.minimumBalances[FareMode.BUS.ordinal()] = 200;
+        rules.tripCap = 600;
+        return rules;
+    }
+
+    /**
+     * Reads the rules in the given fare file. Malformed rules, including those
+     * with a negative amount or one over MAX_AMOUNT cents and peaks over
+     * MAX_PEAK_PERCENT, are reported and skipped.
+     *
+     * @param file the fare file
+     * @return the rules in the file
+     * @throws IOException if the file cannot be read
+     */
+    public static FareRules read(Path file) throws IOException {
+        FareRules rules = new FareRules();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String st;
+            int lineNumber = 0;
+            while ((st = reader.readLine()) != null) {
+                lineNumber++;
+                if (st.trim().isEmpty() || st.trim().startsWith("#")) {
+                    continue;
+                }
+                String problem;
+                try {
+                    problem = rules.add(st.split(";"));
+                } catch (NumberFormatException | DateTimeException e) {
+                    problem = e.getMessage();
+                }
+                if (problem != null) {
+                    Logger.error("Skipped fare rule on line " + lineNumber + " of " + file.getFileName() + ": "
+                            + problem + ".", "See FareRules for how rules are written.");
+                }
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * Adds one rule to this set
+     *
+     * @param data the fields of the rule
+     * @return null if the rule was added, otherwise what is wrong with it
+     */
+    private String add(String[] data) {
+        if (data.length < 3) {
+            return "too few fields";
+        }
+        String scope = data[0].trim();
+        if (scope.equals("Line")) {
+            LegRules line = lines.computeIfAbsent(data[1].trim(), name -> new LegRules());
+            return addLegRule(line, data, 2);
+        } else if (scope.equals("Peak")) {
+            return addPeak(data);
+        } else if (scope.equals("Transfer")) {
+            FareMode from = FareMode.named(data[1]);
+            FareMode to = data.length > 3 ? FareMode.named(data[2]) : null;
+            if (from == null || to == null) {
+                return "a transfer needs two modes and an amount";
+            }
+            transferDiscounts[from.ordinal()][to.ordinal()] = amount(data[3]);
+            return null;
+        } else if (scope.equals("Trip") || scope.equals("Day") || scope.equals("Week")) {
+            if (!data[1].trim().equals("cap")) {
+                return "unknown " + scope.toLowerCase() + " rule " + data[1];
+            }
+            long cap = amount(data[2]);
+            if (scope.equals("Trip")) {
+                tripCap = cap;
+            } else if (scope.equals("Day")) {
+                dayCap = cap;
+            } else {
+                weekCap = cap;
+            }
+            return null;
+        }
+
+        FareMode mode = FareMode.named(scope);
+        if (mode == null) {
+            return "unknown scope " + scope;
+        }
+        if (data[1].trim().equals("minimumBalance")) {
+            minimumBalances[mode.ordinal()] = amount(data[2]);
+            return null;
+        }
+        return addLegRule(modes.get(mode), data, 1);
+    }
+
+    /**
+     * Adds a base, per stop or band rule
+     *
+     * @param rules the rules of the mode or line the rule is for
+     * @param data  the fields of the rule
+     * @param start the index of the rule's name in the fields
+     * @return null if the rule was added, otherwise what is wrong with it
+     */
+    private static String addLegRule(LegRules rules, String[] data, int start) {
+        if (data.length < start + 2) {
+            return "too few fields";
+        }
+        String rule = data[start].trim();
+        if (rule.equals("base")) {
+            rules.base = amount(data[start + 1]);
+        } else if (rule.equals("perStop")) {
+            rules.perStop = amount(data[start + 1]);
+        } else if (rule.equals("band")) {
+            if (data.length < start + 4) {
+                return "a band needs a first and last number of stops and an amount";
+            }
+            long from = Long.parseLong(data[start + 1].trim());
+            long to = Long.parseLong(data[start + 2].trim());
+            if (from < 0 || from > to) {
+                return "a band must start at 0 stops or more and not end before it starts";
+            }
+            if (rules.bands == null) {
+                rules.bands = new ArrayList<>();
+            }
+            rules.bands.add(new long[] { from, to, amount(data[start + 3]) });
+        } else {
+            return "unknown rule " + rule;
+        }
+        return null;
+    }
+
+    /**
+     * Adds a peak rule
+     *
+     * @param data the fields of the rule
+     * @return null if the rule was added, otherwise what is wrong with it
+     */
+    private String addPeak(String[] data) {
+        if (data.length < 5) {
+            return "a peak needs a mode, days, a time window and a percentage";
+        }
+        int mode = -1;
+        if (!data[1].trim().equals("All")) {
+            FareMode named = FareMode.named(data[1]);
+            if (named == null) {
+                return "unknown mode " + data[1];
+            }
+            mode = named.ordinal();
+        }
+
+        String days = data[2].trim();
+        int firstDay;
+        int lastDay;
+        if (days.equals("Daily")) {
+            firstDay = 0;
+            lastDay = 6;
+        } else {
+            String[] range = days.split("-");
+            firstDay = dayIndex(range[0]);
+            lastDay = range.length > 1 ? dayIndex(range[1]) : firstDay;
+            if (firstDay < 0 || lastDay < 0) {
+                return "unknown days " + days;
+            }
+        }
+
+        String[] window = data[3].trim().split("-");
+        if (window.length != 2) {
+            return "a time window is written as HH:mm-HH:mm";
+        }
+        int from = LocalTime.parse(window[0].trim()).toSecondOfDay() / 60;
+        int to = window[1].trim().equals("24:00") ? MINUTES_PER_DAY
+                : LocalTime.parse(window[1].trim()).toSecondOfDay() / 60;
+        // a window ending before it starts runs past midnight
+        int minutes = to > from ? to - from : to + MINUTES_PER_DAY - from;
+        int percent = Integer.parseInt(data[4].trim());
+        if (percent < 0 || percent > MAX_PEAK_PERCENT) {
+            return "a peak percentage must be between 0 and " + MAX_PEAK_PERCENT;
+        }
+
+        for (int day = firstDay;; day = (day + 1) % 7) {
+            peaks.add(new int[] { mode, day * MINUTES_PER_DAY + from, minutes, percent });
+            if (day == lastDay) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses an amount of dollars in a rule
+     *
+     * @param dollars the amount in dollars
+     * @return the amount in cents
+     * @throws NumberFormatException if the amount is not a decimal number, or is
+     *                               negative or more than MAX_AMOUNT cents
+     */
+    private static long amount(String dollars) {
+        long cents = Money.parse(dollars).getCents();
+        if (cents < 0 || cents > MAX_AMOUNT) {
+            throw new NumberFormatException("Amount out of range: " + dollars.trim());
+        }
+        return cents;
+    }
+
+    /**
+     * Returns the index of the named day of the week
+     *
+     * @param name the name of a day, of which the first three letters are used
+     * @return 0 for Monday up to 6 for Sunday, -1 if the name is not a day
+     */
+    private static int dayIndex(String name) {
+        String prefix = name.trim().toUpperCase();
+        if (prefix.length() < 3) {
+            return -1;
+        }
+        for (DayOfWeek day : DayOfWeek.values()) {
+            if (day.name().startsWith(prefix.substring(0, 3))) {
+                return day.ordinal();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the rules of the given mode
+     *
+     * @param mode the mode
+     * @return the mode's base, per stop and band rules
+     */
+    LegRules getModeRules(FareMode mode) {
+        return modes.get(mode);
+    }
+
+    /**
+     * Returns the rules set for the line with the given name
+     *
+     * @param name the name of the line
+     * @return the line's own rules, null if it has none
+     */
+    LegRules getLineRules(String name) {
+        return lines.get(name);
+    }
+
+    /**
+     * Returns the balance a card needs to be charged for a leg on the given mode
+     *
+     * @param mode the mode
+     * @return the minimum balance in cents
+     */
+    long getMinimumBalance(FareMode mode) {
+        return minimumBalances[mode.ordinal()];
+    }
+
+    /**
+     * Returns the peak windows, in the order they were written
+     *
+     * @return each window as {mode ordinal or -1 for all, first minute of the
+     *         week, minutes, percent}
+     */
+    ArrayList<int[]> getPeaks() {
+        return peaks;
+    }
+
+    /**
+     * Returns the amount taken off a leg continuing a trip from one mode to
+     * another
+     *
+     * @param from the mode of the trip's previous leg
+     * @param to   the mode of the leg
+     * @return the discount in cents
+     */
+    long getTransferDiscount(FareMode from, FareMode to) {
+        return transferDiscounts[from.ordinal()][to.ordinal()];
+    }
+
+    /**
+     * Returns the most a single trip may cost
+     *
+     * @return the trip cap in cents
+     */
+    long getTripCap() {
+        return tripCap;
+    }
+
+    /**
+     * Returns the most a card may be charged in a day
+     *
+     * @return the daily cap in cents
+     */
+    long getDayCap() {
+        return dayCap;
+    }
+
+    /**
+     * Returns the most a card may be charged in a week
+     *
+     * @return the weekly cap in cents
+     */
+    long getWeekCap() {
+        return weekCap;
+    }
+}
@@ -0,0 +1,268 @@
+package main.java.system.fare;
+
+import main.java.entities.transit.TransitLine;
+import main.java.entities.transit.TransitNetwork;
+import main.java.entities.transit.TransitStop;
+import main.java.system.Trip;
+import main.java.system.event.Event;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * Fare rules compiled against a network into lookup tables, so that pricing a
+ * leg is a handful of array reads. Every line has a matrix of the fare from each
+ * of its stops to each other, base and distance included; each mode with peak
+ * windows has the percentage to charge for every minute of the week; and the
+ * transfer discounts are a table by the modes of the two legs. A table is never
+ * changed once compiled, so new rules are put in place by compiling a new one.
+ */
+public final class FareTable {
+    private static final int NO_PEAK = 100;
+
+    // by stop ordinal
+    private final int[] lineOf;
+    private final int[] positionOf;
+    // by line, the fare from the stop at position b to the one at position a at
+    // [b * size + a]
+    private final int[] lineSizes;
+    private final int[][] legFares;
+    // by mode and minute of the week, null for modes without peaks
+    private final short[][] peakPercents;
+    private final long[][] transferDiscounts;
+    private final long[] minimumBalances;
+    private final long tripCap;
+    private final long dayCap;
+    private final long weekCap;
+
+    /**
+     * Creates a table from its compiled parts
+     *
+     * @param lineOf            the index of each stop's line, by stop ordinal
+     * @param positionOf        each stop's position on its line, by stop ordinal
+     * @param lineSizes         the number of stops on each line
+     * @param legFares          the fare matrix of each line
+     * @param peakPercents      the percentage charged each minute, by mode
+     * @param transferDiscounts the transfer discounts by mode of the two legs
+     * @param minimumBalances   the minimum balance by mode
+     * @param tripCap           the most a trip may cost
+     * @param dayCap            the most a card may be charged in a day
+     * @param weekCap           the most a card may be charged in a week
+     */
+    private FareTable(int[] lineOf, int[] positionOf, int[] lineSizes, int[][] legFares, short[][] peakPercents,
+            long[][] transferDiscounts, long[] minimumBalances, long tripCap, long dayCap, long weekCap) {
+        this.lineOf = lineOf;
+        this.positionOf = positionOf;
+        this.lineSizes = lineSizes;
+        this.legFares = legFares;
+        this.peakPercents = peakPercents;
+        this.transferDiscounts = transferDiscounts;
+        this.minimumBalances = minimumBalances;
+        this.tripCap = tripCap;
+        this.dayCap = dayCap;
+        this.weekCap = weekCap;
+    }
+
+    /**
+     * Compiles the given rules for the given network
+     *
+     * @param rules   the fare rules
+     * @param network the network the fares are charged on
+     * @return the compiled table
+     * @throws IllegalArgumentException if a leg on the network would cost more
+     *                                  than FareRules.MAX_AMOUNT cents
+     */
+    public static FareTable compile(FareRules rules, TransitNetwork network) {
+        int numStops = network.getNumStops();
+        int[] lineOf = new int[numStops];
+        int[] positionOf = new int[numStops];
+        IdentityHashMap<TransitLine, Integer> lineIndex = new IdentityHashMap<>();
+        ArrayList<TransitLine> lines = new ArrayList<>();
+        for (int ordinal = 0; ordinal < numStops; ordinal++) {
+            TransitStop stop = network.getStop(ordinal);
+            Integer index = lineIndex.get(stop.getLine());
+            if (index == null) {
+                index = lines.size();
+                lineIndex.put(stop.getLine(), index);
+                lines.add(stop.getLine());
+            }
+            lineOf[ordinal] = index;
+            positionOf[ordinal] = stop.getPosition();
+        }
+
+        int[] lineSizes = new int[lines.size()];
+        int[][] legFares = new int[lines.size()][];
+        for (int l = 0; l < lines.size(); l++) {
+            TransitLine line = lines.get(l);
+            TransitStop[] stops = line.getStops();
+            FareRules.LegRules modeRules = rules.getModeRules(FareMode.of(line));
+            FareRules.LegRules lineRules = rules.getLineRules(line.getName());
+            long base = pick(lineRules == null ? FareRules.UNSET : lineRules.base, modeRules.base);
+            long perStop = pick(lineRules == null ? FareRules.UNSET : lineRules.perStop, modeRules.perStop);
+            ArrayList<long[]> bands = lineRules != null && lineRules.bands != null ? lineRules.bands
+                    : modeRules.bands;
+
+            int size = stops.length;
+            int[] fares = new int[size * size];
+            for (int b = 0; b < size; b++) {
+                for (int a = 0; a < size; a++) {
+                    int distance = line.getDistTraveled(stops[b], stops[a]);
+                    long fare = base + distanceFare(distance, perStop, bands);
+                    if (fare > FareRules.MAX_AMOUNT) {
+                        throw new IllegalArgumentException("The fare from " + stops[b].getName() + " to "
+                                + stops[a].getName() + " on " + line.getName() + " is over the most a leg may cost");
+                    }
+                    fares[b * size + a] = (int) fare;
+                }
+            }
+            lineSizes[l] = size;
+            legFares[l] = fares;
+        }
+
+        short[][] peakPercents = new short[FareMode.values().length][];
+        for (int[] peak : rules.getPeaks()) {
+            for (FareMode mode : FareMode.values()) {
+                if (peak[0] != -1 && peak[0] != mode.ordinal()) {
+                    continue;
+                }
+                if (peakPercents[mode.ordinal()] == null) {
+                    peakPercents[mode.ordinal()] = new short[FareRules.MINUTES_PER_WEEK];
+                    Arrays.fill(peakPercents[mode.ordinal()], (short) NO_PEAK);
+                }
+                for (int m = 0; m < peak[2]; m++) {
+                    peakPercents[mode.ordinal()][(peak[1] + m) % FareRules.MINUTES_PER_WEEK] = (short) peak[3];
+                }
+            }
+        }
+
+        int numModes = FareMode.values().length;
+        long[][] transferDiscounts = new long[numModes][numModes];
+        long[] minimumBalances = new long[numModes];
+        for (FareMode from : FareMode.values()) {
+            for (FareMode to : FareMode.values()) {
+                transferDiscounts[from.ordinal()][to.ordinal()] = rules.getTransferDiscount(from, to);
+            }
+            minimumBalances[from.ordinal()] = rules.getMinimumBalance(from);
+        }
+
+        return new FareTable(lineOf, positionOf, lineSizes, legFares, peakPercents, transferDiscounts,
+                minimumBalances, rules.getTripCap(), rules.getDayCap(), rules.getWeekCap());
+    }
+
+    /**
+     * Returns the line's own setting if it has one, otherwise its mode's
+     *
+     * @param line the line's setting, UNSET if it has none
+     * @param mode the mode's setting, UNSET if it has none
+     * @return the setting to use, 0 if neither has one
+     */
+    private static long pick(long line, long mode) {
+        if (line != FareRules.UNSET) {
+            return line;
+        }
+        return mode == FareRules.UNSET ? 0 : mode;
+    }
+
+    /**
+     * Returns what travelling the given number of stops adds to a leg's fare
+     *
+     * @param distance the number of stops travelled
+     * @param perStop  the amount each stop adds, in cents
+     * @param bands    the distance bands, null if there are none
+     * @return the amount in cents, from the first band covering the distance or
+     *         otherwise by the stop
+     */
+    private static long distanceFare(int distance, long perStop, ArrayList<long[]> bands) {
+        if (bands != null) {
+            for (long[] band : bands) {
+                if (band[0] <= distance && distance <= band[1]) {
+                    return band[2];
+                }
+            }
+        }
+        return distance * perStop;
+    }
+
+    /**
+     * Returns the fare of a leg of the given trip, before the trip cap. The leg
+     * starts with the tap at the given position in the trip and ends at the given
+     * stop, which is where the rider boarded for legs charged on boarding. Does
+     * not allocate.
+     *
+     * @param trip     the trip the leg is part of
+     * @param boarding the position in the trip of the tap starting the leg
+     * @param alight   the stop the leg ends at
+     * @return the leg's fare in cents
+     */
+    public long legFare(Trip trip, int boarding, TransitStop alight) {
+        Event board = trip.getEvent(boarding);
+        int from = board.getLocation().getOrdinal();
+        int to = alight.getOrdinal();
+        int line = lineOf[to];
+        int size = lineSizes[line];
+        // a leg which does not start on the line it ends on travels no distance on it
+        int start = lineOf[from] == line ? positionOf[from] : positionOf[to];
+        long fare = legFares[line][start * size + positionOf[to]];
+
+        FareMode mode = FareMode.of(alight);
+        short[] peaks = peakPercents[mode.ordinal()];
+        if (peaks != null) {
+            fare = fare * peaks[minuteOfWeek(board.getEpochSecond())] / 100;
+        }
+        if (boarding > 0) {
+            FareMode previous = FareMode.of(trip.getEvent(boarding - 1).getLocation());
+            fare -= transferDiscounts[previous.ordinal()][mode.ordinal()];
+        }
+        return Math.max(0, fare);
+    }
+
+    /**
+     * Returns the balance a card needs to be charged for a leg on the given mode
+     *
+     * @param mode the mode of the leg
+     * @return the minimum balance in cents
+     */
+    public long getMinimumBalance(FareMode mode) {
+        return minimumBalances[mode.ordinal()];
+    }
+
+    /**
+     * Returns the most a single trip may cost
+     *
+     * @return the trip cap in cents
+     */
+    public long getTripCap() {
+        return tripCap;
+    }
+
+    /**
+     * Returns the most a card may be charged in a day, from midnight to midnight
+     *
+     * @return the daily cap in cents
+     */
+    public long getDayCap() {
+        return dayCap;
+    }
+
+    /**
+     * Returns the most a card may be charged in a week, from Monday to Sunday
+     *
+     * @return the weekly cap in cents
+     */
+    public long getWeekCap() {
+        return weekCap;
+    }
+
+    /**
+     * Returns the minute of the week of the given time, counting from Monday at
+     * midnight
+     *
+     * @param second the time in seconds since 1970-01-01T00:00:00, a Thursday
+     * @return the minute of the week, from 0 to MINUTES_PER_WEEK - 1
+     */
+    static int minuteOfWeek(long second) {
+        long minute = Math.floorDiv(second, 60) + 3 * FareRules.MINUTES_PER_DAY;
+        return (int) Math.floorMod(minute, (long) FareRules.MINUTES_PER_WEEK);
+    }
+}
@@ -0,0 +1,258 @@
+package main.java.system.gate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The state of one gate reader connected to a gate server. The selector thread
+ * reads tap frames into this connection's buffer; the taps are then processed
+ * one at a time, in the order the gate sent them, by whichever worker thread
+ * the connection was handed to, and the replies to each batch of taps are
+ * written back from that worker once the batch is durable. All buffer access is
+ * guarded by the connection's monitor.
+ */
+class GateConnection implements Runnable {
+    private static final int BUFFERED_FRAMES = 64;
+
+    private final GateServer server;
+    private final SocketChannel channel;
+    private final ByteBuffer in;
+    private final ByteBuffer out;
+    private SelectionKey key;
+    private int releasable;
+    private int unsynced;
+    private boolean scheduled;
+    private boolean readPaused;
+    private boolean closed;
+
+    /**
+     * Creates the state for a newly accepted gate
+     *
+     * @param server  the server which accepted the gate
+     * @param channel the gate's non-blocking channel
+     */
+    GateConnection(GateServer server, SocketChannel channel) {
+        this.server = server;
+        this.channel = channel;
+        this.in = ByteBuffer.allocate(GateProtocol.TAP_FRAME_SIZE * BUFFERED_FRAMES);
+        this.out = ByteBuffer.allocate(GateProtocol.REPLY_FRAME_SIZE * BUFFERED_FRAMES);
+    }
+
+    /**
+     * Sets the key this connection is registered with. Called on the selector
+     * thread.
+     *
+     * @param key the connection's selection key
+     */
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Reads whatever the gate has sent and hands the connection to a worker if a
+     * complete tap is waiting. Called on the selector thread.
+     *
+     * @throws IOException if the channel cannot be read
+     */
+    synchronized void onReadable() throws IOException {
+        if (closed) {
+            return;
+        }
+        if (channel.read(in) < 0) {
+            close();
+            return;
+        }
+        if (!in.hasRemaining()) {
+            // stop reading until the worker has made room
+            readPaused = true;
+            updateInterest();
+        }
+        if (!scheduled && hasFrame()) {
+            scheduled = true;
+            server.dispatch(this);
+        }
+    }
+
+    /**
+     * Writes any replies the channel could not take earlier. Called on the
+     * selector thread.
+     *
+     * @throws IOException if the channel cannot be written
+     */
+    synchronized void onWritable() throws IOException {
+        if (!closed) {
+            flush();
+            updateInterest();
+        }
+    }
+
+    /**
+     * Sets the operations the selector waits for to match this connection's
+     * buffers. Called on the selector thread.
+     */
+    synchronized void updateInterest() {
+        if (closed || !key.isValid()) {
+            return;
+        }
+        int ops = readPaused ? 0 : SelectionKey.OP_READ;
+        if (releasable > 0) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(ops);
+    }
+
+    /**
+     * Processes every complete tap in the buffer, in order. The replies to a batch
+     * of taps are only sent once the system's journal holds the whole batch, so
+     * a gate is never told a tap was accepted which a crash could lose. Runs on a
+     * worker thread.
+     */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                long sequence = 0;
+                long cardID = 0;
+                int stop = 0;
+                byte action = 0;
+                long second = 0;
+                boolean frame;
+                synchronized (this) {
+                    if (closed) {
+                        scheduled = false;
+                        return;
+                    }
+                    frame = hasFrame() && unsynced < BUFFERED_FRAMES;
+                    if (frame) {
+                        in.flip();
+                        int length = in.getInt();
+                        if (length != GateProtocol.TAP_BODY_SIZE) {
+                            scheduled = false;
+                            close();
+                            return;
+                        }
+                        sequence = in.getLong();
+                        cardID = in.getLong();
+                        stop = in.getInt();
+                        action = in.get();
+                        second = in.getLong();
+                        in.compact();
+                        if (readPaused) {
+                            readPaused = false;
+                            server.requestInterestUpdate(this);
+                        }
+                    } else if (unsynced == 0) {
+                        scheduled = false;
+                        return;
+                    }
+                }
+
+                if (frame) {
+                    long charged = server.process(cardID, stop, action, second);
+                    reply(sequence, charged);
+                } else {
+                    // no more taps waiting, or a full batch: make it durable, then answer it
+                    server.sync();
+                    send();
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                scheduled = false;
+                close();
+            }
+        }
+    }
+
+    /**
+     * Adds the reply to a tap to the outgoing buffer, to be sent with the rest of
+     * its batch
+     *
+     * @param sequence the sequence number of the tap
+     * @param charged  the result of processing the tap, see GateServer.process
+     */
+    private synchronized void reply(long sequence, long charged) {
+        if (closed) {
+            return;
+        }
+        if (out.remaining() < GateProtocol.REPLY_FRAME_SIZE) {
+            // the gate is not reading its replies
+            close();
+            return;
+        }
+        out.putInt(GateProtocol.REPLY_BODY_SIZE);
+        out.putLong(sequence);
+        if (charged >= 0) {
+            out.put(GateProtocol.ACCEPTED);
+            out.putLong(charged);
+        } else {
+            out.put(charged == GateServer.REJECTED ? GateProtocol.REJECTED : GateProtocol.DECLINED);
+            out.putLong(0);
+        }
+        unsynced++;
+    }
+
+    /**
+     * Sends the replies to the latest batch of taps, asking the selector to finish
+     * the write if the channel cannot take all of it now
+     *
+     * @throws IOException if the channel cannot be written
+     */
+    private synchronized void send() throws IOException {
+        unsynced = 0;
+        if (closed) {
+            return;
+        }
+        boolean pending = releasable > 0;
+        releasable = out.position();
+        flush();
+        if (releasable > 0 && !pending) {
+            server.requestInterestUpdate(this);
+        }
+    }
+
+    /**
+     * Writes as much of the replies which may be sent as the channel will take.
+     * Replies to taps not yet durable stay in the buffer.
+     *
+     * @throws IOException if the channel cannot be written
+     */
+    private void flush() throws IOException {
+        int end = out.position();
+        out.position(0).limit(releasable);
+        int written = channel.write(out);
+        out.limit(end).position(written);
+        out.compact();
+        releasable -= written;
+    }
+
+    /**
+     * Returns whether a complete frame is waiting in the incoming buffer
+     *
+     * @return true iff at least one whole frame has been read
+     */
+    private boolean hasFrame() {
+        return in.position() >= GateProtocol.TAP_FRAME_SIZE;
+    }
+
+    /**
+     * Closes the connection to the gate
+     */
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // the gate is gone either way
+        }
+        server.connectionClosed();
+    }
+}
@@ -0,0 +1,220 @@
+package main.java.system.gate;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * A load generator for GateServer. Opens many gate connections from a single
+ * selector thread, each of which sends one tap, waits for its reply and then
+ * sends the next, and reports the throughput and the latency of the replies.
+ */
+public class GateLoadClient {
+    private static final int MAX_LATENCY_MICROS = 1_000_000;
+
+    private final Selector selector;
+    private final Random random;
+    private final long firstCard;
+    private final int numCards;
+    private final int numStops;
+    private final long[] histogram;
+    private long second;
+    private long sent;
+    private long accepted;
+    private long declined;
+    private long rejected;
+
+    /**
+     * Creates a client which taps the given range of cards at the given range of
+     * stops
+     *
+     * @param firstCard the numeric ID of the first card to tap
+     * @param numCards  the number of consecutive card IDs to tap
+     * @param numStops  the number of stops in the server's network
+     * @throws IOException if a selector cannot be opened
+     */
+    private GateLoadClient(long firstCard, int numCards, int numStops) throws IOException {
+        this.selector = Selector.open();
+        this.random = new Random(42);
+        this.firstCard = firstCard;
+        this.numCards = numCards;
+        this.numStops = numStops;
+        this.histogram = new long[MAX_LATENCY_MICROS + 1];
+        this.second = 1_600_000_000L;
+    }
+
+    /**
+     * Opens the given number of connections to the server
+     *
+     * @param address     the server's address
+     * @param connections the number of gates to simulate
+     * @throws IOException if a connection cannot be opened
+     */
+    private void connect(InetSocketAddress address, int connections) throws IOException {
+        for (int i = 0; i < connections; i++) {
+            SocketChannel channel = SocketChannel.open();
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.connect(address);
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new Gate(i));
+        }
+    }
+
+    /**
+     * Sends taps on every connection until the given time has passed
+     *
+     * @param seconds how long to send taps for
+     * @throws IOException if a connection fails
+     */
+    private void run(int seconds) throws IOException {
+        for (SelectionKey key : selector.keys()) {
+            send(key);
+        }
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        while (System.nanoTime() < end) {
+            selector.select(100);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (key.isReadable() && receive(key)) {
+                    send(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the next tap on a connection
+     *
+     * @param key the connection's key
+     * @throws IOException if the tap cannot be written
+     */
+    private void send(SelectionKey key) throws IOException {
+        Gate gate = (Gate) key.attachment();
+        ByteBuffer out = gate.out;
+        out.clear();
+        out.putInt(GateProtocol.TAP_BODY_SIZE);
+        out.putLong(++gate.sequence);
+        out.putLong(firstCard + random.nextInt(numCards));
+        out.putInt(random.nextInt(numStops));
+        out.put((byte) random.nextInt(3));
+        out.putLong(second++);
+        out.flip();
+        gate.sentAt = System.nanoTime();
+        SocketChannel channel = (SocketChannel) key.channel();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        sent++;
+    }
+
+    /**
+     * Reads a reply on a connection, recording its latency once it is complete
+     *
+     * @param key the connection's key
+     * @return true iff a whole reply has arrived
+     * @throws IOException if the server closed the connection
+     */
+    private boolean receive(SelectionKey key) throws IOException {
+        Gate gate = (Gate) key.attachment();
+        ByteBuffer in = gate.in;
+        if (((SocketChannel) key.channel()).read(in) < 0) {
+            throw new IOException("Gate " + gate.number + " was disconnected");
+        }
+        if (in.hasRemaining()) {
+            return false;
+        }
+        long micros = (System.nanoTime() - gate.sentAt) / 1000;
+        histogram[(int) Math.min(micros, MAX_LATENCY_MICROS)]++;
+        in.flip();
+        in.getInt();
+        in.getLong();
+        byte status = in.get();
+        in.clear();
+        if (status == GateProtocol.ACCEPTED) {
+            accepted++;
+        } else if (status == GateProtocol.DECLINED) {
+            declined++;
+        } else {
+            rejected++;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the latency below which the given fraction of replies arrived
+     *
+     * @param fraction the fraction of replies, between 0 and 1
+     * @return the latency in microseconds
+     */
+    private int percentile(double fraction) {
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        long target = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int micros = 0; micros < histogram.length; micros++) {
+            seen += histogram[micros];
+            if (seen >= target) {
+                return micros;
+            }
+        }
+        return MAX_LATENCY_MICROS;
+    }
+
+    /**
+     * Runs a load test against a gate server
+     *
+     * @param args host port connections seconds firstCardID numCards numStops
+     * @throws IOException if the server cannot be reached
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 7) {
+            System.out.println("Usage: GateLoadClient host port connections seconds firstCardID numCards numStops");
+            return;
+        }
+        InetSocketAddress address = new InetSocketAddress(args[0], Integer.parseInt(args[1]));
+        int connections = Integer.parseInt(args[2]);
+        int seconds = Integer.parseInt(args[3]);
+        GateLoadClient client = new GateLoadClient(Long.parseLong(args[4]), Integer.parseInt(args[5]),
+                Integer.parseInt(args[6]));
+
+        client.connect(address, connections);
+        client.run(seconds);
+
+        System.out.println(connections + " gates sent " + client.sent + " taps in " + seconds + "s ("
+                + client.sent / seconds + " taps/s)");
+        System.out.println("accepted " + client.accepted + ", declined " + client.declined + ", rejected "
+                + client.rejected);
+        System.out.println("latency p50 " + client.percentile(0.5) + "us, p99 " + client.percentile(0.99)
+                + "us, p99.9 " + client.percentile(0.999) + "us");
+    }
+
+    /**
+     * The buffers and progress of one simulated gate
+     */
+    private static class Gate {
+        private final int number;
+        private final ByteBuffer out = ByteBuffer.allocate(GateProtocol.TAP_FRAME_SIZE);
+        private final ByteBuffer in = ByteBuffer.allocate(GateProtocol.REPLY_FRAME_SIZE);
+        private long sequence;
+        private long sentAt;
+
+        /**
+         * Creates the state for a gate
+         *
+         * @param number the position of the gate among the client's connections
+         */
+        Gate(int number) {
+            this.number = number;
+        }
+    }
+}
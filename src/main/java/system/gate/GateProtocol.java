@@ -0,0 +1,39 @@
+package main.java.system.gate;
+
+/**
+ * The binary frames exchanged between gate readers and the gate server. Every
+ * frame starts with a big-endian int giving the number of bytes which follow
+ * it.
+ *
+ * <ul>
+ * <li>A tap frame holds the sequence number chosen by the gate (long), the
+ * numeric ID of the card (long), the position of the stop in the network's stop
+ * dictionary (int), the action (byte: TAP on a bus, ENTER or EXIT at a subway
+ * station) and the time of the tap in seconds since the epoch, UTC (long).</li>
+ *
+ * <li>A reply frame holds the sequence number of the tap it answers (long), the
+ * status (byte: ACCEPTED, DECLINED or REJECTED) and the amount charged in cents
+ * (long, 0 unless the tap was accepted).</li>
+ * </ul>
+ */
+final class GateProtocol {
+    static final int LENGTH_SIZE = 4;
+    static final int TAP_BODY_SIZE = 8 + 8 + 4 + 1 + 8;
+    static final int TAP_FRAME_SIZE = LENGTH_SIZE + TAP_BODY_SIZE;
+    static final int REPLY_BODY_SIZE = 8 + 1 + 8;
+    static final int REPLY_FRAME_SIZE = LENGTH_SIZE + REPLY_BODY_SIZE;
+
+    static final byte TAP = 0;
+    static final byte ENTER = 1;
+    static final byte EXIT = 2;
+
+    static final byte ACCEPTED = 0;
+    static final byte DECLINED = 1;
+    static final byte REJECTED = 2;
+
+    /**
+     * Not instantiable
+     */
+    private GateProtocol() {
+    }
+}
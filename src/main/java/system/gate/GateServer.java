@@ -0,0 +1,367 @@
+package main.java.system.gate;
+
+import main.java.entities.Card;
+import main.java.entities.transit.BusStop;
+import main.java.entities.transit.SubwayStation;
+import main.java.entities.transit.TransitNetwork;
+import main.java.entities.transit.TransitStop;
+import main.java.system.Logger;
+import main.java.system.Parser;
+import main.java.system.TransitSystem;
+import main.java.system.event.Direction;
+import main.java.system.event.Event;
+import main.java.system.fare.FareReloader;
+import main.java.system.journal.StateStore;
+import main.java.system.ledger.CardLedger;
+import main.java.users.Rider;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A server which takes taps from gate readers over TCP and answers each one
+ * with whether it was accepted and how much it cost. One selector thread
+ * accepts gates and reads their taps without blocking; the taps of each gate
+ * are then processed in order on a shared pool of worker threads, so many
+ * thousands of mostly idle gates cost no more than their buffers. The frames
+ * are described in GateProtocol.
+ */
+public class GateServer implements Closeable {
+    /**
+     * The port the server listens on when none is given
+     */
+    public static final int DEFAULT_PORT = 7400;
+
+    /**
+     * The result of processing a tap which could not be understood
+     */
+    static final long REJECTED = -2;
+
+    private static final int ACCEPT_BACKLOG = 4096;
+    private static final long CHECKPOINT_MINUTES = 5;
+    private static final long FARE_RELOAD_SECONDS = 10;
+
+    private final TransitSystem system;
+    private final TransitNetwork network;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final ConcurrentLinkedQueue<GateConnection> interestUpdates;
+    private final AtomicInteger connections;
+    private Thread selectorThread;
+    private volatile boolean running;
+
+    /**
+     * Binds a new server for the given system to the given address. The server
+     * does not accept gates until it is started.
+     *
+     * @param system  the transit system taps are processed by
+     * @param address the address to listen on, port 0 picks a free port
+     * @param workers the number of threads processing taps
+     * @throws IOException if the address cannot be bound
+     */
+    public GateServer(TransitSystem system, InetSocketAddress address, int workers) throws IOException {
+        this.system = system;
+        this.network = system.getNetwork();
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        this.serverChannel.bind(address, ACCEPT_BACKLOG);
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.workers = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "gate-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.interestUpdates = new ConcurrentLinkedQueue<>();
+        this.connections = new AtomicInteger();
+    }
+
+    /**
+     * Starts accepting gates on a new selector thread
+     */
+    public void start() {
+        running = true;
+        selectorThread = new Thread(this::select, "gate-selector");
+        selectorThread.start();
+    }
+
+    /**
+     * Return the port this server is listening on
+     *
+     * @return the bound port
+     * @throws IOException if the port cannot be read
+     */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Return the number of gates currently connected
+     *
+     * @return the number of open connections
+     */
+    public int getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * Stops accepting gates, closes every connection and waits for the taps in
+     * progress to finish
+     *
+     * @throws IOException if the server cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        if (selectorThread != null) {
+            try {
+                selectorThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof GateConnection) {
+                ((GateConnection) key.attachment()).close();
+            }
+        }
+        serverChannel.close();
+        selector.close();
+        workers.shutdown();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs the selector loop until the server is closed
+     */
+    private void select() {
+        while (running) {
+            try {
+                selector.select();
+                GateConnection pending;
+                while ((pending = interestUpdates.poll()) != null) {
+                    pending.updateInterest();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    GateConnection connection = (GateConnection) key.attachment();
+                    try {
+                        if (key.isWritable()) {
+                            connection.onWritable();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+                    } catch (IOException e) {
+                        connection.close();
+                    }
+                }
+            } catch (IOException e) {
+                Logger.error("The gate server could not wait for gates.", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Accepts every gate waiting to connect
+     *
+     * @throws IOException if a gate cannot be accepted
+     */
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            GateConnection connection = new GateConnection(this, channel);
+            connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+            connections.incrementAndGet();
+        }
+    }
+
+    /**
+     * Hands a connection with taps waiting to a worker
+     *
+     * @param connection the connection to process
+     */
+    void dispatch(GateConnection connection) {
+        workers.execute(connection);
+    }
+
+    /**
+     * Asks the selector thread to bring a connection's interest set up to date
+     *
+     * @param connection the connection whose buffers changed
+     */
+    void requestInterestUpdate(GateConnection connection) {
+        interestUpdates.add(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Records that a gate has gone
+     */
+    void connectionClosed() {
+        connections.decrementAndGet();
+    }
+
+    /**
+     * Processes one tap sent by a gate
+     *
+     * @param cardID the numeric ID of the card tapped
+     * @param stop   the position of the stop in the network's stop dictionary
+     * @param action TAP, ENTER or EXIT from GateProtocol
+     * @param second the time of the tap in seconds since the epoch, UTC
+     * @return the amount charged in cents, TransitSystem.DECLINED if the tap was
+     *         refused, or REJECTED if it named an unknown card or stop
+     */
+    long process(long cardID, int stop, byte action, long second) {
+        Card card = system.findCardInSystem(cardID);
+        if (card == null || stop < 0 || stop >= network.getNumStops()) {
+            return REJECTED;
+        }
+        TransitStop location = network.getStop(stop);
+        Event event;
+        if (action == GateProtocol.TAP && location instanceof BusStop) {
+            event = new Event(location, second, card);
+        } else if (action == GateProtocol.ENTER && location instanceof SubwayStation) {
+            event = new Event(location, second, card, Direction.ENTER);
+        } else if (action == GateProtocol.EXIT && location instanceof SubwayStation) {
+            event = new Event(location, second, card, Direction.EXIT);
+        } else {
+            return REJECTED;
+        }
+
+        try {
+            return system.handleTapEvent(event);
+        } catch (RuntimeException e) {
+            Logger.error("A tap from a gate could not be processed.", e.toString());
+            return REJECTED;
+        }
+    }
+
+    /**
+     * Waits until every tap processed so far is durable in the system's journal
+     *
+     * @throws IOException if the journal could not be written
+     */
+    void sync() throws IOException {
+        system.syncJournal();
+    }
+
+    /**
+     * Loads the transit system from the input files and serves taps for it until
+     * the process is stopped. Optional arguments are the port, the number of
+     * worker threads, a number of extra cards to issue for load testing, and a
+     * directory to keep the system's state in. With a state directory, the system
+     * is loaded from its snapshot if it has one, and its extra cards are not
+     * issued again; the state is then recovered from the journal, every accepted
+     * tap is journaled before it is answered, and a checkpoint is taken every
+     * CHECKPOINT_MINUTES. With a ledger file, which follows the state directory,
+     * the cards' balances and status are kept off the heap in that file, which
+     * takes on the recovered state in place of whatever it held. Changes to the
+     * fare file take effect within FARE_RELOAD_SECONDS.
+     *
+     * @param args [port [workers [extraCards [stateDirectory [ledgerFile]]]]]
+     * @throws IOException if the input files cannot be read or the port bound
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int extraCards = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+
+        StateStore store = args.length > 3 ? new StateStore(Paths.get(args[3])) : null;
+        TransitSystem system = store == null ? null : store.load();
+        if (system != null) {
+            System.out.println("Loaded " + system.getCardholders().length + " riders from the snapshot in "
+                    + args[3]);
+        } else {
+            Parser parser = new Parser();
+            Rider[] riders = parser.riderParser();
+            system = new TransitSystem(riders, parser.networkParser());
+            parser.cardParser(system);
+
+            // cards issued on an earlier run are part of the snapshot
+            if (extraCards > 0) {
+                Card first = system.issueCardToRider(riders[0]);
+                Card last = first;
+                for (int i = 1; i < extraCards; i++) {
+                    last = system.issueCardToRider(riders[i % riders.length]);
+                }
+                System.out.println("Issued cards " + first.getId().toLong() + " to " + last.getId().toLong());
+            }
+        }
+
+        // the default fares are charged if there is no fare file
+        Path fareFile = Paths.get("src/main/java/files/Fares.txt");
+        if (Files.exists(fareFile)) {
+            FareReloader fares = new FareReloader(fareFile, system);
+            fares.reload();
+            fares.reloadEvery(FARE_RELOAD_SECONDS, TimeUnit.SECONDS);
+        }
+
+        if (store != null) {
+            long replayed = store.recover(system, null, null);
+            System.out.println("Recovered state from " + args[3] + ", replaying " + replayed + " journaled taps");
+            store.checkpointEvery(CHECKPOINT_MINUTES, TimeUnit.MINUTES);
+        }
+
+        CardLedger ledger = args.length > 4 ? new CardLedger(Paths.get(args[4])) : null;
+        if (ledger != null) {
+            // a ledger always comes with a state directory, whose recovered balances are newer
+            int left = system.attachLedger(ledger, true);
+            System.out.println("Keeping cards in the ledger " + args[4] + ", " + left + " left on the heap");
+        }
+
+        if (store != null || ledger != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    if (store != null) {
+                        store.close();
+                    }
+                    if (ledger != null) {
+                        ledger.close();
+                    }
+                } catch (IOException e) {
+                    Logger.error("The state of the system could not be closed.", e.getMessage());
+                }
+            }, "state-close"));
+        }
+
+        GateServer server = new GateServer(system, new InetSocketAddress(port), workers);
+        server.start();
+        System.out.println("Listening for gates on port " + server.getPort() + " with "
+                + system.getNetwork().getNumStops() + " stops");
+    }
+}
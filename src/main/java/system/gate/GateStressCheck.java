@@ -0,0 +1,144 @@
+package main.java.system.gate;
+
+import main.java.entities.Card;
+import main.java.system.Logger;
+import main.java.system.Parser;
+import main.java.system.TransitSystem;
+import main.java.system.metrics.ObserverAdmin;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * A stress check for handling taps on many threads at once. The same random
+ * taps, late riders' included, are handled by two systems with the network and
+ * fares in the input files and a rider with a new card for each card tapped:
+ * one by a single thread in the order they were made, and one by many feeder
+ * threads, each feeding the taps of its own share of the cards. The feeders
+ * move through the taps in rounds of BLOCK_SECONDS of tap time, so no tap is
+ * handled further behind the latest one than a gate's would be. Once both are
+ * done, every card's balance, trips and trip prices, and the daily fare, stop
+ * and trip totals, must be the same in both systems, and every late rider's
+ * tap out must have joined the trip it boarded, or the check exits with status
+ * 1.
+ */
+public class GateStressCheck {
+    private static final long BLOCK_SECONDS = 5 * 60;
+    private static final int LATE_RIDERS = 50;
+
+    /**
+     * Handles every tap on the given number of feeder threads. Each feeder
+     * handles the taps of the cards whose index it is given, in the order they
+     * were made, and the feeders wait for one another at the end of each block of
+     * tap time.
+     *
+     * @param taps    the taps to handle
+     * @param system  the system to handle them
+     * @param cards   the system's cards, in the order they were issued
+     * @param feeders the number of feeder threads
+     * @throws InterruptedException if interrupted while waiting for the feeders
+     */
+    private static void feedConcurrently(ScriptedTaps taps, TransitSystem system, ArrayList<Card> cards,
+            int feeders) throws InterruptedException {
+        CyclicBarrier barrier = new CyclicBarrier(feeders);
+        Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[feeders];
+        for (int f = 0; f < feeders; f++) {
+            int feeder = f;
+            threads[f] = new Thread(() -> {
+                try {
+                    long[] seconds = taps.seconds;
+                    int i = 0;
+                    while (i < seconds.length) {
+                        long end = seconds[i] - Math.floorMod(seconds[i] - ScriptedTaps.FIRST_SECOND, BLOCK_SECONDS)
+                                + BLOCK_SECONDS;
+                        for (; i < seconds.length && seconds[i] < end; i++) {
+                            if (taps.cards[i] % feeders == feeder) {
+                                taps.tap(system, cards, i);
+                            }
+                        }
+                        barrier.await();
+                    }
+                } catch (InterruptedException | BrokenBarrierException | RuntimeException e) {
+                    synchronized (failure) {
+                        failure[0] = e;
+                    }
+                    barrier.reset();
+                }
+            }, "feeder-" + f);
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw new IllegalStateException("A feeder failed", failure[0]);
+            }
+        }
+    }
+
+    /**
+     * Runs the check from the project's root directory
+     *
+     * @param args [taps [cards [feeders]]], 200000 taps on 2000 cards by 64
+     *             feeders by default, along with the rides of LATE_RIDERS
+     *             late riders
+     * @throws IOException          if the input files cannot be read
+     * @throws InterruptedException if interrupted while waiting for the feeders
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int taps = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int numCards = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+        int feeders = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        Logger.setLevel(Logger.Level.OFF);
+        Parser parser = new Parser();
+
+        ScriptedTaps script = new ScriptedTaps(taps, numCards, LATE_RIDERS, 1, parser.networkParser());
+        ArrayList<Card> serialCards = new ArrayList<>();
+        ArrayList<Card> concurrentCards = new ArrayList<>();
+        TransitSystem serial = script.load(parser, serialCards);
+        TransitSystem concurrent = script.load(parser, concurrentCards);
+        ObserverAdmin serialTotals = new ObserverAdmin();
+        ObserverAdmin concurrentTotals = new ObserverAdmin();
+        serial.attach(serialTotals);
+        concurrent.attach(concurrentTotals);
+
+        long start = System.nanoTime();
+        script.feed(serial, serialCards, 0, script.size());
+        long serialMillis = (System.nanoTime() - start) / 1_000_000;
+        start = System.nanoTime();
+        feedConcurrently(script, concurrent, concurrentCards, feeders);
+        long concurrentMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // close every trip still open, so both systems count all of them
+        long last = script.lastSecond() + 24 * 60 * 60;
+        serial.advanceClock(last);
+        concurrent.advanceClock(last);
+
+        int mismatches = ScriptedTaps.compareCards(serialCards, concurrentCards);
+        int unjoined = script.unjoinedLateRides(serialCards);
+        int firstDay = (int) Math.floorDiv(ScriptedTaps.FIRST_SECOND, 24 * 60 * 60);
+        int lastDay = (int) Math.floorDiv(last, 24 * 60 * 60);
+        long trips = serialTotals.tripsBetween(firstDay, lastDay);
+        boolean totalsMatch = serialTotals.chargeBetween(firstDay, lastDay)
+                .equals(concurrentTotals.chargeBetween(firstDay, lastDay))
+                && serialTotals.stopsBetween(firstDay, lastDay) == concurrentTotals.stopsBetween(firstDay, lastDay)
+                && trips == concurrentTotals.tripsBetween(firstDay, lastDay);
+
+        System.out.println(script.size() + " taps on " + serialCards.size() + " cards: serial " + serialMillis
+                + "ms, " + feeders + " feeders " + concurrentMillis + "ms");
+        System.out.println(trips + " trips, " + serialTotals.chargeBetween(firstDay, lastDay) + " in fares");
+        if (mismatches > 0 || !totalsMatch || unjoined > 0) {
+            System.out.println("FAILED: " + mismatches + " cards differ, "
+                    + (totalsMatch ? "" : "the daily totals differ, ") + unjoined + " late rides were not joined");
+            System.exit(1);
+        }
+        System.out.println("OK: every card's balance and trips, and the daily totals, match, and every late ride"
+                + " was joined by its tap out");
+    }
+}
@@ -0,0 +1,132 @@
+package main.java.system.gate;
+
+import main.java.entities.Card;
+import main.java.system.Logger;
+import main.java.system.Parser;
+import main.java.system.TransitSystem;
+import main.java.system.fare.FareTable;
+import main.java.system.journal.StateStore;
+import main.java.system.metrics.ObserverAdmin;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * A check that a system recovered from a snapshot and the journal after it
+ * holds the same state as one which never stopped. The same random taps, late
+ * riders' included, are handled by two systems with the network and fares in
+ * the input files and a rider with a new card for each card tapped: one with
+ * nothing kept, and one kept in a state store, checkpointed part way through
+ * the taps and left without closing its store once its journal is synced, as
+ * if the process had died. A third system is then loaded and recovered from the store. Every
+ * card's balance, trips and trip prices, and the daily fare, stop and trip
+ * totals, must be the same in the recovered system as in the one kept in
+ * memory, and every late rider's tap out must have joined the trip it boarded,
+ * or the check exits with status 1.
+ */
+public class RecoveryCheck {
+    private static final int LATE_RIDERS = 50;
+
+    /**
+     * Deletes the given directory and everything in it
+     *
+     * @param directory the directory to delete
+     * @throws IOException if a file cannot be deleted
+     */
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Runs the check from the project's root directory
+     *
+     * @param args [taps [cards [directory]]], 200000 taps on 2000 cards kept in a
+     *             new temporary directory by default, along with the rides of
+     *             LATE_RIDERS late riders; a given directory must not hold a
+     *             store yet, and is kept after the check
+     * @throws IOException if the input files or the store cannot be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        int taps = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int numCards = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+        Path directory = args.length > 2 ? Paths.get(args[2]) : Files.createTempDirectory("recovery-check");
+        Logger.setLevel(Logger.Level.OFF);
+        Parser parser = new Parser();
+
+        ScriptedTaps script = new ScriptedTaps(taps, numCards, LATE_RIDERS, 19, parser.networkParser());
+        ArrayList<Card> memoryCards = new ArrayList<>();
+        ArrayList<Card> keptCards = new ArrayList<>();
+        TransitSystem memory = script.load(parser, memoryCards);
+        TransitSystem kept = script.load(parser, keptCards);
+        ObserverAdmin memoryTotals = new ObserverAdmin();
+        ObserverAdmin keptTotals = new ObserverAdmin();
+        memory.attach(memoryTotals);
+        kept.attach(keptTotals);
+
+        script.feed(memory, memoryCards, 0, script.size());
+        StateStore store = new StateStore(directory);
+        if (store.load() != null) {
+            throw new IOException(directory + " already holds a store");
+        }
+        store.recover(kept, keptTotals, null);
+        script.feed(kept, keptCards, 0, script.size() / 2);
+        store.checkpoint();
+        script.feed(kept, keptCards, script.size() / 2, script.size());
+        // the store is left open, as by a process which died once its taps were durable
+        kept.syncJournal();
+
+        long start = System.nanoTime();
+        StateStore reopened = new StateStore(directory);
+        TransitSystem recovered = reopened.load();
+        recovered.setFares(FareTable.compile(parser.fareParser(), recovered.getNetwork()));
+        ObserverAdmin recoveredTotals = new ObserverAdmin();
+        recovered.attach(recoveredTotals);
+        long replayed = reopened.recover(recovered, recoveredTotals, null);
+        long recoverMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // the recovered system's cards are found by the IDs of the ones it was saved from
+        ArrayList<Card> recoveredCards = new ArrayList<>();
+        for (Card card : keptCards) {
+            recoveredCards.add(recovered.findCardInSystem(card.getId().toLong()));
+        }
+        int mismatches = ScriptedTaps.compareCards(memoryCards, recoveredCards);
+        // close every trip still open, so both systems count all of them
+        long last = script.lastSecond() + 24 * 60 * 60;
+        memory.advanceClock(last);
+        recovered.advanceClock(last);
+        int unjoined = script.unjoinedLateRides(recoveredCards);
+        int firstDay = (int) Math.floorDiv(ScriptedTaps.FIRST_SECOND, 24 * 60 * 60);
+        int lastDay = (int) Math.floorDiv(last, 24 * 60 * 60);
+        long trips = memoryTotals.tripsBetween(firstDay, lastDay);
+        boolean totalsMatch = memoryTotals.chargeBetween(firstDay, lastDay)
+                .equals(recoveredTotals.chargeBetween(firstDay, lastDay))
+                && memoryTotals.stopsBetween(firstDay, lastDay) == recoveredTotals.stopsBetween(firstDay, lastDay)
+                && trips == recoveredTotals.tripsBetween(firstDay, lastDay);
+        reopened.close();
+        if (args.length <= 2) {
+            delete(directory);
+        }
+
+        System.out.println(script.size() + " taps on " + keptCards.size() + " cards: recovered in " + recoverMillis
+                + "ms, " + replayed + " taps replayed from the journal");
+        System.out.println(trips + " trips, " + memoryTotals.chargeBetween(firstDay, lastDay) + " in fares");
+        if (mismatches > 0 || !totalsMatch || unjoined > 0) {
+            System.out.println("FAILED: " + mismatches + " cards differ, "
+                    + (totalsMatch ? "" : "the daily totals differ, ") + unjoined + " late rides were not joined");
+            System.exit(1);
+        }
+        System.out.println("OK: every card's balance and trips, and the daily totals, match, and every late ride"
+                + " was joined by its tap out");
+        // the store kept open for the check would otherwise keep the process alive
+        System.exit(0);
+    }
+}
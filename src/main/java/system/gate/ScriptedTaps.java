@@ -0,0 +1,228 @@
+package main.java.system.gate;
+
+import main.java.entities.Card;
+import main.java.entities.Money;
+import main.java.entities.transit.BusStop;
+import main.java.entities.transit.TransitNetwork;
+import main.java.entities.transit.TransitStop;
+import main.java.system.Parser;
+import main.java.system.TransitSystem;
+import main.java.system.Trip;
+import main.java.system.event.Direction;
+import main.java.system.event.Event;
+import main.java.system.fare.FareTable;
+import main.java.users.Rider;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * The random taps a check feeds to the systems it compares, in the order they
+ * were made. Most are made by regular cards, each tapped at a random stop. The
+ * rest are made by late riders, whose cards come after the regular ones: each
+ * of their rides boards at the first stop of a random line and taps out at a
+ * later stop of it between two and four hours later, past the two-hour window
+ * in which a trip may be continued by a new boarding but within the second
+ * window a rider still on a vehicle has to tap out.
+ */
+class ScriptedTaps {
+    static final long FIRST_SECOND = 1_600_000_000L;
+
+    private static final long WINDOW_SECONDS = 2 * 60 * 60;
+    private static final int LATE_RIDER_DOLLARS = 10_000;
+
+    final int[] cards;
+    final int[] stops;
+    final byte[] actions;
+    final long[] seconds;
+    private final int numCards;
+    private final int lateRiders;
+
+    /**
+     * Creates the given number of random taps on regular cards, along with the
+     * rides of the given number of late riders over the same span of time
+     *
+     * @param taps       the number of taps on regular cards
+     * @param numCards   the number of regular cards tapped
+     * @param lateRiders the number of late riders
+     * @param maxGap     the most seconds between one regular tap and the next
+     * @param network    the network the taps are made on
+     */
+    ScriptedTaps(int taps, int numCards, int lateRiders, int maxGap, TransitNetwork network) {
+        this.numCards = numCards;
+        this.lateRiders = lateRiders;
+        Random random = new Random(42);
+        ArrayList<long[]> made = new ArrayList<>();
+        long second = FIRST_SECOND;
+        for (int i = 0; i < taps; i++) {
+            second += random.nextInt(maxGap + 1);
+            int stop = random.nextInt(network.getNumStops());
+            byte action = network.getStop(stop) instanceof BusStop ? GateProtocol.TAP
+                    : random.nextBoolean() ? GateProtocol.ENTER : GateProtocol.EXIT;
+            made.add(new long[] { second, random.nextInt(numCards), stop, action });
+        }
+        long end = second;
+        for (int rider = 0; rider < lateRiders; rider++) {
+            long board = FIRST_SECOND + random.nextInt(60 * 60);
+            while (true) {
+                long alight = board + WINDOW_SECONDS + 60 + random.nextInt((int) WINDOW_SECONDS - 120);
+                if (alight > end) {
+                    break;
+                }
+                TransitStop[] line = network.getStop(random.nextInt(network.getNumStops())).getLine().getStops();
+                TransitStop to = line[1 + random.nextInt(line.length - 1)];
+                boolean bus = line[0] instanceof BusStop;
+                made.add(new long[] { board, numCards + rider, line[0].getOrdinal(),
+                        bus ? GateProtocol.TAP : GateProtocol.ENTER });
+                made.add(new long[] { alight, numCards + rider, to.getOrdinal(),
+                        bus ? GateProtocol.TAP : GateProtocol.EXIT });
+                board = alight + random.nextInt(60 * 60);
+            }
+        }
+        // a stable sort, so taps made in the same second keep the order they were made in
+        made.sort(Comparator.comparingLong(tap -> tap[0]));
+
+        this.cards = new int[made.size()];
+        this.stops = new int[made.size()];
+        this.actions = new byte[made.size()];
+        this.seconds = new long[made.size()];
+        for (int i = 0; i < made.size(); i++) {
+            long[] tap = made.get(i);
+            seconds[i] = tap[0];
+            cards[i] = (int) tap[1];
+            stops[i] = (int) tap[2];
+            actions[i] = (byte) tap[3];
+        }
+    }
+
+    /**
+     * Returns the number of taps, late riders' included
+     *
+     * @return the number of taps
+     */
+    int size() {
+        return seconds.length;
+    }
+
+    /**
+     * Returns the time of the last tap
+     *
+     * @return the time in seconds since the epoch
+     */
+    long lastSecond() {
+        return seconds[seconds.length - 1];
+    }
+
+    /**
+     * Creates a system on the network and fares in the input files, with a rider
+     * holding one new card for each card tapped. The late riders' cards are given
+     * enough to pay for every ride, so none of their taps are declined.
+     *
+     * @param parser the parser of the input files
+     * @param issued the list to add the issued cards to, in order
+     * @return the system
+     * @throws IOException if the input files cannot be read
+     */
+    TransitSystem load(Parser parser, ArrayList<Card> issued) throws IOException {
+        Rider[] riders = new Rider[numCards + lateRiders];
+        for (int i = 0; i < riders.length; i++) {
+            riders[i] = new Rider("Rider " + i, "rider" + i + "@example.com");
+        }
+        TransitSystem system = new TransitSystem(riders, parser.networkParser());
+        system.setFares(FareTable.compile(parser.fareParser(), system.getNetwork()));
+        for (int i = 0; i < riders.length; i++) {
+            Card card = system.issueCardToRider(riders[i]);
+            if (i >= numCards) {
+                card.setBalance(Money.ofDollars(LATE_RIDER_DOLLARS));
+            }
+            issued.add(card);
+        }
+        return system;
+    }
+
+    /**
+     * Handles one of the taps
+     *
+     * @param system the system to handle it
+     * @param cards  the system's cards, in the order they were issued
+     * @param i      the index of the tap
+     */
+    void tap(TransitSystem system, ArrayList<Card> cards, int i) {
+        TransitStop stop = system.getNetwork().getStop(stops[i]);
+        Card card = cards.get(this.cards[i]);
+        if (actions[i] == GateProtocol.TAP) {
+            system.handleTapEvent(new Event(stop, seconds[i], card));
+        } else {
+            Direction direction = actions[i] == GateProtocol.ENTER ? Direction.ENTER : Direction.EXIT;
+            system.handleTapEvent(new Event(stop, seconds[i], card, direction));
+        }
+    }
+
+    /**
+     * Handles the taps from the given index up to but excluding another on the
+     * calling thread, in the order they were made
+     *
+     * @param system the system to handle them
+     * @param cards  the system's cards, in the order they were issued
+     * @param from   the index of the first tap
+     * @param to     the index after the last tap
+     */
+    void feed(TransitSystem system, ArrayList<Card> cards, int from, int to) {
+        for (int i = from; i < to; i++) {
+            tap(system, cards, i);
+        }
+    }
+
+    /**
+     * Compares every card's balance, trips and trip prices in two systems
+     *
+     * @param expected the cards of the system the other is checked against
+     * @param actual   the same cards in the other system, in the same order
+     * @return the number of cards which differ
+     */
+    static int compareCards(ArrayList<Card> expected, ArrayList<Card> actual) {
+        int mismatches = 0;
+        for (int i = 0; i < expected.size(); i++) {
+            Card reference = expected.get(i);
+            Card checked = actual.get(i);
+            boolean same = checked != null && reference.getBalanceCents() == checked.getBalanceCents()
+                    && reference.getTrips().size() == checked.getTrips().size();
+            for (int t = 0; same && t < reference.getTrips().size(); t++) {
+                Trip a = reference.getTrips().get(t);
+                Trip b = checked.getTrips().get(t);
+                same = a.getPriceCents() == b.getPriceCents() && a.getStartSecond() == b.getStartSecond();
+            }
+            if (!same) {
+                if (mismatches < 10) {
+                    System.out.println("card " + i + ": balance " + reference.getBalanceCents() + " / "
+                            + (checked == null ? "missing" : checked.getBalanceCents() + ", trips "
+                                    + reference.getTrips().size() + " / " + checked.getTrips().size()));
+                }
+                mismatches++;
+            }
+        }
+        return mismatches;
+    }
+
+    /**
+     * Counts the late riders' trips which were not joined by the tap out of the
+     * vehicle they boarded
+     *
+     * @param cards the cards of a system which handled every tap, in the order
+     *              they were issued
+     * @return the number of late riders' trips without both taps
+     */
+    int unjoinedLateRides(ArrayList<Card> cards) {
+        int unjoined = 0;
+        for (int i = numCards; i < cards.size(); i++) {
+            for (Trip trip : cards.get(i).getTrips()) {
+                if (trip.getNumEvents() != 2) {
+                    unjoined++;
+                }
+            }
+        }
+        return unjoined;
+    }
+}
@@ -0,0 +1,124 @@
+package main.java.system.gate;
+
+import main.java.entities.Card;
+import main.java.entities.Money;
+import main.java.entities.transit.BusStop;
+import main.java.entities.transit.SubwayStation;
+import main.java.system.Logger;
+import main.java.system.Parser;
+import main.java.system.TransitSystem;
+import main.java.system.event.Direction;
+import main.java.system.event.Event;
+import main.java.system.fare.FareTable;
+import main.java.system.ledger.CardLedger;
+import main.java.system.metrics.ObserverAdmin;
+import main.java.system.metrics.RollupObserver;
+import main.java.users.Rider;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * An allocation check for the tap hot path. Every round starts a trip on each
+ * of many cards, half on the subway and half on a bus, then measures the bytes
+ * the handling thread allocates while each card continues its trip: a subway
+ * exit or a second bus stop, charged and counted by the Admin's observers.
+ * Starting a trip allocates the trip itself, so only continuing taps are
+ * measured. The events are made before each round is measured, as a gate's
+ * decoder would reuse its own. After WARM_UP_ROUNDS, every measured round must
+ * allocate no more than TARGET_BYTES_PER_TAP, or the check exits with status 1.
+ */
+public class TapAllocationCheck {
+    /**
+     * The most bytes a continuing tap may allocate once the check has warmed up
+     */
+    public static final double TARGET_BYTES_PER_TAP = 0;
+
+    private static final int WARM_UP_ROUNDS = 10;
+    private static final int MEASURED_ROUNDS = 20;
+
+    /**
+     * Runs the check from the project's root directory
+     *
+     * @param args [cards [ledgerFile]], 20000 cards by default; with a ledger
+     *             file, the cards are kept in that ledger
+     * @throws IOException if the input files or the ledger cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        int numCards = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        Logger.setLevel(Logger.Level.OFF);
+
+        Parser parser = new Parser();
+        Rider[] riders = parser.riderParser();
+        TransitSystem system = new TransitSystem(riders, parser.networkParser());
+        system.setFares(FareTable.compile(parser.fareParser(), system.getNetwork()));
+        system.attach(new ObserverAdmin());
+        system.attach(new RollupObserver(system.getNetwork()));
+        Card[] cards = new Card[numCards];
+        for (int i = 0; i < numCards; i++) {
+            cards[i] = system.issueCardToRider(riders[i % riders.length]);
+        }
+        CardLedger ledger = null;
+        if (args.length > 1) {
+            ledger = new CardLedger(Paths.get(args[1]));
+            system.attachLedger(ledger, true);
+        }
+
+        SubwayStation[] stations = system.getSubwayLine().getStops();
+        BusStop[] busStops = system.getBusLines()[0].getStops();
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long second = LocalDateTime.of(2020, 11, 1, 6, 0).toEpochSecond(ZoneOffset.UTC);
+
+        double worst = 0;
+        Event[] starts = new Event[numCards];
+        Event[] continues = new Event[numCards];
+        for (int round = 0; round < WARM_UP_ROUNDS + MEASURED_ROUNDS; round++) {
+            for (int i = 0; i < numCards; i++) {
+                cards[i].setBalance(Money.ofDollars(50));
+                if (i % 2 == 0) {
+                    starts[i] = new Event(stations[0], second, cards[i], Direction.ENTER);
+                    continues[i] = new Event(stations[3], second + 600, cards[i], Direction.EXIT);
+                } else {
+                    starts[i] = new Event(busStops[0], second, cards[i]);
+                    continues[i] = new Event(busStops[2], second + 600, cards[i]);
+                }
+            }
+            for (Event start : starts) {
+                system.handleTapEvent(start);
+            }
+
+            long charged = 0;
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (Event tap : continues) {
+                charged += system.handleTapEvent(tap);
+            }
+            long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+            double perTap = allocated / (double) numCards;
+            if (round >= WARM_UP_ROUNDS) {
+                worst = Math.max(worst, perTap);
+            }
+            if (round % 5 == 4) {
+                System.out.println("round " + (round + 1) + ": " + perTap + " bytes/tap, charged "
+                        + Money.ofCents(charged));
+            }
+            // past every window, so each round starts new trips
+            second += 3 * 60 * 60;
+        }
+        if (ledger != null) {
+            ledger.close();
+        }
+
+        if (worst > TARGET_BYTES_PER_TAP) {
+            System.out.println("FAILED: " + worst + " bytes/tap after warm-up, above the target of "
+                    + TARGET_BYTES_PER_TAP);
+            System.exit(1);
+        }
+        System.out.println("OK: at most " + worst + " bytes/tap after warm-up");
+    }
+}
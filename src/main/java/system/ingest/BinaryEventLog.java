@@ -0,0 +1,66 @@
+package main.java.system.ingest;
+
+import main.java.system.event.Direction;
+
+/**
+ * Describes the binary tap-log format. A log starts with a header followed by
+ * fixed-width records, one per tap. All values are big-endian.
+ *
+ * <ul>
+ * <li>Header: the magic number, the format version (short), the number of
+ * lines (int) followed by each line's type (byte, BUS or SUBWAY) and name, then
+ * the number of stops (int) followed by each stop's line index (int) and name.
+ * Names are written as a short byte count followed by UTF-8 bytes. The position
+ * of a stop in this list is its ordinal.</li>
+ *
+ * <li>Record: the numeric card ID (unsigned int), the time of the tap in
+ * seconds since 1970-01-01T00:00:00 (unsigned int), and the stop ordinal
+ * shifted left by two bits combined with the action (int).</li>
+ * </ul>
+ */
+final class BinaryEventLog {
+    static final int MAGIC = 0x54415053; // "TAPS"
+    static final short VERSION = 1;
+    static final int RECORD_SIZE = 12;
+
+    static final byte BUS = 0;
+    static final byte SUBWAY = 1;
+
+    static final int TAP = 0;
+    static final int ENTER = 1;
+    static final int EXIT = 2;
+
+    static final long MAX_UNSIGNED_INT = 0xFFFFFFFFL;
+
+    private BinaryEventLog() {
+    }
+
+    /**
+     * Returns the action code for the given tap direction
+     *
+     * @param direction ENTER or EXIT for taps at a subway station, null for taps
+     *                  on a bus
+     * @return TAP, ENTER or EXIT
+     */
+    static int actionOf(Direction direction) {
+        if (direction == null) {
+            return TAP;
+        }
+        return direction == Direction.ENTER ? ENTER : EXIT;
+    }
+
+    /**
+     * Returns the tap direction for the given action code
+     *
+     * @param action TAP, ENTER or EXIT
+     * @return ENTER or EXIT, or null for a tap on a bus
+     */
+    static Direction directionOf(int action) {
+        if (action == ENTER) {
+            return Direction.ENTER;
+        } else if (action == EXIT) {
+            return Direction.EXIT;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,201 @@
+package main.java.system.ingest;
+
+import main.java.entities.Card;
+import main.java.entities.transit.BusLine;
+import main.java.entities.transit.TransitLine;
+import main.java.entities.transit.TransitStop;
+import main.java.system.Logger;
+import main.java.system.TransitSystem;
+import main.java.system.event.Direction;
+import main.java.system.event.Event;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a binary tap log, as described by BinaryEventLog, and processes each of
+ * its taps in a transit system. The lines and stops in the log's dictionary are
+ * matched by name to those in the system once, when the header is read, after
+ * which each record is resolved with array lookups.
+ */
+public class BinaryEventLogReader {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final TransitSystem system;
+    private final ByteBuffer buf;
+    private FileChannel channel;
+
+    /**
+     * Creates a new reader which feeds the taps it reads into the given system
+     *
+     * @param system the transit system whose network and cards the taps refer to
+     */
+    public BinaryEventLogReader(TransitSystem system) {
+        this.system = system;
+        this.buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    /**
+     * Processes every tap in the given log, in the order they were written. Taps
+     * made with unknown cards or at stops which are not in the system are reported
+     * and skipped.
+     *
+     * @param log the binary tap log
+     * @throws IOException when an exception occurs during file IO or the file is
+     *                     not a tap log
+     */
+    public void replay(File log) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(log, "r")) {
+            this.channel = file.getChannel();
+            buf.clear().flip();
+
+            TransitStop[] stops = readDictionary(log);
+            long recordNumber = 0;
+
+            while (fill(BinaryEventLog.RECORD_SIZE)) {
+                while (buf.remaining() >= BinaryEventLog.RECORD_SIZE) {
+                    long cardID = buf.getInt() & BinaryEventLog.MAX_UNSIGNED_INT;
+                    long seconds = buf.getInt() & BinaryEventLog.MAX_UNSIGNED_INT;
+                    int stopAndAction = buf.getInt();
+                    processRecord(stops, cardID, seconds, stopAndAction, recordNumber++);
+                }
+            }
+            if (buf.hasRemaining()) {
+                throw new EOFException(log + " ends partway through a tap record");
+            }
+        } finally {
+            this.channel = null;
+        }
+    }
+
+    /**
+     * Resolves a single record and hands it to the transit system
+     *
+     * @param stops         the stops of the log's dictionary, by ordinal
+     * @param cardID        the numeric ID of the card which was tapped
+     * @param seconds       the time of the tap as stored in the record
+     * @param stopAndAction the stop ordinal and action of the tap
+     * @param recordNumber  the position of the record in the log, used for errors
+     */
+    private void processRecord(TransitStop[] stops, long cardID, long seconds, int stopAndAction,
+            long recordNumber) {
+        int ordinal = stopAndAction >>> 2;
+        int action = stopAndAction & 3;
+        TransitStop stop = ordinal < stops.length ? stops[ordinal] : null;
+        Card card = system.findCardInSystem(cardID);
+
+        if (card == null || stop == null) {
+            Logger.error("Skipped tap record " + recordNumber + " because its card or stop is not in the system.",
+                    "Check that the log was written for this network.");
+            return;
+        }
+
+        Direction direction = BinaryEventLog.directionOf(action);
+        system.handleTapEvent(new Event(stop, seconds, card, direction));
+    }
+
+    /**
+     * Reads the header of the log and matches its dictionary to the network of
+     * the transit system
+     *
+     * @param log the file being read, used for errors
+     * @return the stops in the system for each stop ordinal in the log. Entries are
+     *         null for stops which are not in the system
+     * @throws IOException when the header cannot be read
+     */
+    private TransitStop[] readDictionary(File log) throws IOException {
+        require(6, log);
+        if (buf.getInt() != BinaryEventLog.MAGIC) {
+            throw new IOException(log + " is not a tap log");
+        }
+        short version = buf.getShort();
+        if (version != BinaryEventLog.VERSION) {
+            throw new IOException(log + " has unsupported tap log version " + version);
+        }
+
+        require(4, log);
+        TransitLine[] lines = new TransitLine[buf.getInt()];
+        for (int i = 0; i < lines.length; i++) {
+            require(1, log);
+            byte type = buf.get();
+            String name = readName(log);
+            if (type == BinaryEventLog.SUBWAY) {
+                TransitLine subway = system.getSubwayLine();
+                lines[i] = subway.getName().equals(name) ? subway : null;
+            } else {
+                for (BusLine line : system.getBusLines()) {
+                    if (line.getName().equals(name)) {
+                        lines[i] = line;
+                    }
+                }
+            }
+        }
+
+        require(4, log);
+        TransitStop[] stops = new TransitStop[buf.getInt()];
+        for (int i = 0; i < stops.length; i++) {
+            require(4, log);
+            int lineIndex = buf.getInt();
+            String name = readName(log);
+            TransitLine line = lineIndex < lines.length ? lines[lineIndex] : null;
+            stops[i] = line == null ? null : line.findStopOnLine(name);
+        }
+        return stops;
+    }
+
+    /**
+     * Reads a name written as a short byte count followed by UTF-8 bytes
+     *
+     * @param log the file being read, used for errors
+     * @return the name
+     * @throws IOException when the name cannot be read
+     */
+    private String readName(File log) throws IOException {
+        require(2, log);
+        byte[] bytes = new byte[buf.getShort() & 0xFFFF];
+        require(bytes.length, log);
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Makes sure the given number of bytes are available in the buffer, failing if
+     * the file ends first
+     *
+     * @param n   the number of bytes needed
+     * @param log the file being read, used for errors
+     * @throws IOException when the file ends before n bytes are available
+     */
+    private void require(int n, File log) throws IOException {
+        if (!fill(n)) {
+            throw new EOFException(log + " ends partway through its header");
+        }
+    }
+
+    /**
+     * Reads from the file until at least the given number of bytes are available
+     * in the buffer or the file ends
+     *
+     * @param n the number of bytes wanted
+     * @return true iff at least n bytes are available
+     * @throws IOException when an exception occurs during file IO
+     */
+    private boolean fill(int n) throws IOException {
+        if (buf.remaining() >= n) {
+            return true;
+        }
+        buf.compact();
+        while (buf.position() < n) {
+            if (channel.read(buf) < 0) {
+                break;
+            }
+        }
+        buf.flip();
+        return buf.remaining() >= n;
+    }
+}
@@ -0,0 +1,132 @@
+package main.java.system.ingest;
+
+import main.java.entities.transit.BusLine;
+import main.java.entities.transit.TransitLine;
+import main.java.entities.transit.TransitStop;
+import main.java.system.TransitSystem;
+import main.java.system.event.Direction;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Writes taps to a file in the binary tap-log format described by
+ * BinaryEventLog. The header holds the dictionary of every line and stop in the
+ * network of a transit system, so each tap is stored as a fixed-width record.
+ */
+public class BinaryEventLogWriter implements Closeable {
+    private final DataOutputStream out;
+    private final IdentityHashMap<TransitStop, Integer> ordinals;
+
+    /**
+     * Creates a new binary tap log at the given file and writes the dictionary of
+     * the given system's network to its header
+     *
+     * @param network the transit system whose lines and stops taps refer to
+     * @param log     the file to write the log to
+     * @throws IOException when an exception occurs during file IO
+     */
+    public BinaryEventLogWriter(TransitSystem network, File log) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(log), 1 << 16));
+        this.ordinals = new IdentityHashMap<>();
+
+        ArrayList<TransitLine> lines = new ArrayList<>();
+        lines.add(network.getSubwayLine());
+        for (BusLine line : network.getBusLines()) {
+            lines.add(line);
+        }
+
+        out.writeInt(BinaryEventLog.MAGIC);
+        out.writeShort(BinaryEventLog.VERSION);
+        out.writeInt(lines.size());
+        for (TransitLine line : lines) {
+            out.writeByte(line == network.getSubwayLine() ? BinaryEventLog.SUBWAY : BinaryEventLog.BUS);
+            writeName(line.getName());
+        }
+
+        int numStops = 0;
+        for (TransitLine line : lines) {
+            numStops += line.getStops().length;
+        }
+        out.writeInt(numStops);
+        for (int i = 0; i < lines.size(); i++) {
+            for (TransitStop stop : lines.get(i).getStops()) {
+                ordinals.put(stop, ordinals.size());
+                out.writeInt(i);
+                writeName(stop.getName());
+            }
+        }
+    }
+
+    /**
+     * Converts a file of text tap events, in the format read by
+     * Parser.eventParser, to a binary tap log. Malformed taps are reported and
+     * left out of the log.
+     *
+     * @param network the transit system whose lines and stops the taps refer to
+     * @param events  the text file of tap events
+     * @param log     the file to write the binary log to
+     * @throws IOException when an exception occurs during file IO
+     */
+    public static void convert(TransitSystem network, File events, File log) throws IOException {
+        try (BinaryEventLogWriter writer = new BinaryEventLogWriter(network, log)) {
+            new MappedEventReader(network, writer::write).replay(events);
+        }
+    }
+
+    /**
+     * Appends a tap to this log
+     *
+     * @param cardID    the numeric ID of the card which was tapped
+     * @param stop      the stop at which the tap occurred, which must be in the
+     *                  network this log was created for
+     * @param direction ENTER or EXIT for taps at a subway station, null for taps
+     *                  on a bus
+     * @param seconds   the time of the tap in seconds since 1970-01-01T00:00:00
+     * @return true, every tap can be written
+     * @throws IOException when an exception occurs during file IO
+     */
+    public boolean write(long cardID, TransitStop stop, Direction direction, long seconds) throws IOException {
+        Integer ordinal = ordinals.get(stop);
+        if (ordinal == null) {
+            throw new IllegalArgumentException(stop.getName() + " is not in the network of this log");
+        }
+        if (cardID < 0 || cardID > BinaryEventLog.MAX_UNSIGNED_INT || seconds < 0
+                || seconds > BinaryEventLog.MAX_UNSIGNED_INT) {
+            throw new IllegalArgumentException("Card " + cardID + " at " + seconds + "s cannot be stored in a tap log");
+        }
+        out.writeInt((int) cardID);
+        out.writeInt((int) seconds);
+        out.writeInt(ordinal << 2 | BinaryEventLog.actionOf(direction));
+        return true;
+    }
+
+    /**
+     * Writes a name as a short byte count followed by its UTF-8 bytes
+     *
+     * @param name the name to write
+     * @throws IOException when an exception occurs during file IO
+     */
+    private void writeName(String name) throws IOException {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Flushes and closes the log
+     *
+     * @throws IOException when an exception occurs during file IO
+     */
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,142 @@
+package main.java.system.ingest;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A lookup table from names to objects which can be queried directly with the
+ * bytes of a name as they sit in a buffer. This allows names read from a file
+ * to be resolved to the entities they refer to without ever building a String.
+ *
+ * @param <T> the type of object each name refers to
+ */
+class ByteNameIndex<T> {
+    private byte[][] names;
+    private Object[] values;
+    private int size;
+
+    /**
+     * Create a new, empty index
+     */
+    ByteNameIndex() {
+        this.names = new byte[16][];
+        this.values = new Object[16];
+    }
+
+    /**
+     * Associates the given name with the given value, replacing any previous value
+     * for that name
+     *
+     * @param name  the name to index
+     * @param value the object the name refers to
+     */
+    void put(String name, T value) {
+        if ((size + 1) * 2 > names.length) {
+            grow();
+        }
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int idx = slot(names, bytes);
+        if (names[idx] == null) {
+            names[idx] = bytes;
+            size++;
+        }
+        values[idx] = value;
+    }
+
+    /**
+     * Returns the object associated with the name stored in the given range of the
+     * buffer. Does not allocate.
+     *
+     * @param buf   the buffer containing the name
+     * @param start the index of the first byte of the name
+     * @param end   the index after the last byte of the name
+     * @return the object the name refers to, null if the name is not indexed
+     */
+    @SuppressWarnings("unchecked")
+    T get(ByteBuffer buf, int start, int end) {
+        int mask = names.length - 1;
+        int idx = hash(buf, start, end) & mask;
+        byte[] candidate;
+        while ((candidate = names[idx]) != null) {
+            if (matches(candidate, buf, start, end)) {
+                return (T) values[idx];
+            }
+            idx = (idx + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the index in the given table at which the given name is stored, or
+     * the free index at which it would be inserted
+     *
+     * @param table the table to search
+     * @param name  the bytes of the name
+     * @return the index of the name or of the first free slot in its probe
+     *         sequence
+     */
+    private static int slot(byte[][] table, byte[] name) {
+        int mask = table.length - 1;
+        int idx = hash(ByteBuffer.wrap(name), 0, name.length) & mask;
+        while (table[idx] != null && !Arrays.equals(table[idx], name)) {
+            idx = (idx + 1) & mask;
+        }
+        return idx;
+    }
+
+    /**
+     * Doubles the capacity of this index
+     */
+    private void grow() {
+        byte[][] newNames = new byte[names.length * 2][];
+        Object[] newValues = new Object[values.length * 2];
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] != null) {
+                int idx = slot(newNames, names[i]);
+                newNames[idx] = names[i];
+                newValues[idx] = values[i];
+            }
+        }
+        this.names = newNames;
+        this.values = newValues;
+    }
+
+    /**
+     * Returns whether the given name is equal to the bytes in the given range of
+     * the buffer
+     *
+     * @param name  the bytes of an indexed name
+     * @param buf   the buffer to compare against
+     * @param start the index of the first byte to compare
+     * @param end   the index after the last byte to compare
+     * @return true iff the range holds exactly the given name
+     */
+    private static boolean matches(byte[] name, ByteBuffer buf, int start, int end) {
+        if (name.length != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (name[i] != buf.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * FNV-1a hash of the bytes in the given range of the buffer
+     *
+     * @param buf   the buffer containing the bytes
+     * @param start the index of the first byte
+     * @param end   the index after the last byte
+     * @return the hash of the bytes
+     */
+    private static int hash(ByteBuffer buf, int start, int end) {
+        int h = 0x811c9dc5;
+        for (int i = start; i < end; i++) {
+            h = (h ^ buf.get(i)) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,327 @@
+package main.java.system.ingest;
+
+import main.java.entities.Card;
+import main.java.entities.transit.BusLine;
+import main.java.entities.transit.TransitLine;
+import main.java.entities.transit.TransitStop;
+import main.java.system.Logger;
+import main.java.system.TransitSystem;
+import main.java.system.event.Direction;
+import main.java.system.event.Event;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.Month;
+import java.time.Year;
+
+/**
+ * Reads a file of text tap events by memory-mapping it and tokenizing each line
+ * in place. Card IDs, stop names and line names are resolved straight from the
+ * mapped bytes to the entities in the transit system, and timestamps are
+ * decoded digit by digit, so no intermediate Strings are created for a tap.
+ * Each line has the same format as the lines read by Parser.eventParser:
+ * "[card id], [action], [stop], [line], [yyyy-MM-dd-HH:mm:ss]"
+ */
+public class MappedEventReader {
+    /**
+     * Receives each tap read from the file once its fields have been resolved
+     */
+    interface TapSink {
+        /**
+         * Handles one tap read from the file
+         *
+         * @param cardID    the numeric ID of the card which was tapped
+         * @param stop      the stop at which the tap occurred
+         * @param direction ENTER or EXIT for taps at a subway station, null for
+         *                  taps on a bus
+         * @param time      the time of the tap in seconds since
+         *                  1970-01-01T00:00:00
+         * @return false if the card is unknown and the tap was not handled
+         * @throws IOException if the tap could not be handled
+         */
+        boolean accept(long cardID, TransitStop stop, Direction direction, long time) throws IOException;
+    }
+
+    private static final int WINDOW_SIZE = 1 << 28;
+    private static final int TIMESTAMP_LENGTH = 19;
+    private static final long NO_TIME = Long.MIN_VALUE;
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+    private static final byte[] TAP = { 't', 'a', 'p' };
+    private static final byte[] ENTER = { 'e', 'n', 't', 'e', 'r' };
+    private static final byte[] EXIT = { 'e', 'x', 'i', 't' };
+
+    private final TapSink sink;
+    private final ByteNameIndex<ByteNameIndex<TransitStop>> lines;
+    private final ByteNameIndex<TransitStop> stations;
+
+    /**
+     * Creates a new reader which feeds the taps it reads into the given system
+     *
+     * @param system the transit system whose network and cards the taps refer to
+     */
+    public MappedEventReader(TransitSystem system) {
+        this(system, (cardID, stop, direction, time) -> {
+            Card card = system.findCardInSystem(cardID);
+            if (card == null) {
+                return false;
+            }
+            system.handleTapEvent(new Event(stop, time, card, direction));
+            return true;
+        });
+    }
+
+    /**
+     * Creates a new reader which resolves taps against the network of the given
+     * system and hands them to the given sink
+     *
+     * @param system the transit system whose network the taps refer to
+     * @param sink   where each tap that is read is sent
+     */
+    MappedEventReader(TransitSystem system, TapSink sink) {
+        this.sink = sink;
+        this.lines = new ByteNameIndex<>();
+
+        for (BusLine line : system.getBusLines()) {
+            lines.put(line.getName(), indexStops(line));
+        }
+        this.stations = indexStops(system.getSubwayLine());
+    }
+
+    /**
+     * Reads every tap in the given file and processes it in this reader's transit
+     * system, in the order they appear in the file
+     *
+     * @param events the file of tap events
+     * @throws IOException when an exception occurs during file IO
+     */
+    public void replay(File events) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(events, "r"); FileChannel channel = file.getChannel()) {
+            long size = channel.size();
+            long position = 0;
+            int lineNumber = 1;
+
+            while (position < size) {
+                int length = (int) Math.min(WINDOW_SIZE, size - position);
+                boolean last = position + length == size;
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+                int start = 0;
+                for (int i = 0; i < length; i++) {
+                    if (window.get(i) == '\n') {
+                        processLine(window, start, i, lineNumber++);
+                        start = i + 1;
+                    }
+                }
+                if (last && start < length) {
+                    processLine(window, start, length, lineNumber++);
+                    start = length;
+                } else if (start == 0 && !last) {
+                    throw new IOException("Line " + lineNumber + " of " + events + " is too long to be a tap event");
+                }
+                position += start;
+            }
+        }
+    }
+
+    /**
+     * Tokenizes a single tap event in the given range of the buffer and hands it to
+     * the transit system. Malformed taps are reported and skipped.
+     *
+     * @param buf        the buffer containing the tap
+     * @param start      the index of the first byte of the line
+     * @param end        the index of the line terminator
+     * @param lineNumber the number of the line in the file, used for errors
+     * @throws IOException if the sink cannot accept the tap
+     */
+    private void processLine(MappedByteBuffer buf, int start, int end, int lineNumber) throws IOException {
+        if (end > start && buf.get(end - 1) == '\r') {
+            end--;
+        }
+        if (start == end) {
+            return;
+        }
+
+        int cardEnd = nextSeparator(buf, start, end);
+        int actionEnd = nextSeparator(buf, cardEnd + 2, end);
+        int stopEnd = nextSeparator(buf, actionEnd + 2, end);
+        int lineEnd = nextSeparator(buf, stopEnd + 2, end);
+        if (lineEnd == end || end - (lineEnd + 2) != TIMESTAMP_LENGTH) {
+            reject(lineNumber, "it does not have five fields");
+            return;
+        }
+
+        long cardID = parseNumber(buf, start, cardEnd);
+        if (cardID < 0) {
+            reject(lineNumber, "the card ID is not a number");
+            return;
+        }
+
+        ByteNameIndex<TransitStop> stops;
+        Direction direction;
+        if (equalsToken(buf, cardEnd + 2, actionEnd, TAP)) {
+            stops = lines.get(buf, stopEnd + 2, lineEnd);
+            direction = null;
+        } else if (equalsToken(buf, cardEnd + 2, actionEnd, ENTER)) {
+            stops = stations;
+            direction = Direction.ENTER;
+        } else if (equalsToken(buf, cardEnd + 2, actionEnd, EXIT)) {
+            stops = stations;
+            direction = Direction.EXIT;
+        } else {
+            reject(lineNumber, "the action is not one of tap, enter or exit");
+            return;
+        }
+
+        TransitStop stop = stops == null ? null : stops.get(buf, actionEnd + 2, stopEnd);
+        if (stop == null) {
+            reject(lineNumber, "the stop is not on that line");
+            return;
+        }
+
+        long time = parseTimestamp(buf, lineEnd + 2);
+        if (time == NO_TIME) {
+            reject(lineNumber, "the time is not of the format yyyy-mm-dd-hh:mm:ss");
+            return;
+        }
+
+        if (!sink.accept(cardID, stop, direction, time)) {
+            reject(lineNumber, "the card is not in the system");
+        }
+    }
+
+    /**
+     * Builds an index from the names of the stops on the given line to the stops
+     *
+     * @param line the line whose stops will be indexed
+     * @return the index of the line's stops
+     */
+    private static ByteNameIndex<TransitStop> indexStops(TransitLine line) {
+        ByteNameIndex<TransitStop> stops = new ByteNameIndex<>();
+        for (TransitStop stop : line.getStops()) {
+            stops.put(stop.getName(), stop);
+        }
+        return stops;
+    }
+
+    /**
+     * Returns the index of the next ", " separator in the given range of the buffer
+     *
+     * @param buf   the buffer to search
+     * @param start the index to start searching from
+     * @param end   the index to stop searching at
+     * @return the index of the comma of the next separator, end if there is none
+     */
+    private static int nextSeparator(MappedByteBuffer buf, int start, int end) {
+        for (int i = start; i < end - 1; i++) {
+            if (buf.get(i) == ',' && buf.get(i + 1) == ' ') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Returns whether the given range of the buffer holds exactly the given token
+     *
+     * @param buf   the buffer to compare
+     * @param start the index of the first byte of the range
+     * @param end   the index after the last byte of the range
+     * @param token the expected bytes
+     * @return true iff the range matches the token
+     */
+    private static boolean equalsToken(MappedByteBuffer buf, int start, int end, byte[] token) {
+        if (end - start != token.length) {
+            return false;
+        }
+        for (int i = 0; i < token.length; i++) {
+            if (buf.get(start + i) != token[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the decimal digits in the given range of the buffer
+     *
+     * @param buf   the buffer containing the digits
+     * @param start the index of the first digit
+     * @param end   the index after the last digit
+     * @return the value of the digits, -1 if the range is empty or not all digits
+     */
+    private static long parseNumber(MappedByteBuffer buf, int start, int end) {
+        if (start == end || end - start > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buf.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Decodes a timestamp of the format yyyy-MM-dd-HH:mm:ss starting at the given
+     * index of the buffer
+     *
+     * @param buf   the buffer containing the timestamp
+     * @param start the index of the first digit of the year
+     * @return the decoded time in seconds since 1970-01-01T00:00:00, NO_TIME if
+     *         the timestamp is malformed
+     */
+    private static long parseTimestamp(MappedByteBuffer buf, int start) {
+        if (buf.get(start + 4) != '-' || buf.get(start + 7) != '-' || buf.get(start + 10) != '-'
+                || buf.get(start + 13) != ':' || buf.get(start + 16) != ':') {
+            return NO_TIME;
+        }
+        long year = parseNumber(buf, start, start + 4);
+        long month = parseNumber(buf, start + 5, start + 7);
+        long day = parseNumber(buf, start + 8, start + 10);
+        long hour = parseNumber(buf, start + 11, start + 13);
+        long minute = parseNumber(buf, start + 14, start + 16);
+        long second = parseNumber(buf, start + 17, start + 19);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23 || minute < 0
+                || minute > 59 || second < 0 || second > 59
+                || day > Month.of((int) month).length(Year.isLeap(year))) {
+            return NO_TIME;
+        }
+        return epochDay(year, month, day) * SECONDS_PER_DAY + hour * 3600 + minute * 60 + second;
+    }
+
+    /**
+     * Returns the number of days between 1970-01-01 and the given date in the
+     * proleptic Gregorian calendar, computed by counting from a year starting in
+     * March so that leap days fall at the end of the year
+     *
+     * @param year  the year
+     * @param month the month of the year (1-12)
+     * @param day   the day of the month (1-31)
+     * @return the day counted from 1970-01-01
+     */
+    private static long epochDay(long year, long month, long day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Reports a tap which could not be processed
+     *
+     * @param lineNumber the line of the file the tap is on
+     * @param reason     why the tap could not be processed
+     */
+    private static void reject(int lineNumber, String reason) {
+        Logger.error("Skipped the tap on line " + lineNumber + " because " + reason + ".",
+                "Check the format of the events file.");
+    }
+}
@@ -0,0 +1,277 @@
+package main.java.system.ingest;
+
+import main.java.system.TransitSystem;
+import main.java.system.Trip;
+import main.java.system.UID.ID;
+import main.java.system.event.Event;
+import main.java.system.metrics.Observable;
+import main.java.system.metrics.Observer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Replays a file of text tap events on several threads at once. Trips, balances
+ * and transfers only depend on the order of the taps made with the same card,
+ * so events are partitioned by card ID and every card is always handled by the
+ * same worker, in file order. Each worker passes its metrics on to the
+ * observers of the transit system as it goes and expires its own open trips,
+ * and the trips still open are handed back to the transit system once every
+ * worker has finished, so the end state matches that of a serial replay.
+ */
+public class PartitionedEventReplayer {
+    private static final int BATCH_SIZE = 512;
+    private static final int QUEUE_CAPACITY = 64;
+    private static final String[] END_OF_EVENTS = new String[0];
+
+    private final TransitSystem system;
+    private final int numWorkers;
+
+    /**
+     * Creates a new replayer which processes taps in the given system using the
+     * given number of worker threads
+     *
+     * @param system     the transit system in which the taps will be processed
+     * @param numWorkers the number of threads to process taps on
+     */
+    public PartitionedEventReplayer(TransitSystem system, int numWorkers) {
+        if (numWorkers < 1) {
+            throw new IllegalArgumentException("At least one worker is needed to replay events");
+        }
+        this.system = system;
+        this.numWorkers = numWorkers;
+    }
+
+    /**
+     * Processes every tap in the given file. Taps made with the same card are
+     * processed in the order they appear in the file. Returns once every tap has
+     * been processed and the open trips have been handed back to the transit
+     * system.
+     *
+     * @param events the file of tap events
+     * @throws IOException when an exception occurs during file IO
+     */
+    public void replay(File events) throws IOException {
+        Worker[] workers = new Worker[numWorkers];
+        for (int i = 0; i < numWorkers; i++) {
+            workers[i] = new Worker(new TransitSystem(system), system);
+            workers[i].start();
+        }
+
+        try {
+            dispatch(events, workers);
+        } finally {
+            for (Worker worker : workers) {
+                worker.finish();
+            }
+        }
+
+        for (Worker worker : workers) {
+            if (worker.failure != null) {
+                throw new IllegalStateException("Could not replay tap events", worker.failure);
+            }
+        }
+        // bring every view up to the time of the latest tap so the same trips have
+        // expired as in a serial replay, then hand the rest back to the system
+        long clock = system.getClock();
+        for (Worker worker : workers) {
+            clock = Math.max(clock, worker.view.getClock());
+        }
+        system.advanceClock(clock);
+        for (Worker worker : workers) {
+            worker.view.advanceClock(clock);
+            worker.view.transferOpenTripsTo(system);
+        }
+    }
+
+    /**
+     * Reads the given file and sends each line, in batches, to the worker which
+     * owns the card the line is for
+     *
+     * @param events  the file of tap events
+     * @param workers the workers to distribute events between
+     * @throws IOException when an exception occurs during file IO
+     */
+    private void dispatch(File events, Worker[] workers) throws IOException {
+        String[][] batches = new String[numWorkers][BATCH_SIZE];
+        int[] sizes = new int[numWorkers];
+
+        try (BufferedReader br = new BufferedReader(new FileReader(events))) {
+            String st;
+            while ((st = br.readLine()) != null) {
+                int owner = partitionOf(st);
+                batches[owner][sizes[owner]++] = st;
+                if (sizes[owner] == BATCH_SIZE) {
+                    workers[owner].submit(batches[owner]);
+                    batches[owner] = new String[BATCH_SIZE];
+                    sizes[owner] = 0;
+                }
+            }
+        }
+
+        for (int i = 0; i < numWorkers; i++) {
+            if (sizes[i] > 0) {
+                String[] rest = new String[sizes[i]];
+                System.arraycopy(batches[i], 0, rest, 0, sizes[i]);
+                workers[i].submit(rest);
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the worker responsible for the card which made the tap
+     * on the given line
+     *
+     * @param line a tap event, starting with the ID of the card
+     * @return the index of the worker which owns the card
+     */
+    private int partitionOf(String line) {
+        long cardID = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            cardID = cardID * 10 + (c - '0');
+        }
+        return (int) ((ID.mix(cardID) & Long.MAX_VALUE) % numWorkers);
+    }
+
+    /**
+     * A thread which processes the taps for one partition of the cards in its own
+     * view of the transit system
+     */
+    private static class Worker extends Thread {
+        private final TransitSystem view;
+        private final BlockingQueue<String[]> queue;
+        private volatile Throwable failure;
+
+        /**
+         * Creates a new worker which processes taps in the given view of the system
+         *
+         * @param view   a transit system sharing its cards with the system being
+         *               replayed into
+         * @param system the system being replayed into, whose observers receive
+         *               the view's metrics
+         */
+        Worker(TransitSystem view, TransitSystem system) {
+            this.view = view;
+            this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+            view.attach(new Relay(system));
+            setDaemon(true);
+        }
+
+        /**
+         * Hands a batch of taps to this worker, waiting for room in its queue
+         *
+         * @param batch the taps to process, in order
+         * @throws IOException if interrupted while waiting
+         */
+        void submit(String[] batch) throws IOException {
+            try {
+                queue.put(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while replaying tap events", e);
+            }
+        }
+
+        /**
+         * Tells this worker there are no more taps and waits for it to process the
+         * ones it has been given
+         */
+        void finish() {
+            boolean interrupted = false;
+            boolean ended = false;
+            while (!ended) {
+                try {
+                    queue.put(END_OF_EVENTS);
+                    ended = true;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            while (isAlive()) {
+                try {
+                    join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Processes batches of taps until told there are no more. After a failure
+         * the remaining taps are drained without being processed.
+         */
+        @Override
+        public void run() {
+            try {
+                String[] batch;
+                while ((batch = queue.take()) != END_OF_EVENTS) {
+                    if (failure != null) {
+                        continue;
+                    }
+                    try {
+                        for (String tap : batch) {
+                            view.handleTapEvent(tap);
+                        }
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                }
+            } catch (InterruptedException e) {
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * Passes every notification from a view on to the observers of the system
+     * being replayed into. Observers may be notified from several threads at
+     * once, so the workers share them directly.
+     */
+    private static class Relay implements Observer {
+        private final Observable target;
+
+        /**
+         * Creates a relay to the observers of the given Observable
+         *
+         * @param target the Observable whose observers receive the notifications
+         */
+        Relay(Observable target) {
+            this.target = target;
+        }
+
+        /**
+         * Passes on the fare charged for a tap
+         */
+        @Override
+        public void update(Observable o, Event tap, long fareCharged) {
+            target.notifyObservers(tap, fareCharged);
+        }
+
+        /**
+         * Passes on the stops traveled to a tap
+         */
+        @Override
+        public void update(Observable o, Event tap, int n) {
+            target.notifyObservers(tap, n);
+        }
+
+        /**
+         * Passes on a completed trip
+         */
+        @Override
+        public void tripCompleted(Observable o, Trip trip) {
+            target.notifyTripCompleted(trip);
+        }
+    }
+}
@@ -0,0 +1,511 @@
+package main.java.system.journal;
+
+import main.java.entities.Card;
+import main.java.entities.transit.BusLine;
+import main.java.entities.transit.BusStop;
+import main.java.entities.transit.SubwayLine;
+import main.java.entities.transit.SubwayStation;
+import main.java.entities.transit.TransitLine;
+import main.java.entities.transit.TransitNetwork;
+import main.java.entities.transit.TransitStop;
+import main.java.system.Trip;
+import main.java.system.TransitSystem;
+import main.java.system.UID.IDGenerator;
+import main.java.system.event.Event;
+import main.java.system.metrics.ObserverAdmin;
+import main.java.users.Rider;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Reads and writes snapshots of the whole state of a transit system: its
+ * network, its riders, the balance, status and trips of every card, the trips
+ * in progress, the system's clock and the daily totals of an ObserverAdmin. A
+ * system is rebuilt from a snapshot alone, without the input files, by mapping
+ * the file and creating its entities in bulk. A snapshot records the sequence
+ * number of the last journaled tap it includes, so that recovery only replays
+ * the taps journaled after it. All values are big-endian, and names are written
+ * as their length in bytes (unsigned short) followed by their UTF-8 bytes.
+ *
+ * <ul>
+ * <li>Header: the magic number, the format version (short), the journal
+ * sequence number (long) and the system's clock (long).</li>
+ *
+ * <li>Network: the number of lines (int), then for each line in the order its
+ * stops are numbered its type (byte: BUS or SUBWAY), name, number of stops
+ * (int) and the name of each stop along the line.</li>
+ *
+ * <li>Riders: the number of riders (int), then for each rider in the order of
+ * the system's cardholders its packed ID (long), name, email and number of
+ * cards (int) followed by its cards.</li>
+ *
+ * <li>Card: the packed card ID (long), the balance in cents (long), whether
+ * the card is active (boolean), its spending word as kept by Card (long), the
+ * number of trips (int), the index of the trip in progress or -1 (int), then
+ * each trip's price in cents (long), whether it was completed (boolean), its
+ * number of taps (int) and each tap's stop ordinal (int), time in seconds since
+ * 1970-01-01T00:00:00 (long) and action (byte, as in TapJournal).</li>
+ *
+ * <li>Metrics: the number of bytes of daily totals which follow (int, 0 if
+ * there are none), then the totals as written by ObserverAdmin.writeTo.</li>
+ * </ul>
+ */
+final class Snapshot {
+    static final int MAGIC = 0x534E4150; // "SNAP"
+    static final short VERSION = 3;
+
+    private static final byte BUS = 0;
+    private static final byte SUBWAY = 1;
+    private static final int WINDOW_SIZE = 1 << 28;
+
+    /**
+     * A transit system rebuilt from a snapshot, with what is needed to finish
+     * recovering it
+     */
+    static final class Contents {
+        final TransitSystem system;
+        final long sequence;
+        private final byte[] metrics;
+
+        /**
+         * Creates the contents of a snapshot
+         *
+         * @param system   the rebuilt transit system
+         * @param sequence the sequence number of the last journaled tap it includes
+         * @param metrics  the encoded daily totals, empty if there are none
+         */
+        private Contents(TransitSystem system, long sequence, byte[] metrics) {
+            this.system = system;
+            this.sequence = sequence;
+            this.metrics = metrics;
+        }
+
+        /**
+         * Adds the daily totals in the snapshot to the given observer
+         *
+         * @param admin the observer to restore
+         * @throws IOException if the totals are malformed
+         */
+        void restoreMetrics(ObserverAdmin admin) throws IOException {
+            if (metrics.length > 0) {
+                admin.readFrom(new DataInputStream(new ByteArrayInputStream(metrics)));
+            }
+        }
+    }
+
+    private Snapshot() {
+    }
+
+    /**
+     * Writes a snapshot of the given system to the given file and forces it to
+     * disk. No taps may be processed while it is written; see
+     * TransitSystem.runExclusively.
+     *
+     * @param file     the file to write
+     * @param system   the transit system to capture
+     * @param metrics  the daily totals to capture, null if there are none
+     * @param sequence the sequence number of the last journaled tap
+     * @throws IOException if the file cannot be written
+     */
+    static void write(Path file, TransitSystem system, ObserverAdmin metrics, long sequence) throws IOException {
+        FileOutputStream stream = new FileOutputStream(file.toFile());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(sequence);
+            out.writeLong(system.getClock());
+
+            writeNetwork(out, system.getNetwork());
+
+            Rider[] riders = system.getCardholders();
+            out.writeInt(riders.length);
+            for (Rider rider : riders) {
+                out.writeLong(rider.getId().getPacked());
+                writeName(out, rider.getName());
+                writeName(out, rider.getEmail());
+                out.writeInt(rider.getCards().size());
+                for (Card card : rider.getCards()) {
+                    writeCard(out, card, system.findOpenTrip(card));
+                }
+            }
+
+            if (metrics == null) {
+                out.writeInt(0);
+            } else {
+                ByteArrayOutputStream totals = new ByteArrayOutputStream();
+                metrics.writeTo(new DataOutputStream(totals));
+                out.writeInt(totals.size());
+                totals.writeTo(out);
+            }
+            out.flush();
+            stream.getChannel().force(true);
+        }
+    }
+
+    /**
+     * Writes the lines of the given network in the order their stops are
+     * numbered, so that reading them back numbers every stop the same way
+     *
+     * @param out     the output to write to
+     * @param network the network
+     * @throws IOException if the output cannot be written
+     */
+    private static void writeNetwork(DataOutputStream out, TransitNetwork network) throws IOException {
+        ArrayList<TransitLine> lines = new ArrayList<>();
+        if (network.getSubwayLine() != null) {
+            lines.add(network.getSubwayLine());
+        }
+        lines.addAll(Arrays.asList(network.getBusLines()));
+        lines.sort((a, b) -> Integer.compare(firstOrdinal(a), firstOrdinal(b)));
+
+        out.writeInt(lines.size());
+        for (TransitLine line : lines) {
+            out.writeByte(line instanceof SubwayLine ? SUBWAY : BUS);
+            writeName(out, line.getName());
+            TransitStop[] stops = line.getStops();
+            out.writeInt(stops.length);
+            for (TransitStop stop : stops) {
+                writeName(out, stop.getName());
+            }
+        }
+    }
+
+    /**
+     * Returns the ordinal of the first stop on the given line
+     *
+     * @param line the line
+     * @return the ordinal of its first stop, or the largest int if it has none
+     */
+    private static int firstOrdinal(TransitLine line) {
+        return line.getStops().length == 0 ? Integer.MAX_VALUE : line.getStops()[0].getOrdinal();
+    }
+
+    /**
+     * Writes one card and its trips
+     *
+     * @param out      the output to write to
+     * @param card     the card
+     * @param openTrip the card's trip in progress, null if it has none
+     * @throws IOException if the output cannot be written
+     */
+    private static void writeCard(DataOutputStream out, Card card, Trip openTrip) throws IOException {
+        ArrayList<Trip> trips = card.getTrips();
+        out.writeLong(card.getId().getPacked());
+        out.writeLong(card.getBalanceCents());
+        out.writeBoolean(card.isActive());
+        out.writeLong(card.getSpending());
+        out.writeInt(trips.size());
+        out.writeInt(openTrip == null ? -1 : trips.lastIndexOf(openTrip));
+        for (Trip trip : trips) {
+            out.writeLong(trip.getPriceCents());
+            out.writeBoolean(trip.isComplete());
+            out.writeInt(trip.getNumEvents());
+            for (int i = 0; i < trip.getNumEvents(); i++) {
+                Event tap = trip.getEvent(i);
+                out.writeInt(tap.getLocation().getOrdinal());
+                out.writeLong(tap.getEpochSecond());
+                out.writeByte(TapJournal.actionOf(tap.getDirection()));
+            }
+        }
+    }
+
+    /**
+     * Writes a name as its length and UTF-8 bytes
+     *
+     * @param out  the output to write to
+     * @param name the name
+     * @throws IOException if the output cannot be written or the name is too long
+     */
+    private static void writeName(DataOutputStream out, String name) throws IOException {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("The name " + name.substring(0, 20) + "... is too long for a snapshot");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Rebuilds the transit system captured in the given snapshot. The file is
+     * mapped and read in one pass, and every rider's cards are created before the
+     * system, which then registers them all at once.
+     *
+     * @param file the snapshot file
+     * @return the rebuilt system, the sequence number of the last journaled tap it
+     *         includes, and its daily totals
+     * @throws IOException if the file cannot be read or is not a snapshot of this
+     *                     version
+     */
+    static Contents read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedInput in = new MappedInput(channel);
+            if (in.getInt() != MAGIC) {
+                throw new IOException(file + " is not a snapshot");
+            }
+            short version = in.getShort();
+            if (version != VERSION) {
+                throw new IOException(file + " is a version " + version + " snapshot, expected version " + VERSION);
+            }
+            long sequence = in.getLong();
+            long clock = in.getLong();
+
+            TransitNetwork network = readNetwork(in);
+
+            Rider[] riders = new Rider[in.getInt()];
+            ArrayList<Card> openCards = new ArrayList<>();
+            ArrayList<Trip> openTrips = new ArrayList<>();
+            for (int r = 0; r < riders.length; r++) {
+                long id = in.getLong();
+                String name = in.getName();
+                Rider rider = new Rider(name, in.getName(), IDGenerator.fromPacked(id));
+                int numCards = in.getInt();
+                rider.getCards().ensureCapacity(numCards);
+                for (int c = 0; c < numCards; c++) {
+                    rider.issueCard(readCard(in, network, rider, openCards, openTrips));
+                }
+                riders[r] = rider;
+            }
+
+            byte[] metrics = new byte[in.getInt()];
+            in.get(metrics);
+
+            TransitSystem system = new TransitSystem(riders, network);
+            if (clock != Long.MIN_VALUE) {
+                system.advanceClock(clock);
+            }
+            // the windows of the open trips start once the clock is back where it was
+            for (int i = 0; i < openCards.size(); i++) {
+                system.reopenTrip(openCards.get(i), openTrips.get(i));
+            }
+            return new Contents(system, sequence, metrics);
+        }
+    }
+
+    /**
+     * Reads the lines of a network and adds them in order, numbering their stops
+     * as they were numbered when the snapshot was written
+     *
+     * @param in the input to read from
+     * @return the network
+     * @throws IOException if the input cannot be read or has an unknown line type
+     */
+    private static TransitNetwork readNetwork(MappedInput in) throws IOException {
+        TransitNetwork network = new TransitNetwork();
+        int numLines = in.getInt();
+        for (int l = 0; l < numLines; l++) {
+            byte type = in.get();
+            String name = in.getName();
+            int numStops = in.getInt();
+            if (type == SUBWAY) {
+                SubwayLine line = new SubwayLine(name);
+                SubwayStation[] stations = new SubwayStation[numStops];
+                for (int i = 0; i < numStops; i++) {
+                    stations[i] = new SubwayStation(in.getName(), line);
+                }
+                line.setRoute(stations);
+                network.addLine(line);
+            } else if (type == BUS) {
+                BusLine line = new BusLine(name);
+                BusStop[] stops = new BusStop[numStops];
+                for (int i = 0; i < numStops; i++) {
+                    stops[i] = new BusStop(in.getName(), line);
+                }
+                line.setRoute(stops);
+                network.addLine(line);
+            } else {
+                throw new IOException("The snapshot has a line of unknown type " + type);
+            }
+        }
+        return network;
+    }
+
+    /**
+     * Reads one card and its trips
+     *
+     * @param in        the input to read from
+     * @param network   the network the stop ordinals refer to
+     * @param rider     the rider the card belongs to
+     * @param openCards the cards with a trip in progress, added to
+     * @param openTrips the trips in progress of those cards, added to
+     * @return the card
+     * @throws IOException if the input cannot be read
+     */
+    private static Card readCard(MappedInput in, TransitNetwork network, Rider rider, ArrayList<Card> openCards,
+            ArrayList<Trip> openTrips) throws IOException {
+        Card card = new Card(rider, IDGenerator.fromPacked(in.getLong()), in.getLong(), in.get() != 0,
+                in.getLong());
+
+        int numTrips = in.getInt();
+        int open = in.getInt();
+        ArrayList<Trip> trips = card.getTrips();
+        trips.ensureCapacity(numTrips);
+        for (int t = 0; t < numTrips; t++) {
+            long price = in.getLong();
+            boolean complete = in.get() != 0;
+            int numEvents = in.getInt();
+            Trip trip = null;
+            for (int e = 0; e < numEvents; e++) {
+                Event tap = new Event(network.getStop(in.getInt()), in.getLong(), card,
+                        TapJournal.directionOf(in.get()));
+                if (trip == null) {
+                    trip = new Trip(tap);
+                } else {
+                    trip.addEvent(tap);
+                }
+            }
+            trip.addCost(price, Long.MAX_VALUE);
+            if (complete) {
+                trip.complete();
+            }
+            trips.add(trip);
+            if (t == open) {
+                openCards.add(card);
+                openTrips.add(trip);
+            }
+        }
+        return card;
+    }
+
+    /**
+     * Reads a file sequentially through windows mapped one after another, so
+     * files larger than a single mapping can be read. A value is never split
+     * across windows: the next window starts at the first byte not yet read.
+     */
+    private static final class MappedInput {
+        private final FileChannel channel;
+        private final long size;
+        private long windowStart;
+        private MappedByteBuffer window;
+        private byte[] scratch;
+
+        /**
+         * Maps the first window of the given file
+         *
+         * @param channel the file to read
+         * @throws IOException if the file cannot be mapped
+         */
+        MappedInput(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            this.scratch = new byte[64];
+            map(0);
+        }
+
+        /**
+         * Maps the window starting at the given offset
+         *
+         * @param offset the offset in the file of the window's first byte
+         * @throws IOException if the file cannot be mapped
+         */
+        private void map(long offset) throws IOException {
+            this.windowStart = offset;
+            this.window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW_SIZE, size - offset));
+        }
+
+        /**
+         * Makes sure the given number of bytes can be read from the current window,
+         * mapping the next one if needed
+         *
+         * @param bytes the number of bytes about to be read
+         * @throws IOException if the file ends first or cannot be mapped
+         */
+        private void require(int bytes) throws IOException {
+            if (window.remaining() < bytes) {
+                long offset = windowStart + window.position();
+                if (size - offset < bytes) {
+                    throw new IOException("The snapshot ends part way through");
+                }
+                map(offset);
+            }
+        }
+
+        /**
+         * Reads the next byte
+         *
+         * @return the value read
+         * @throws IOException if the file ends first or cannot be mapped
+         */
+        byte get() throws IOException {
+            require(1);
+            return window.get();
+        }
+
+        /**
+         * Reads the next short
+         *
+         * @return the value read
+         * @throws IOException if the file ends first or cannot be mapped
+         */
+        short getShort() throws IOException {
+            require(2);
+            return window.getShort();
+        }
+
+        /**
+         * Reads the next int
+         *
+         * @return the value read
+         * @throws IOException if the file ends first or cannot be mapped
+         */
+        int getInt() throws IOException {
+            require(4);
+            return window.getInt();
+        }
+
+        /**
+         * Reads the next long
+         *
+         * @return the value read
+         * @throws IOException if the file ends first or cannot be mapped
+         */
+        long getLong() throws IOException {
+            require(8);
+            return window.getLong();
+        }
+
+        /**
+         * Reads bytes into the whole of the given array
+         *
+         * @param bytes the array to fill
+         * @throws IOException if the file ends first or cannot be mapped
+         */
+        void get(byte[] bytes) throws IOException {
+            int done = 0;
+            while (done < bytes.length) {
+                require(1);
+                int length = Math.min(bytes.length - done, window.remaining());
+                window.get(bytes, done, length);
+                done += length;
+            }
+        }
+
+        /**
+         * Reads a name written as its length and UTF-8 bytes
+         *
+         * @return the name
+         * @throws IOException if the file ends first or cannot be mapped
+         */
+        String getName() throws IOException {
+            int length = getShort() & 0xFFFF;
+            require(length);
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            window.get(scratch, 0, length);
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+}
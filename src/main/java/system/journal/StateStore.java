@@ -0,0 +1,298 @@
+package main.java.system.journal;
+
+import main.java.entities.Card;
+import main.java.entities.transit.TransitNetwork;
+import main.java.entities.transit.TransitStop;
+import main.java.system.Logger;
+import main.java.system.TransitSystem;
+import main.java.system.event.Direction;
+import main.java.system.event.Event;
+import main.java.system.metrics.MetricsBus;
+import main.java.system.metrics.ObserverAdmin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the state of a transit system durable in a directory holding its
+ * latest snapshot and the journal of the taps accepted since. A snapshot holds
+ * the whole system, so a restart loads it instead of parsing the input files
+ * and replays only the journal after it, costing the taps since the last
+ * checkpoint rather than the whole history. Checkpoints may be taken on demand
+ * or periodically; taps wait while one is captured.
+ *
+ * <p>
+ * The journal is split into segments, each named after the sequence number it
+ * continues from. A checkpoint starts a new segment for the taps after its
+ * snapshot and deletes the older ones, so the directory stays about the size of
+ * one snapshot and the taps of one checkpoint period.
+ */
+public class StateStore implements Closeable {
+    /**
+     * The name of the snapshot file in the store's directory
+     */
+    public static final String SNAPSHOT_FILE = "state.snapshot";
+
+    /**
+     * The name of the journal in the store's directory, which each segment's
+     * file name starts with
+     */
+    public static final String JOURNAL_FILE = "taps.journal";
+
+    private final Path directory;
+    private TransitSystem system;
+    private ObserverAdmin metrics;
+    private MetricsBus bus;
+    private Snapshot.Contents loaded;
+    private TapJournal journal;
+    private long segmentStart;
+    private ScheduledExecutorService checkpoints;
+
+    /**
+     * Creates a store in the given directory. Nothing is read or journaled until
+     * the store is loaded and recovered.
+     *
+     * @param directory the directory holding the snapshot and journal
+     */
+    public StateStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Rebuilds the transit system captured in the latest snapshot, if there is
+     * one. The system still has to be recovered before it processes any taps.
+     *
+     * @return the system in the snapshot, or null if there is no snapshot and the
+     *         system should be loaded from the input files instead
+     * @throws IOException if the snapshot cannot be read
+     */
+    public synchronized TransitSystem load() throws IOException {
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(snapshot)) {
+            return null;
+        }
+        this.loaded = Snapshot.read(snapshot);
+        return loaded.system;
+    }
+
+    /**
+     * Brings the system back to the state it was in when its journal was last
+     * synced: restores the daily totals in the snapshot, replays the taps
+     * journaled after it, and starts journaling the system's taps. If the store
+     * has a snapshot, the system must be the one returned by load; otherwise it
+     * must be loaded from the input files. Either way it must not have processed
+     * any taps.
+     *
+     * @param system  the transit system whose state is kept
+     * @param metrics the daily totals kept with the state, null if there are none
+     * @param bus     the bus the totals are updated through, null if they are
+     *                updated directly
+     * @return the number of taps replayed from the journal
+     * @throws IOException if the snapshot or journal cannot be read, or the system
+     *                     was not loaded from the snapshot
+     */
+    public synchronized long recover(TransitSystem system, ObserverAdmin metrics, MetricsBus bus)
+            throws IOException {
+        Files.createDirectories(directory);
+        long covered = 0;
+        if (loaded != null && loaded.system == system) {
+            covered = loaded.sequence;
+            if (metrics != null) {
+                loaded.restoreMetrics(metrics);
+            }
+            loaded = null;
+        } else if (Files.exists(directory.resolve(SNAPSHOT_FILE))) {
+            throw new IOException("The system was not loaded from " + directory.resolve(SNAPSHOT_FILE));
+        }
+        this.system = system;
+        this.metrics = metrics;
+        this.bus = bus;
+
+        TransitNetwork network = system.getNetwork();
+        long[] replayed = new long[1];
+        long last = covered;
+        for (Path segment : segments()) {
+            last = TapJournal.replay(segment, last, (sequence, cardID, stop, direction, second, charged) -> {
+                replay(network, sequence, cardID, stop, direction, second, charged);
+                replayed[0]++;
+            });
+        }
+
+        this.journal = new TapJournal(segment(last), last);
+        this.segmentStart = last;
+        system.attachJournal(journal);
+        return replayed[0];
+    }
+
+    /**
+     * Processes one journaled tap again
+     *
+     * @param network   the network the stop ordinal refers to
+     * @param sequence  the sequence number of the record
+     * @param cardID    the numeric ID of the card tapped
+     * @param stop      the ordinal of the stop
+     * @param direction ENTER, EXIT, or null for a tap on a bus
+     * @param second    the time of the tap in seconds since 1970-01-01T00:00:00
+     * @param charged   the amount originally charged in cents
+     */
+    private void replay(TransitNetwork network, long sequence, long cardID, int stop, Direction direction,
+            long second, long charged) {
+        Card card = system.findCardInSystem(cardID);
+        if (card == null || stop < 0 || stop >= network.getNumStops()) {
+            Logger.error("Skipped journaled tap " + sequence + " because its card or stop is not in the system.",
+                    "Recover with the riders, cards and lines the journal was written with.");
+            return;
+        }
+        TransitStop location = network.getStop(stop);
+        Event tap = direction == null ? new Event(location, second, card)
+                : new Event(location, second, card, direction);
+        long recharged = system.handleTapEvent(tap);
+        if (recharged != charged) {
+            Logger.error("Journaled tap " + sequence + " was charged " + recharged + " cents instead of "
+                    + charged + ".", "The snapshot and journal may be from different systems.");
+        }
+    }
+
+    /**
+     * Returns the journal segment holding the taps after the given sequence number
+     *
+     * @param after the sequence number the segment continues from
+     * @return the segment's file
+     */
+    private Path segment(long after) {
+        return directory.resolve(JOURNAL_FILE + "." + after);
+    }
+
+    /**
+     * Lists the journal segments in the store's directory
+     *
+     * @return the segments' files, in the order their taps were journaled
+     * @throws IOException if the directory cannot be read
+     */
+    private List<Path> segments() throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, JOURNAL_FILE + "*")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.equals(JOURNAL_FILE)) {
+                    // a journal written before it was split into segments comes first
+                    segments.put(-1L, file);
+                } else if (name.startsWith(JOURNAL_FILE + ".")) {
+                    try {
+                        segments.put(Long.parseLong(name.substring(JOURNAL_FILE.length() + 1)), file);
+                    } catch (NumberFormatException e) {
+                        // not a segment
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(segments.values());
+    }
+
+    /**
+     * Captures a snapshot of the recovered system and replaces the previous one
+     * with it, then rolls the journal over to a new segment and deletes the
+     * segments the snapshot covers. Taps wait while the snapshot is captured. The
+     * snapshot is written to a temporary file first, so a crash part way through
+     * leaves the previous one and every segment after it.
+     *
+     * @throws IOException if the snapshot cannot be written or the journal cannot
+     *                     be rolled over
+     */
+    public synchronized void checkpoint() throws IOException {
+        if (system == null) {
+            throw new IllegalStateException("The store has not been recovered");
+        }
+        Path partial = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        IOException[] failure = new IOException[1];
+        TapJournal[] retired = new TapJournal[1];
+        system.runExclusively(() -> {
+            if (bus != null) {
+                // the totals must include every tap the snapshot does
+                bus.flush();
+            }
+            long sequence = journal == null ? 0 : journal.getLastSequence();
+            try {
+                Snapshot.write(partial, system, metrics, sequence);
+                if (journal != null && sequence != segmentStart) {
+                    // the taps after the snapshot go to a segment of their own
+                    TapJournal next = new TapJournal(segment(sequence), sequence);
+                    retired[0] = journal;
+                    journal = next;
+                    segmentStart = sequence;
+                    system.attachJournal(next);
+                }
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        Files.move(partial, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        // every tap in the earlier segments is in the snapshot now
+        if (retired[0] != null) {
+            retired[0].close();
+        }
+        Path current = segment(segmentStart);
+        for (Path segment : segments()) {
+            if (!segment.equals(current)) {
+                Files.delete(segment);
+            }
+        }
+    }
+
+    /**
+     * Takes a checkpoint every period on a background thread until the store is
+     * closed
+     *
+     * @param period the time between checkpoints
+     * @param unit   the unit of the period
+     */
+    public synchronized void checkpointEvery(long period, TimeUnit unit) {
+        if (checkpoints == null) {
+            checkpoints = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "checkpoint");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        checkpoints.scheduleAtFixedRate(() -> {
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                Logger.error("Could not write a snapshot of the system.", e.getMessage());
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Stops taking checkpoints, stops journaling the system's taps and closes the
+     * journal once every tap appended to it is on disk
+     *
+     * @throws IOException if the journal could not be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (checkpoints != null) {
+            checkpoints.shutdown();
+        }
+        if (journal != null) {
+            system.attachJournal(null);
+            journal.close();
+            journal = null;
+        }
+    }
+}
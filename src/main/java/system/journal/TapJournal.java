@@ -0,0 +1,377 @@
+package main.java.system.journal;
+
+import main.java.entities.transit.BusStop;
+import main.java.system.Logger;
+import main.java.system.event.Direction;
+import main.java.system.event.Event;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of the taps a transit system has handled and what it
+ * charged for them, declined taps included, since they still move the system's
+ * clock. Taps are appended to an in-memory buffer, and a committer thread
+ * writes whatever has gathered in the buffer to the file and forces it to disk
+ * in one go, so many taps share each fsync. A tap is durable once sync returns
+ * for it.
+ *
+ * <p>
+ * Each record is 40 big-endian bytes: the record's sequence number (long), the
+ * numeric card ID (long), the time of the tap in seconds since
+ * 1970-01-01T00:00:00 (long), the amount charged in cents or -1 if the tap
+ * was declined (int), the stop's ordinal in the network (int), the action
+ * (byte: TAP, ENTER or EXIT), three bytes of padding, and the CRC-32 of the 36
+ * bytes before it (int). Sequence numbers increase from record to record, so a
+ * record torn by a crash can only be at the end of the file, where it is
+ * detected by its checksum and cut off when the journal is reopened.
+ */
+public class TapJournal implements Closeable {
+    static final int RECORD_SIZE = 40;
+    static final byte TAP = 0;
+    static final byte ENTER = 1;
+    static final byte EXIT = 2;
+
+    private static final int CHECKED_SIZE = 36;
+    private static final int BUFFER_RECORDS = 1 << 14;
+
+    /**
+     * Receives the records read back from a journal
+     */
+    public interface RecordSink {
+        /**
+         * Handles one journaled tap
+         *
+         * @param sequence  the sequence number of the record
+         * @param cardID    the numeric ID of the card tapped
+         * @param stop      the ordinal of the stop in the network
+         * @param direction ENTER or EXIT for taps at a subway station, null for taps
+         *                  on a bus
+         * @param second    the time of the tap in seconds since 1970-01-01T00:00:00
+         * @param charged   the amount charged for the tap in cents, -1 if it was
+         *                  declined
+         */
+        void accept(long sequence, long cardID, int stop, Direction direction, long second, long charged);
+    }
+
+    private final FileChannel channel;
+    private final CRC32 checksum;
+    private final Thread committer;
+    private ByteBuffer active;
+    private ByteBuffer spare;
+    private long lastSequence;
+    private long durableSequence;
+    private boolean failed;
+    private boolean closed;
+
+    /**
+     * Opens the journal in the given file for appending, creating it if needed.
+     * A torn record at the end of the file is cut off.
+     *
+     * @param file  the journal file
+     * @param after the sequence number to continue from if the file has none
+     *              later, such as the one covered by the latest snapshot
+     * @throws IOException if the file cannot be opened
+     */
+    public TapJournal(Path file, long after) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.checksum = new CRC32();
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        long end = channel.size() - channel.size() % RECORD_SIZE;
+        while (end > 0 && !readRecord(channel, end - RECORD_SIZE, record, checksum)) {
+            end -= RECORD_SIZE;
+        }
+        long last = end > 0 ? record.getLong(0) : 0;
+        channel.truncate(end);
+        channel.position(end);
+
+        this.lastSequence = Math.max(last, after);
+        this.durableSequence = this.lastSequence;
+        this.active = ByteBuffer.allocate(RECORD_SIZE * BUFFER_RECORDS);
+        this.spare = ByteBuffer.allocate(RECORD_SIZE * BUFFER_RECORDS);
+        this.committer = new Thread(this::commit, "tap-journal");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    /**
+     * Appends a handled tap to the journal. The tap is not durable until sync
+     * returns. Waits only if the committer has fallen a full buffer behind.
+     *
+     * @param tap     the tap which was handled
+     * @param charged the amount charged for it in cents, TransitSystem.DECLINED
+     *                if it was declined
+     * @return the sequence number of the record, -1 if the journal can no longer
+     *         be written
+     */
+    public synchronized long append(Event tap, long charged) {
+        while (active.remaining() < RECORD_SIZE && !failed && !closed) {
+            waitUninterruptibly();
+        }
+        if (failed || closed) {
+            return -1;
+        }
+
+        long sequence = ++lastSequence;
+        int start = active.position();
+        active.putLong(sequence);
+        active.putLong(tap.getCard().getId().toLong());
+        active.putLong(tap.getEpochSecond());
+        active.putInt((int) charged);
+        active.putInt(tap.getLocation().getOrdinal());
+        // a tap on a bus is given its direction while it is handled, so go by the stop
+        active.put(tap.getLocation() instanceof BusStop ? TAP : actionOf(tap.getDirection()));
+        active.put((byte) 0).put((byte) 0).put((byte) 0);
+        checksum.reset();
+        checksum.update(active.array(), start, CHECKED_SIZE);
+        active.putInt((int) checksum.getValue());
+
+        if (start == 0) {
+            notifyAll();
+        }
+        return sequence;
+    }
+
+    /**
+     * Return the sequence number of the latest record appended
+     *
+     * @return the latest sequence number, 0 if nothing was ever appended
+     */
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Waits until every record appended before this call is on disk
+     *
+     * @throws IOException if the journal could not be written
+     */
+    public synchronized void sync() throws IOException {
+        long target = lastSequence;
+        while (durableSequence < target && !failed) {
+            waitUninterruptibly();
+        }
+        if (durableSequence < target) {
+            throw new IOException("The tap journal could not be written");
+        }
+    }
+
+    /**
+     * Writes out every record appended so far, then stops the committer and
+     * closes the file
+     *
+     * @throws IOException if the journal could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        boolean interrupted = false;
+        while (committer.isAlive()) {
+            try {
+                committer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        synchronized (this) {
+            if (failed) {
+                throw new IOException("The tap journal could not be written");
+            }
+        }
+    }
+
+    /**
+     * Writes each batch of appended records to the file and forces it to disk
+     * until the journal is closed
+     */
+    private void commit() {
+        while (true) {
+            ByteBuffer batch;
+            long last;
+            synchronized (this) {
+                while (active.position() == 0 && !closed) {
+                    waitUninterruptibly();
+                }
+                if (active.position() == 0) {
+                    return;
+                }
+                batch = active;
+                active = spare;
+                spare = null;
+                last = lastSequence;
+                // appenders waiting for room may go on
+                notifyAll();
+            }
+
+            try {
+                batch.flip();
+                while (batch.hasRemaining()) {
+                    channel.write(batch);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                Logger.error("The tap journal could not be written.", e.getMessage());
+                synchronized (this) {
+                    failed = true;
+                    notifyAll();
+                }
+                return;
+            }
+
+            synchronized (this) {
+                batch.clear();
+                spare = batch;
+                durableSequence = last;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits on this journal's monitor, carrying on if interrupted. Must be called
+     * holding the monitor.
+     */
+    private void waitUninterruptibly() {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reads back every record in a journal file later than the given sequence
+     * number, stopping at the first torn record
+     *
+     * @param file  the journal file
+     * @param after the sequence number of the last record not to be read, such as
+     *              the one covered by the latest snapshot
+     * @param sink  the receiver of each record
+     * @return the sequence number of the last record read, after if there was none
+     * @throws IOException if the file cannot be read
+     */
+    public static long replay(Path file, long after, RecordSink sink) throws IOException {
+        if (!Files.exists(file)) {
+            return after;
+        }
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            CRC32 crc = new CRC32();
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            long count = in.size() / RECORD_SIZE;
+
+            // sequence numbers only ever increase, so the tail is found by bisection
+            long low = 0;
+            long high = count;
+            while (low < high) {
+                long mid = (low + high) >>> 1;
+                if (readRecord(in, mid * RECORD_SIZE, record, crc) && record.getLong(0) <= after) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            long last = after;
+            ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_SIZE * BUFFER_RECORDS);
+            long position = low * RECORD_SIZE;
+            while (true) {
+                buffer.clear();
+                while (buffer.hasRemaining() && in.read(buffer, position + buffer.position()) > 0) {
+                    // keep filling
+                }
+                buffer.flip();
+                if (buffer.remaining() < RECORD_SIZE) {
+                    return last;
+                }
+                while (buffer.remaining() >= RECORD_SIZE) {
+                    int start = buffer.position();
+                    for (int i = 0; i < CHECKED_SIZE; i++) {
+                        record.put(i, buffer.get(start + i));
+                    }
+                    crc.reset();
+                    crc.update(record.array(), 0, CHECKED_SIZE);
+                    if ((int) crc.getValue() != buffer.getInt(start + CHECKED_SIZE)) {
+                        return last;
+                    }
+                    long sequence = buffer.getLong(start);
+                    if (sequence > after) {
+                        sink.accept(sequence, buffer.getLong(start + 8), buffer.getInt(start + 28),
+                                directionOf(buffer.get(start + 32)), buffer.getLong(start + 16),
+                                buffer.getInt(start + 24));
+                        last = sequence;
+                    }
+                    buffer.position(start + RECORD_SIZE);
+                }
+                position += buffer.position();
+            }
+        }
+    }
+
+    /**
+     * Reads the record at the given offset and checks it against its checksum
+     *
+     * @param in     the journal file
+     * @param offset the offset of the record
+     * @param record a heap buffer of RECORD_SIZE bytes to read the record into
+     * @param crc    the checksum to compute with
+     * @return true iff a whole record was read and its checksum matches
+     * @throws IOException if the file cannot be read
+     */
+    private static boolean readRecord(FileChannel in, long offset, ByteBuffer record, CRC32 crc)
+            throws IOException {
+        record.clear();
+        while (record.hasRemaining() && in.read(record, offset + record.position()) > 0) {
+            // keep filling
+        }
+        if (record.hasRemaining()) {
+            return false;
+        }
+        crc.reset();
+        crc.update(record.array(), 0, CHECKED_SIZE);
+        return (int) crc.getValue() == record.getInt(CHECKED_SIZE);
+    }
+
+    /**
+     * Returns the action code for the given tap direction
+     *
+     * @param direction ENTER or EXIT for taps at a subway station, null for taps
+     *                  on a bus
+     * @return TAP, ENTER or EXIT
+     */
+    static byte actionOf(Direction direction) {
+        if (direction == null) {
+            return TAP;
+        }
+        return direction == Direction.ENTER ? ENTER : EXIT;
+    }
+
+    /**
+     * Returns the tap direction for the given action code
+     *
+     * @param action TAP, ENTER or EXIT
+     * @return ENTER or EXIT, or null for a tap on a bus
+     */
+    static Direction directionOf(byte action) {
+        if (action == ENTER) {
+            return Direction.ENTER;
+        } else if (action == EXIT) {
+            return Direction.EXIT;
+        }
+        return null;
+    }
+}
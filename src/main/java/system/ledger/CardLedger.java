@@ -0,0 +1,373 @@
+package main.java.system.ledger;
+
+import main.java.entities.Card;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * An off-heap store of the state of transit cards, kept in a memory-mapped
+ * file so that it lives outside the garbage-collected heap and survives the
+ * process. Each card has a fixed-width slot addressed by the serial number of
+ * its ID, so finding a card's slot is arithmetic rather than a lookup. A card
+ * kept in the ledger holds no state of its own; see Card.keepIn.
+ *
+ * <p>
+ * The file starts with a header of HEADER_SIZE bytes: the magic number (int),
+ * the format version (int) and the slot size (int), big-endian, then whether
+ * the slots are big-endian (int, 1 if they are, 0 if not). Slot n starts at
+ * HEADER_SIZE + n * SLOT_SIZE and holds, in the byte order of the machine which
+ * created the file, the packed ID of the card in it or 0 if it is free (long),
+ * the card's state word as kept by Card: the balance in cents shifted left
+ * once, with the low bit set if the card is active (long), and the card's
+ * spending word as kept by Card: the day it was last charged on and what it was
+ * charged that day and that week (long). Trips are not kept here; a card's
+ * trips, including the one in progress, are restored from a StateStore
+ * snapshot. The file is mapped in segments as cards with higher serials are
+ * kept, growing as needed.
+ *
+ * <p>
+ * Writes reach the file through the page cache, so they outlive the process
+ * even if it crashes; force makes them durable against a crash of the machine.
+ * A MappedByteBuffer has no atomic compare-and-set, so slots are read and
+ * updated with the processor's atomic instructions directly on the mapped
+ * memory, through sun.misc.Unsafe, and no update takes a lock. That is why the
+ * slots are in the machine's byte order rather than big-endian.
+ */
+public class CardLedger implements Closeable {
+    /**
+     * The number of bytes in each card's slot
+     */
+    public static final int SLOT_SIZE = 24;
+
+    /**
+     * The number of bytes before the first slot
+     */
+    public static final int HEADER_SIZE = 64;
+
+    static final int MAGIC = 0x4C444752; // "LDGR"
+    static final int VERSION = 4;
+
+    private static final int ID = 0;
+    private static final int STATE = 8;
+    private static final int SPENDING = 16;
+    private static final int SEGMENT_BITS = 16;
+    private static final int SEGMENT_SLOTS = 1 << SEGMENT_BITS;
+    private static final long MAX_SERIAL = 1L << 31;
+    private static final int NATIVE_BIG_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN ? 1 : 0;
+
+    // Unsafe's accessors bound to its instance, found by reflection so that the
+    // build does not depend on the internal class; null if it is not available
+    private static final MethodHandle GET_LONG_VOLATILE;
+    private static final MethodHandle PUT_LONG_VOLATILE;
+    private static final MethodHandle COMPARE_AND_SWAP_LONG;
+    private static final MethodHandle GET_AND_ADD_LONG;
+    private static final Field BUFFER_ADDRESS;
+
+    static {
+        MethodHandle get = null;
+        MethodHandle put = null;
+        MethodHandle cas = null;
+        MethodHandle add = null;
+        Field address = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            get = lookup.findVirtual(unsafeClass, "getLongVolatile",
+                    MethodType.methodType(long.class, Object.class, long.class)).bindTo(unsafe);
+            put = lookup.findVirtual(unsafeClass, "putLongVolatile",
+                    MethodType.methodType(void.class, Object.class, long.class, long.class)).bindTo(unsafe);
+            cas = lookup.findVirtual(unsafeClass, "compareAndSwapLong",
+                    MethodType.methodType(boolean.class, Object.class, long.class, long.class, long.class))
+                    .bindTo(unsafe);
+            add = lookup.findVirtual(unsafeClass, "getAndAddLong",
+                    MethodType.methodType(long.class, Object.class, long.class, long.class)).bindTo(unsafe);
+            address = Buffer.class.getDeclaredField("address");
+            address.setAccessible(true);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            get = null;
+        }
+        GET_LONG_VOLATILE = get;
+        PUT_LONG_VOLATILE = put;
+        COMPARE_AND_SWAP_LONG = cas;
+        GET_AND_ADD_LONG = add;
+        BUFFER_ADDRESS = address;
+    }
+
+    private final FileChannel channel;
+    private final boolean created;
+    // the mapped segments, kept so they stay mapped, and the address of each
+    private MappedByteBuffer[] mapped;
+    private volatile long[] addresses;
+
+    /**
+     * Opens the ledger in the given file, creating it if needed
+     *
+     * @param file the ledger file
+     * @throws IOException if the file cannot be opened or is not a ledger, or the
+     *                     platform offers no way to update mapped memory
+     *                     atomically
+     */
+    public CardLedger(Path file) throws IOException {
+        if (GET_LONG_VOLATILE == null) {
+            throw new IOException("A card ledger needs sun.misc.Unsafe, which this platform does not offer");
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.mapped = new MappedByteBuffer[0];
+        this.addresses = new long[0];
+        this.created = channel.size() == 0;
+
+        ByteBuffer header = ByteBuffer.allocate(16);
+        if (created) {
+            header.putInt(MAGIC).putInt(VERSION).putInt(SLOT_SIZE).putInt(NATIVE_BIG_ENDIAN).flip();
+            channel.write(header, 0);
+        } else {
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < 16 || header.getInt() != MAGIC) {
+                channel.close();
+                throw new IOException(file + " is not a card ledger");
+            }
+            if (header.getInt() != VERSION || header.getInt() != SLOT_SIZE) {
+                channel.close();
+                throw new IOException(file + " is a card ledger of another version");
+            }
+            if (header.getInt() != NATIVE_BIG_ENDIAN) {
+                channel.close();
+                throw new IOException(file + " was written on a machine with another byte order");
+            }
+        }
+    }
+
+    /**
+     * Returns whether this ledger's file was created when it was opened, rather
+     * than holding the cards of an earlier run
+     *
+     * @return true iff the ledger started out empty
+     */
+    public boolean isNew() {
+        return created;
+    }
+
+    /**
+     * Moves the given card's state into its slot. If the slot already holds the
+     * card from an earlier run, the state kept there is kept unless overwrite is
+     * set; otherwise the slot is taken with the given state.
+     *
+     * @param card      the card to keep in this ledger
+     * @param state     the card's current state word
+     * @param spending  the card's current spending word
+     * @param overwrite true to replace the state kept for the card with the
+     *                  given one, false to keep the state from an earlier run
+     * @return true iff the card now has a slot, false if its slot holds another
+     *         card with the same serial or its serial is too large for a slot
+     */
+    public boolean claim(Card card, long state, long spending, boolean overwrite) {
+        long serial = card.getId().getSerial();
+        if (serial >= MAX_SERIAL) {
+            return false;
+        }
+        long packed = card.getId().getPacked();
+        long slot = slotAddress(serial);
+        boolean taken = compareAndSwap(slot + ID, 0, packed);
+        if (!taken && getVolatile(slot + ID) != packed) {
+            return false;
+        }
+        if (taken || overwrite) {
+            putVolatile(slot + STATE, state);
+            putVolatile(slot + SPENDING, spending);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the state word of the card with the given serial
+     *
+     * @param serial the serial number of the card's ID
+     * @return the card's state word
+     */
+    public long get(long serial) {
+        return getVolatile(slotAddress(serial) + STATE);
+    }
+
+    /**
+     * Sets the state word of the card with the given serial if it is still the
+     * expected one
+     *
+     * @param serial the serial number of the card's ID
+     * @param expect the state word the card is expected to have
+     * @param update the new state word
+     * @return true iff the state was the expected one and was replaced
+     */
+    public boolean compareAndSet(long serial, long expect, long update) {
+        return compareAndSwap(slotAddress(serial) + STATE, expect, update);
+    }
+
+    /**
+     * Adds the given amount to the state word of the card with the given serial
+     *
+     * @param serial the serial number of the card's ID
+     * @param delta  the amount to add to the state word
+     * @return the new state word
+     */
+    public long addAndGet(long serial, long delta) {
+        long address = slotAddress(serial) + STATE;
+        try {
+            return (long) GET_AND_ADD_LONG.invokeExact((Object) null, address, delta) + delta;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the spending word of the card with the given serial
+     *
+     * @param serial the serial number of the card's ID
+     * @return the card's spending word
+     */
+    public long getSpending(long serial) {
+        return getVolatile(slotAddress(serial) + SPENDING);
+    }
+
+    /**
+     * Sets the spending word of the card with the given serial
+     *
+     * @param serial   the serial number of the card's ID
+     * @param spending the new spending word
+     */
+    public void setSpending(long serial, long spending) {
+        putVolatile(slotAddress(serial) + SPENDING, spending);
+    }
+
+    /**
+     * Writes every change to the ledger to disk
+     */
+    public synchronized void force() {
+        for (MappedByteBuffer segment : mapped) {
+            if (segment != null) {
+                segment.force();
+            }
+        }
+    }
+
+    /**
+     * Writes every change to the ledger to disk and closes its file. Cards kept in
+     * the ledger may not be used afterwards.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    /**
+     * Returns the address in memory of the slot for the given serial, mapping its
+     * segment if it has not been yet
+     *
+     * @param serial the serial number of a card's ID
+     * @return the address of its slot
+     */
+    private long slotAddress(long serial) {
+        long[] known = this.addresses;
+        int index = (int) (serial >>> SEGMENT_BITS);
+        long base = index < known.length ? known[index] : 0;
+        if (base == 0) {
+            base = mapSegment(index);
+        }
+        return base + (serial & (SEGMENT_SLOTS - 1)) * SLOT_SIZE;
+    }
+
+    /**
+     * Maps the segment with the given index, extending the file if needed, and
+     * publishes its address to later lookups
+     *
+     * @param index the index of the segment
+     * @return the address of the segment's first slot
+     */
+    private synchronized long mapSegment(int index) {
+        long[] known = this.addresses;
+        if (index < known.length && known[index] != 0) {
+            return known[index];
+        }
+        long start = HEADER_SIZE + (long) index * SEGMENT_SLOTS * SLOT_SIZE;
+        MappedByteBuffer segment;
+        long address;
+        try {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, start, (long) SEGMENT_SLOTS * SLOT_SIZE);
+            address = BUFFER_ADDRESS.getLong(segment);
+        } catch (IOException | IllegalAccessException e) {
+            throw new IllegalStateException("Could not map the card ledger", e);
+        }
+        // the buffer is kept so the mapping outlives every use of its address
+        MappedByteBuffer[] grownMapped = Arrays.copyOf(mapped, Math.max(index + 1, mapped.length));
+        grownMapped[index] = segment;
+        this.mapped = grownMapped;
+        // lookups read the array without locking, so it is never changed once published
+        long[] grown = Arrays.copyOf(known, Math.max(index + 1, known.length));
+        grown[index] = address;
+        this.addresses = grown;
+        return address;
+    }
+
+    /**
+     * Reads the long at the given address with volatile semantics
+     *
+     * @param address an address within a mapped segment
+     * @return the value there
+     */
+    private static long getVolatile(long address) {
+        try {
+            return (long) GET_LONG_VOLATILE.invokeExact((Object) null, address);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes the long at the given address with volatile semantics
+     *
+     * @param address an address within a mapped segment
+     * @param value   the value to write
+     */
+    private static void putVolatile(long address, long value) {
+        try {
+            PUT_LONG_VOLATILE.invokeExact((Object) null, address, value);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Atomically replaces the long at the given address if it is the expected one
+     *
+     * @param address an address within a mapped segment
+     * @param expect  the value expected there
+     * @param update  the new value
+     * @return true iff the value was the expected one and was replaced
+     */
+    private static boolean compareAndSwap(long address, long expect, long update) {
+        try {
+            return (boolean) COMPARE_AND_SWAP_LONG.invokeExact((Object) null, address, expect, update);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package main.java.system.metrics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A running total for each day, indexed by the number of days since 1970-01-01.
+ * Days are grouped into pages of consecutive days, each holding one striped
+ * counter per day, so adding to a day and reading it are both constant time.
+ * The page of the latest day added to is kept at hand, so taps on the same day
+ * find their counter without a lookup. Totals may be added to from many threads
+ * at once and read while they are being added to.
+ */
+class DailyCounter {
+	private static final int PAGE_BITS = 8;
+	private static final int PAGE_DAYS = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_DAYS - 1;
+
+	private final ConcurrentHashMap<Integer, Page> pages = new ConcurrentHashMap<Integer, Page>();
+	private volatile Page latest;
+
+	/**
+	 * Adds the given amount to the total of the given day
+	 *
+	 * @param day    the day, counted from 1970-01-01.
+	 * @param amount the amount to add
+	 */
+	void add(int day, long amount) {
+		int number = day >> PAGE_BITS;
+		Page page = latest;
+		if (page == null || page.number != number) {
+			page = pages.computeIfAbsent(number, Page::new);
+			latest = page;
+		}
+		page.days[day & PAGE_MASK].add(amount);
+	}
+
+	/**
+	 * Returns the total of the given day
+	 *
+	 * @param day the day, counted from 1970-01-01.
+	 * @return the total of that day, 0 if nothing was added on it
+	 */
+	long get(int day) {
+		Page page = pages.get(day >> PAGE_BITS);
+		return page == null ? 0 : page.days[day & PAGE_MASK].sum();
+	}
+
+	/**
+	 * Returns the total of every day in the given range
+	 *
+	 * @param from the first day of the range, counted from 1970-01-01.
+	 * @param to   the last day of the range, counted from 1970-01-01.
+	 * @return the sum of the totals of the days from from to to inclusive, 0 if
+	 *         the range is empty
+	 */
+	long sum(int from, int to) {
+		long total = 0;
+		for (int number = from >> PAGE_BITS; number <= to >> PAGE_BITS; number++) {
+			Page page = pages.get(number);
+			if (page == null) {
+				continue;
+			}
+			int first = Math.max(from, number << PAGE_BITS) & PAGE_MASK;
+			int last = Math.min(to, (number << PAGE_BITS) + PAGE_MASK) & PAGE_MASK;
+			for (int i = first; i <= last; i++) {
+				total += page.days[i].sum();
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Writes the total of every day with a non-zero total, as a count followed by
+	 * each day (int) and its total (long). Totals should not be added to while
+	 * they are written.
+	 *
+	 * @param out the output to write to
+	 * @throws IOException if the output cannot be written
+	 */
+	void writeTo(DataOutput out) throws IOException {
+		int count = 0;
+		for (Page page : pages.values()) {
+			for (LongAdder total : page.days) {
+				if (total.sum() != 0) {
+					count++;
+				}
+			}
+		}
+		out.writeInt(count);
+		for (Page page : pages.values()) {
+			for (int i = 0; i < PAGE_DAYS; i++) {
+				long total = page.days[i].sum();
+				if (total != 0) {
+					out.writeInt((page.number << PAGE_BITS) | i);
+					out.writeLong(total);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the totals written by writeTo to this counter
+	 *
+	 * @param in the input to read from
+	 * @throws IOException if the input cannot be read
+	 */
+	void readFrom(DataInput in) throws IOException {
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			int day = in.readInt();
+			add(day, in.readLong());
+		}
+	}
+
+	/**
+	 * The counters for a run of consecutive days
+	 */
+	private static class Page {
+		private final int number;
+		private final LongAdder[] days;
+
+		/**
+		 * Creates zeroed counters for the days of the given page
+		 *
+		 * @param number the first day of the page shifted right by PAGE_BITS
+		 */
+		Page(int number) {
+			this.number = number;
+			this.days = new LongAdder[PAGE_DAYS];
+			for (int i = 0; i < PAGE_DAYS; i++) {
+				this.days[i] = new LongAdder();
+			}
+		}
+	}
+}
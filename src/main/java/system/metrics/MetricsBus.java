@@ -0,0 +1,518 @@
+package main.java.system.metrics;
+
+import main.java.system.Logger;
+import main.java.system.Trip;
+import main.java.system.event.Event;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An Observer which hands every notification it receives to its own subscribers
+ * on separate threads, so that the thread processing a tap only records the
+ * notification and never waits for the subscribers to handle it. Notifications
+ * are kept in a bounded ring of preallocated slots. Any number of threads may
+ * publish to the ring at once, and every subscriber has its own thread which
+ * reads the ring in order and drains each run of notifications it finds
+ * waiting as one batch. A BatchObserver is handed the whole batch in one call;
+ * a plain Observer is called once for each notification in it. What happens
+ * when the ring is full is chosen by the bus's OverflowPolicy.
+ */
+public class MetricsBus implements Observer, Closeable {
+	/**
+	 * What publishing does when the subscribers have fallen so far behind that
+	 * the ring is full
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * Wait for the slowest subscriber to make room, so no notification is lost
+		 */
+		BLOCK,
+		/**
+		 * Drop the notification
+		 */
+		DROP,
+		/**
+		 * Once the ring is three quarters full, keep only one notification in every
+		 * SAMPLE_RATE and drop the rest, dropping all of them if it fills up
+		 */
+		SAMPLE
+	}
+
+	/**
+	 * The kinds of notification an Observer is sent
+	 */
+	public enum Kind {
+		/**
+		 * The fare charged for a tap
+		 */
+		FARE,
+		/**
+		 * The stops traveled to a tap
+		 */
+		STOPS,
+		/**
+		 * A trip which was completed
+		 */
+		TRIP
+	}
+
+	/**
+	 * An observer which is handed each run of notifications taken off the ring
+	 * as one batch instead of one call per notification
+	 */
+	public interface BatchObserver {
+		/**
+		 * Handles a run of notifications, in the order they were published. The
+		 * batch and its notifications may only be read during the call.
+		 *
+		 * @param batch the notifications
+		 */
+		void updateAll(Batch batch);
+	}
+
+	/**
+	 * The number of notifications out of which one is kept while sampling
+	 */
+	public static final int SAMPLE_RATE = 8;
+
+	private static final int SPINS_BEFORE_PARKING = 100;
+	private static final long PARK_NANOS = 50_000;
+
+	private final OverflowPolicy policy;
+	private final int capacity;
+	private final int mask;
+	private final Kind[] kinds;
+	private final Observable[] sources;
+	private final Object[] subjects;
+	private final long[] values;
+	private final AtomicLongArray published;
+	private final AtomicLong cursor;
+	private final LongAdder dropped;
+	private final AtomicLong sampled;
+	private volatile Subscriber[] subscribers;
+	private volatile boolean closed;
+
+	/**
+	 * Creates a bus with no subscribers
+	 *
+	 * @param capacity the number of notifications the ring holds, rounded up to a
+	 *                 power of two
+	 * @param policy   what publishing does when the ring is full
+	 */
+	public MetricsBus(int capacity, OverflowPolicy policy) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("The ring must hold at least one notification");
+		}
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		this.policy = policy;
+		this.capacity = size;
+		this.mask = this.capacity - 1;
+		this.kinds = new Kind[this.capacity];
+		this.sources = new Observable[this.capacity];
+		this.subjects = new Object[this.capacity];
+		this.values = new long[this.capacity];
+		this.published = new AtomicLongArray(this.capacity);
+		for (int i = 0; i < this.capacity; i++) {
+			this.published.set(i, -1);
+		}
+		this.cursor = new AtomicLong();
+		this.dropped = new LongAdder();
+		this.sampled = new AtomicLong();
+		this.subscribers = new Subscriber[0];
+	}
+
+	/**
+	 * Adds an observer which will receive every notification published from now
+	 * on, one call each, on a thread of its own
+	 *
+	 * @param observer the observer to subscribe
+	 */
+	public void subscribe(Observer observer) {
+		subscribe(new Forwarder(observer), capacity);
+	}
+
+	/**
+	 * Adds an observer which will receive every notification published from now
+	 * on, in batches of at most the given size, on a thread of its own
+	 *
+	 * @param observer the observer to subscribe
+	 * @param max      the most notifications to hand the observer in one batch
+	 */
+	public synchronized void subscribe(BatchObserver observer, int max) {
+		if (max < 1) {
+			throw new IllegalArgumentException("A batch must hold at least one notification");
+		}
+		if (closed) {
+			throw new IllegalStateException("The metrics bus has been closed");
+		}
+		Subscriber subscriber = new Subscriber(observer, Math.min(max, capacity), cursor.get(),
+				subscribers.length);
+		Subscriber[] added = Arrays.copyOf(subscribers, subscribers.length + 1);
+		added[added.length - 1] = subscriber;
+		subscribers = added;
+		subscriber.start();
+	}
+
+	/**
+	 * Return the number of notifications which were not handed to the subscribers
+	 * because the ring was full, or sampled out, or the bus was closed
+	 *
+	 * @return the number of notifications dropped
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Waits until every subscriber has handled every notification published before
+	 * this call
+	 */
+	public void flush() {
+		long target = cursor.get();
+		for (Subscriber subscriber : subscribers) {
+			while (subscriber.sequence.get() < target && subscriber.isAlive()) {
+				LockSupport.parkNanos(PARK_NANOS);
+			}
+		}
+	}
+
+	/**
+	 * Stops taking notifications and waits for the subscribers to handle the ones
+	 * already published
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			closed = true;
+		}
+		boolean interrupted = false;
+		for (Subscriber subscriber : subscribers) {
+			while (subscriber.isAlive()) {
+				try {
+					subscriber.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Publishes the fare charged for a tap to the subscribers
+	 */
+	@Override
+	public void update(Observable o, Event tap, long fareCharged) {
+		publish(Kind.FARE, o, tap, fareCharged);
+	}
+
+	/**
+	 * Publishes the stops traveled to a tap to the subscribers
+	 */
+	@Override
+	public void update(Observable o, Event tap, int n) {
+		publish(Kind.STOPS, o, tap, n);
+	}
+
+	/**
+	 * Publishes a completed trip to the subscribers
+	 */
+	@Override
+	public void tripCompleted(Observable o, Trip trip) {
+		publish(Kind.TRIP, o, trip, 0);
+	}
+
+	/**
+	 * Claims the next slot of the ring and fills it with a notification
+	 *
+	 * @param kind    the kind of notification
+	 * @param source  the Observable which sent the notification
+	 * @param subject the tap or trip the notification is about
+	 * @param value   the fare or the number of stops
+	 */
+	private void publish(Kind kind, Observable source, Object subject, long value) {
+		if (subscribers.length == 0) {
+			return;
+		}
+		long sequence = claim();
+		if (sequence < 0) {
+			dropped.increment();
+			return;
+		}
+		int slot = (int) sequence & mask;
+		kinds[slot] = kind;
+		sources[slot] = source;
+		subjects[slot] = subject;
+		values[slot] = value;
+		// makes the slot's contents visible to the subscribers which see this
+		published.lazySet(slot, sequence);
+	}
+
+	/**
+	 * Claims the next sequence number, applying the overflow policy if the ring
+	 * is full
+	 *
+	 * @return the claimed sequence number, -1 if the notification is to be dropped
+	 */
+	private long claim() {
+		int spins = 0;
+		while (!closed) {
+			long next = cursor.get();
+			long used = next - slowestSequence();
+			if (used >= capacity) {
+				if (policy != OverflowPolicy.BLOCK) {
+					return -1;
+				}
+				if (++spins < SPINS_BEFORE_PARKING) {
+					Thread.yield();
+				} else {
+					LockSupport.parkNanos(PARK_NANOS);
+				}
+				continue;
+			}
+			if (policy == OverflowPolicy.SAMPLE && used >= capacity - capacity / 4
+					&& sampled.incrementAndGet() % SAMPLE_RATE != 0) {
+				return -1;
+			}
+			if (cursor.compareAndSet(next, next + 1)) {
+				return next;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the sequence number of the next notification the slowest subscriber
+	 * will handle
+	 *
+	 * @return the lowest sequence number not yet handled by every subscriber
+	 */
+	private long slowestSequence() {
+		long slowest = Long.MAX_VALUE;
+		for (Subscriber subscriber : subscribers) {
+			slowest = Math.min(slowest, subscriber.sequence.get());
+		}
+		return slowest;
+	}
+
+	/**
+	 * A run of consecutive notifications in the ring, handed to a BatchObserver.
+	 * Each subscriber reuses one batch for every run it drains, so nothing is
+	 * allocated per run.
+	 */
+	public final class Batch {
+		private long first;
+		private int size;
+
+		/**
+		 * Creates an empty batch
+		 */
+		private Batch() {
+		}
+
+		/**
+		 * Returns the number of notifications in the batch
+		 *
+		 * @return the size of the batch
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * Returns the kind of a notification
+		 *
+		 * @param i the position of the notification in the batch
+		 * @return FARE, STOPS or TRIP
+		 */
+		public Kind getKind(int i) {
+			return kinds[slot(i)];
+		}
+
+		/**
+		 * Returns the Observable which sent a notification
+		 *
+		 * @param i the position of the notification in the batch
+		 * @return the source of the notification
+		 */
+		public Observable getSource(int i) {
+			return sources[slot(i)];
+		}
+
+		/**
+		 * Returns the tap a FARE or STOPS notification is about
+		 *
+		 * @param i the position of the notification in the batch
+		 * @return the tap
+		 */
+		public Event getTap(int i) {
+			return (Event) subjects[slot(i)];
+		}
+
+		/**
+		 * Returns the trip a TRIP notification is about
+		 *
+		 * @param i the position of the notification in the batch
+		 * @return the completed trip
+		 */
+		public Trip getTrip(int i) {
+			return (Trip) subjects[slot(i)];
+		}
+
+		/**
+		 * Returns the value of a notification
+		 *
+		 * @param i the position of the notification in the batch
+		 * @return the fare in cents for FARE, the number of stops for STOPS, and 0
+		 *         for TRIP
+		 */
+		public long getValue(int i) {
+			return values[slot(i)];
+		}
+
+		/**
+		 * Returns the slot of the ring holding a notification of the batch
+		 *
+		 * @param i the position of the notification in the batch
+		 * @return the slot
+		 */
+		private int slot(int i) {
+			if (i < 0 || i >= size) {
+				throw new IndexOutOfBoundsException("Notification " + i + " of a batch of " + size);
+			}
+			return (int) (first + i) & mask;
+		}
+	}
+
+	/**
+	 * Hands each notification of a batch to a plain Observer, one call each
+	 */
+	private static class Forwarder implements BatchObserver {
+		private final Observer observer;
+
+		/**
+		 * Creates a forwarder to the given observer
+		 *
+		 * @param observer the observer to notify
+		 */
+		Forwarder(Observer observer) {
+			this.observer = observer;
+		}
+
+		/**
+		 * Notifies the observer of each notification in turn, carrying on past any
+		 * which it fails to handle
+		 */
+		@Override
+		public void updateAll(Batch batch) {
+			for (int i = 0; i < batch.size(); i++) {
+				try {
+					switch (batch.getKind(i)) {
+					case FARE:
+						observer.update(batch.getSource(i), batch.getTap(i), batch.getValue(i));
+						break;
+					case STOPS:
+						observer.update(batch.getSource(i), batch.getTap(i), (int) batch.getValue(i));
+						break;
+					default:
+						observer.tripCompleted(batch.getSource(i), batch.getTrip(i));
+						break;
+					}
+				} catch (RuntimeException e) {
+					Logger.error("A metrics observer failed to handle a notification.", e.toString());
+				}
+			}
+		}
+	}
+
+	/**
+	 * A thread which hands the notifications in the ring to one observer, in the
+	 * order they were published
+	 */
+	private class Subscriber extends Thread {
+		private final BatchObserver observer;
+		private final int max;
+		private final AtomicLong sequence;
+		private final Batch batch;
+
+		/**
+		 * Creates a subscriber which starts at the given sequence number
+		 *
+		 * @param observer the observer to notify
+		 * @param max      the most notifications to hand the observer at once
+		 * @param first    the sequence number of the first notification to handle
+		 * @param number   the position of the subscriber, used to name its thread
+		 */
+		Subscriber(BatchObserver observer, int max, long first, int number) {
+			super("metrics-" + number);
+			this.observer = observer;
+			this.max = max;
+			this.sequence = new AtomicLong(first);
+			this.batch = new Batch();
+			setDaemon(true);
+		}
+
+		/**
+		 * Drains each run of published notifications as a batch until the bus is
+		 * closed and every notification has been handled
+		 */
+		@Override
+		public void run() {
+			int spins = 0;
+			while (true) {
+				if (drain(observer, max) > 0) {
+					spins = 0;
+					continue;
+				}
+				if (closed && sequence.get() >= cursor.get()) {
+					return;
+				}
+				if (++spins < SPINS_BEFORE_PARKING) {
+					Thread.yield();
+				} else {
+					LockSupport.parkNanos(PARK_NANOS);
+				}
+			}
+		}
+
+		/**
+		 * Hands the notifications published after the last one handled, up to the
+		 * given number, to the consumer as one batch, then frees their slots for
+		 * the publishers
+		 *
+		 * @param consumer the observer to hand the batch to
+		 * @param max      the most notifications to hand over
+		 * @return the number of notifications handed over, 0 if none were waiting
+		 */
+		private int drain(BatchObserver consumer, int max) {
+			long next = sequence.get();
+			long end = next;
+			while (end - next < max && published.get((int) end & mask) == end) {
+				end++;
+			}
+			if (end == next) {
+				return 0;
+			}
+			batch.first = next;
+			batch.size = (int) (end - next);
+			try {
+				consumer.updateAll(batch);
+			} catch (RuntimeException e) {
+				Logger.error("A metrics observer failed to handle a batch of notifications.", e.toString());
+			}
+			// frees the batch's slots for the publishers
+			sequence.lazySet(end);
+			return batch.size;
+		}
+	}
+}
@@ -1,21 +1,29 @@
 package main.java.system.metrics;
 
-import java.util.ArrayList;
+import main.java.system.Trip;
+import main.java.system.event.Event;
+
+import java.util.Arrays;
 
 /**
  * This class is responsible for holding the list of all the Observers. And
  * notifying the Observers Of any updates or changes in the transitSystem.
+ * Observers may be notified from several threads at once, and attached or
+ * detached while notifications are being sent. The list is replaced as a whole
+ * whenever it changes, so sending a notification never allocates.
  */
 public class Observable {
-	private ArrayList<Observer> observers = new ArrayList<Observer>();
+	private volatile Observer[] observers = new Observer[0];
 
 	/**
 	 * Adds an observer to the list of Observers.
 	 * 
 	 * @param o an Observer
 	 */
-	public void attach(Observer o) {
-		this.observers.add(o);
+	public synchronized void attach(Observer o) {
+		Observer[] attached = Arrays.copyOf(this.observers, this.observers.length + 1);
+		attached[attached.length - 1] = o;
+		this.observers = attached;
 	}
 
 	/**
@@ -23,31 +31,52 @@ public class Observable {
 	 * 
 	 * @param o an Observer
 	 */
-	public void detach(Observer o) {
-		this.observers.remove(o);
+	public synchronized void detach(Observer o) {
+		Observer[] attached = this.observers;
+		for (int i = 0; i < attached.length; i++) {
+			if (attached[i].equals(o)) {
+				Observer[] remaining = new Observer[attached.length - 1];
+				System.arraycopy(attached, 0, remaining, 0, i);
+				System.arraycopy(attached, i + 1, remaining, i, remaining.length - i);
+				this.observers = remaining;
+				return;
+			}
+		}
 	}
 
 	/**
 	 * Notifies all the Observers that the tap event happened in the TransitSystem.
 	 * 
-	 * @param date        the date that the tap event happened.
-	 * @param fareCharged the fare that rider was charged when card was tapped.
+	 * @param tap         the tap which was charged for.
+	 * @param fareCharged the fare in cents that rider was charged when card was
+	 *                    tapped.
 	 */
-	public void notifyObservers(String date, float fareCharged) {
+	public void notifyObservers(Event tap, long fareCharged) {
 		for (Observer o : this.observers) {
-			o.update(this, date, fareCharged);
+			o.update(this, tap, fareCharged);
 		}
 	}
 
 	/**
 	 * Notifies all the Observers that an event happened in the TransitSystem.
 	 * 
-	 * @param date the date that the tap event happened.
-	 * @param n    the number of stops between two tap events
+	 * @param tap the tap at the stop which was traveled to.
+	 * @param n   the number of stops between two tap events
+	 */
+	public void notifyObservers(Event tap, int n) {
+		for (Observer o : this.observers) {
+			o.update(this, tap, n);
+		}
+	}
+
+	/**
+	 * Notifies all the Observers that a trip in the TransitSystem was completed.
+	 * 
+	 * @param trip the trip which was completed
 	 */
-	public void notifyObservers(String date, int n) {
+	public void notifyTripCompleted(Trip trip) {
 		for (Observer o : this.observers) {
-			o.update(this, date, n);
+			o.tripCompleted(this, trip);
 		}
 	}
-}
\ No newline at end of file
+}
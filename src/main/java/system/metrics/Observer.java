@@ -1,5 +1,8 @@
 package main.java.system.metrics;
 
+import main.java.system.Trip;
+import main.java.system.event.Event;
+
 /**
  * This class is the observer that gets updated once any changes have been made
  * to the Transit System that is being Observed.
@@ -10,18 +13,26 @@ public interface Observer {
 	 * Updates the Observer of the changes that happened in the Transit System.
 	 * 
 	 * @param o           Object that is being observed by the observer.
-	 * @param date        Date that the event happened.
-	 * @param fareCharged the float fare that was inputed into the system once the
-	 *                    tap occurred.
+	 * @param tap         the tap which was charged for.
+	 * @param fareCharged the fare in cents that was inputed into the system once
+	 *                    the tap occurred.
 	 */
-	public void update(Observable o, String date, float fareCharged);
+	public void update(Observable o, Event tap, long fareCharged);
 
 	/**
 	 * Updates the Observer of the changes that happened in the Transit System.
 	 * 
+	 * @param o   Object that is being observed by the observer.
+	 * @param tap the tap at the stop which was traveled to.
+	 * @param n   the number of stops traveled to
+	 */
+	public void update(Observable o, Event tap, int n);
+
+	/**
+	 * Updates the Observer that a trip taken in the Transit System was completed.
+	 * 
 	 * @param o    Object that is being observed by the observer.
-	 * @param date Date that the event happened.
-	 * @param n    the number of stops traveled to
+	 * @param trip the trip which was completed.
 	 */
-	public void update(Observable o, String date, int n);
-}
\ No newline at end of file
+	public void tripCompleted(Observable o, Trip trip);
+}
@@ -1,72 +1,195 @@
 package main.java.system.metrics;
 
-import java.util.HashMap;
+import main.java.entities.Money;
+import main.java.system.Trip;
+import main.java.system.event.Event;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * Class implementing the Observer. It is where the fare amount is getting
  * updated in the System for the Administrator to get access to each day's total
- * fare collected.
+ * fare collected. Totals are kept in concurrent counters indexed by the number
+ * of days since 1970-01-01, so taps may be processed on many threads at once and
+ * the totals may be read for a day, or summed over a range of days, while they
+ * are. Subscribed to a MetricsBus in batches, it adds each run of notifications
+ * on the same day to that day's totals once.
  */
-public class ObserverAdmin implements Observer {
-	private HashMap<String, Float> fareDayMap = new HashMap<String, Float>();
-	private HashMap<String, Integer> stopsDayMap = new HashMap<String, Integer>();
+public class ObserverAdmin implements Observer, MetricsBus.BatchObserver {
+	// each day's fares in cents
+	private DailyCounter fares = new DailyCounter();
+	private DailyCounter stops = new DailyCounter();
+	private DailyCounter trips = new DailyCounter();
 
 	/**
 	 * Updates the observer with each day's date and collected fare amount. The fare
-	 * amount received every day from the taps is added to the hashmap as a value to
-	 * the date key in the hashmap.
+	 * amount received every day from the taps is added to the total for that day.
 	 */
 	@Override
-	public void update(Observable o, String date, float fareCharged) {
-		if (fareDayMap.containsKey(date)) {
-			fareDayMap.put(date, fareDayMap.get(date) + fareCharged);
-		}
-		// Adding new [key:value] to the map if there were no other taps that same day
-		else {
-			fareDayMap.put(date, fareCharged);
-		}
+	public void update(Observable o, Event tap, long fareCharged) {
+		fares.add(tap.getEpochDay(), fareCharged);
+	}
+
+	/**
+	 * Updates the observer with each day's date. One is added to the total for
+	 * that day for every stop that is travelled to on the respective date.
+	 */
+	@Override
+	public void update(Observable o, Event tap, int n) {
+		stops.add(tap.getEpochDay(), n);
+	}
+
+	/**
+	 * Updates the observer with a trip which was completed, counting it on the date
+	 * it started. A trip is completed as soon as its time window runs out or a new
+	 * trip is started on its card.
+	 */
+	@Override
+	public void tripCompleted(Observable o, Trip trip) {
+		trips.add(trip.getFirstEvent().getEpochDay(), 1);
 	}
 
 	/**
-	 * Updates the observer with each day's date. One is added to the hashmap as a
-	 * value to the date key in the hashmap for every stop that is travelled to on
-	 * the respective date.
+	 * Updates the observer with a batch of notifications. The fares, stops and
+	 * trips of each run of notifications on the same day are summed before they
+	 * are added to that day's totals.
 	 */
 	@Override
-	public void update(Observable o, String date, int n) {
-		if (stopsDayMap.containsKey(date)) {
-			stopsDayMap.put(date, stopsDayMap.get(date) + n);
+	public void updateAll(MetricsBus.Batch batch) {
+		int day = 0;
+		long fare = 0;
+		long traveled = 0;
+		long completed = 0;
+		for (int i = 0; i < batch.size(); i++) {
+			MetricsBus.Kind kind = batch.getKind(i);
+			int next = kind == MetricsBus.Kind.TRIP ? batch.getTrip(i).getFirstEvent().getEpochDay()
+					: batch.getTap(i).getEpochDay();
+			if (i > 0 && next != day) {
+				addDay(day, fare, traveled, completed);
+				fare = 0;
+				traveled = 0;
+				completed = 0;
+			}
+			day = next;
+			if (kind == MetricsBus.Kind.FARE) {
+				fare += batch.getValue(i);
+			} else if (kind == MetricsBus.Kind.STOPS) {
+				traveled += batch.getValue(i);
+			} else {
+				completed++;
+			}
 		}
-		// Adding new [key:value] to the map if there were no other taps that same day
-		else {
-			stopsDayMap.put(date, n);
+		addDay(day, fare, traveled, completed);
+	}
+
+	/**
+	 * Adds the given amounts to the totals of a day
+	 *
+	 * @param day       the day, counted from 1970-01-01.
+	 * @param fare      the fares collected in cents
+	 * @param traveled  the stops traveled
+	 * @param completed the trips completed
+	 */
+	private void addDay(int day, long fare, long traveled, long completed) {
+		if (fare != 0) {
+			fares.add(day, fare);
+		}
+		if (traveled != 0) {
+			stops.add(day, traveled);
+		}
+		if (completed != 0) {
+			trips.add(day, completed);
 		}
 	}
 
 	/**
-	 * Returns the float value representing the fare collected on a specific date.
+	 * Returns the fare collected on a specific date.
 	 * 
-	 * @param date String representing a date.
+	 * @param day the day, counted from 1970-01-01.
 	 * @return the Fare amount collected for a specific given day.
 	 */
-	public float todayCharge(String date) {
-		if (fareDayMap.containsKey(date)) {
-			return fareDayMap.get(date);
-		}
-		return 0;
+	public Money todayCharge(int day) {
+		return Money.ofCents(fares.get(day));
 	}
 
 	/**
 	 * Returns the int value representing the number of stops traveled on a specific
 	 * date.
 	 * 
-	 * @param date String representing a date.
+	 * @param day the day, counted from 1970-01-01.
 	 * @return the stops traveled on a specific day.
 	 */
-	public int todayStops(String date) {
-		if (stopsDayMap.containsKey(date)) {
-			return stopsDayMap.get(date);
-		}
-		return 0;
+	public int todayStops(int day) {
+		return (int) stops.get(day);
+	}
+
+	/**
+	 * Returns the number of completed trips which started on a specific date.
+	 * 
+	 * @param day the day, counted from 1970-01-01.
+	 * @return the trips completed for a specific day.
+	 */
+	public int todayTrips(int day) {
+		return (int) trips.get(day);
+	}
+
+	/**
+	 * Returns the fare collected over a range of dates.
+	 * 
+	 * @param from the first day of the range, counted from 1970-01-01.
+	 * @param to   the last day of the range, counted from 1970-01-01.
+	 * @return the Fare amount collected from the first day to the last inclusive.
+	 */
+	public Money chargeBetween(int from, int to) {
+		return Money.ofCents(fares.sum(from, to));
+	}
+
+	/**
+	 * Returns the number of stops traveled over a range of dates.
+	 * 
+	 * @param from the first day of the range, counted from 1970-01-01.
+	 * @param to   the last day of the range, counted from 1970-01-01.
+	 * @return the stops traveled from the first day to the last inclusive.
+	 */
+	public long stopsBetween(int from, int to) {
+		return stops.sum(from, to);
+	}
+
+	/**
+	 * Returns the number of completed trips which started over a range of dates.
+	 * 
+	 * @param from the first day of the range, counted from 1970-01-01.
+	 * @param to   the last day of the range, counted from 1970-01-01.
+	 * @return the trips completed from the first day to the last inclusive.
+	 */
+	public long tripsBetween(int from, int to) {
+		return trips.sum(from, to);
+	}
+
+	/**
+	 * Writes every daily total kept by this observer, for a snapshot of the
+	 * system. Taps should not be processed while the totals are written.
+	 *
+	 * @param out the output to write to
+	 * @throws IOException if the output cannot be written
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		fares.writeTo(out);
+		stops.writeTo(out);
+		trips.writeTo(out);
+	}
+
+	/**
+	 * Adds the daily totals written by writeTo to the totals of this observer
+	 *
+	 * @param in the input to read from
+	 * @throws IOException if the input cannot be read
+	 */
+	public void readFrom(DataInput in) throws IOException {
+		fares.readFrom(in);
+		stops.readFrom(in);
+		trips.readFrom(in);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,255 @@
+package main.java.system.metrics;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Running totals for a fixed number of series, such as the lines or stops of a
+ * network, kept per minute, hour, day and month of the time they were recorded
+ * at. Each resolution of a series is a ring of the running total of the series
+ * up to the end of each of its latest buckets, reusing the slot of its oldest
+ * bucket once time moves past it, so the rollup takes the same memory however
+ * long it runs. Finer resolutions are kept for a shorter time than coarser
+ * ones, and the first few series keep their minutes and hours longer than the
+ * rest. A series' rings are only allocated once something is recorded in it.
+ * The total over a range of time is the running total at its end less the one
+ * at its start, each read from the finest ring still holding it, so a range
+ * costs two lookups however long it is. Totals may be recorded from many
+ * threads at once and read while they are.
+ */
+class Rollup {
+	private static final long SECONDS_PER_MINUTE = 60;
+	private static final long SECONDS_PER_HOUR = 60 * 60;
+	private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+
+	// the series kept longer have two days of minutes and 400 days of hours, the
+	// others a day of minutes and 35 days of hours; all have ten years of days and
+	// a century of months
+	private static final int LONG_MINUTE_SLOTS = 2 * 24 * 60;
+	private static final int LONG_HOUR_SLOTS = 400 * 24;
+	private static final int SHORT_MINUTE_SLOTS = 24 * 60;
+	private static final int SHORT_HOUR_SLOTS = 35 * 24;
+	private static final int DAY_SLOTS = 10 * 366;
+	private static final int MONTH_SLOTS = 100 * 12;
+
+	private final int longSeries;
+	// by series, null until something is recorded in the series
+	private final AtomicReferenceArray<Series> series;
+
+	/**
+	 * Creates a rollup with every total at zero
+	 *
+	 * @param series     the number of series totals are kept for
+	 * @param longSeries the number of series, counted from the first, whose
+	 *                   minutes and hours are kept longer
+	 */
+	Rollup(int series, int longSeries) {
+		if (longSeries < 0 || longSeries > series) {
+			throw new IllegalArgumentException("longSeries must be between 0 and " + series);
+		}
+		this.longSeries = longSeries;
+		this.series = new AtomicReferenceArray<>(series);
+	}
+
+	/**
+	 * Adds the given amount to a series at the given time
+	 *
+	 * @param index  the index of the series
+	 * @param second the time in seconds since 1970-01-01T00:00:00
+	 * @param amount the amount to add
+	 */
+	void add(int index, long second, long amount) {
+		Series rings = series.get(index);
+		if (rings == null) {
+			series.compareAndSet(index, null, new Series(index < longSeries));
+			rings = series.get(index);
+		}
+		long day = Math.floorDiv(second, SECONDS_PER_DAY);
+		rings.minutes.add(Math.floorDiv(second, SECONDS_PER_MINUTE), amount);
+		rings.hours.add(Math.floorDiv(second, SECONDS_PER_HOUR), amount);
+		rings.days.add(day, amount);
+		rings.months.add(monthOf(day), amount);
+	}
+
+	/**
+	 * Returns the total of a series over a range of time. Each end of the range is
+	 * taken to the start of its minute if that is still kept, otherwise of its
+	 * hour, day or month, whichever is the finest still kept.
+	 *
+	 * @param index the index of the series
+	 * @param from  the start of the range in seconds since 1970-01-01T00:00:00
+	 * @param to    the end of the range, excluded from the total
+	 * @return the total of the series in the range
+	 */
+	long sum(int index, long from, long to) {
+		Series rings = series.get(index);
+		if (rings == null || to <= from) {
+			return 0;
+		}
+		return rings.before(to) - rings.before(from);
+	}
+
+	/**
+	 * Returns the month containing the given day, counted in months from January
+	 * 1970. Follows the proleptic Gregorian calendar, counting from a year which
+	 * starts in March so that leap days fall at the end of the year.
+	 *
+	 * @param day the day, counted from 1970-01-01
+	 * @return the month, counted from January 1970
+	 */
+	static long monthOf(long day) {
+		long shifted = day + 719468;
+		long era = Math.floorDiv(shifted, 146097);
+		long dayOfEra = shifted - era * 146097;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long shiftedMonth = (5 * dayOfYear + 2) / 153;
+		long year = yearOfEra + era * 400 + (shiftedMonth >= 10 ? 1 : 0);
+		long month = shiftedMonth < 10 ? shiftedMonth + 2 : shiftedMonth - 10;
+		return (year - 1970) * 12 + month;
+	}
+
+	/**
+	 * Returns the first day of the given month
+	 *
+	 * @param month the month, counted from January 1970
+	 * @return the day the month starts on, counted from 1970-01-01
+	 */
+	static long firstDayOf(long month) {
+		long year = 1970 + Math.floorDiv(month, 12);
+		long monthOfYear = Math.floorMod(month, 12);
+		long y = monthOfYear < 2 ? year - 1 : year;
+		long era = Math.floorDiv(y, 400);
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (monthOfYear < 2 ? monthOfYear + 10 : monthOfYear - 2) + 2) / 5;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	/**
+	 * The rings of one series, one per resolution
+	 */
+	private static class Series {
+		private final Ring minutes;
+		private final Ring hours;
+		private final Ring days;
+		private final Ring months;
+
+		/**
+		 * Creates the rings of a series with nothing recorded
+		 *
+		 * @param kept whether the series' minutes and hours are kept longer
+		 */
+		Series(boolean kept) {
+			this.minutes = new Ring(kept ? LONG_MINUTE_SLOTS : SHORT_MINUTE_SLOTS);
+			this.hours = new Ring(kept ? LONG_HOUR_SLOTS : SHORT_HOUR_SLOTS);
+			this.days = new Ring(DAY_SLOTS);
+			this.months = new Ring(MONTH_SLOTS);
+		}
+
+		/**
+		 * Returns the total recorded before the start of the minute of the given
+		 * time, or of its hour, day or month, whichever is the finest still kept
+		 *
+		 * @param second the time in seconds since 1970-01-01T00:00:00
+		 * @return the running total of the series up to then
+		 */
+		long before(long second) {
+			long total = minutes.before(Math.floorDiv(second, SECONDS_PER_MINUTE));
+			if (total == Ring.NOT_KEPT) {
+				total = hours.before(Math.floorDiv(second, SECONDS_PER_HOUR));
+			}
+			long day = Math.floorDiv(second, SECONDS_PER_DAY);
+			if (total == Ring.NOT_KEPT) {
+				total = days.before(day);
+			}
+			if (total == Ring.NOT_KEPT) {
+				total = months.before(monthOf(day));
+			}
+			// older than every month kept, so before anything still counted
+			return total == Ring.NOT_KEPT ? 0 : total;
+		}
+	}
+
+	/**
+	 * The running total of a series up to the end of each of its latest buckets
+	 * at one resolution. The ring holds the buckets from SLOTS - 1 before its
+	 * latest bucket up to the latest, each in the slot of its index modulo the
+	 * number of slots. Recording in a newer bucket carries the latest running
+	 * total into every bucket up to it; recording in an older one adds to it and
+	 * to every newer bucket still kept, which is only a few when taps come in the
+	 * order they were made.
+	 */
+	private static class Ring {
+		/**
+		 * Returned for buckets older than the ring keeps
+		 */
+		static final long NOT_KEPT = Long.MIN_VALUE;
+
+		private final long[] totals;
+		private long latest = Long.MIN_VALUE;
+
+		/**
+		 * Creates a ring with nothing recorded
+		 *
+		 * @param slots the number of buckets kept
+		 */
+		Ring(int slots) {
+			this.totals = new long[slots];
+		}
+
+		/**
+		 * Adds an amount to the given bucket
+		 *
+		 * @param bucket the bucket, counted from 1970
+		 * @param amount the amount to add
+		 */
+		synchronized void add(long bucket, long amount) {
+			int slots = totals.length;
+			if (latest == Long.MIN_VALUE) {
+				// nothing was recorded before, so every earlier bucket kept is at zero
+				latest = bucket;
+			} else if (bucket > latest) {
+				long carried = totals[slot(latest)];
+				long first = Math.max(latest + 1, bucket - slots + 1);
+				for (long b = first; b <= bucket; b++) {
+					totals[slot(b)] = carried;
+				}
+				latest = bucket;
+			}
+			for (long b = Math.max(bucket, latest - slots + 1); b <= latest; b++) {
+				totals[slot(b)] += amount;
+			}
+		}
+
+		/**
+		 * Returns the running total before the given bucket
+		 *
+		 * @param bucket the bucket, counted from 1970
+		 * @return the total of every bucket before it, NOT_KEPT if the bucket
+		 *         before it is older than the ring keeps
+		 */
+		synchronized long before(long bucket) {
+			if (latest == Long.MIN_VALUE) {
+				return 0;
+			}
+			long previous = bucket - 1;
+			if (previous >= latest) {
+				return totals[slot(latest)];
+			}
+			if (previous <= latest - totals.length) {
+				return NOT_KEPT;
+			}
+			return totals[slot(previous)];
+		}
+
+		/**
+		 * Returns the slot of the given bucket
+		 *
+		 * @param bucket the bucket, counted from 1970
+		 * @return its index in the ring
+		 */
+		private int slot(long bucket) {
+			return (int) Math.floorMod(bucket, (long) totals.length);
+		}
+	}
+}
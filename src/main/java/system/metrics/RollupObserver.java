@@ -0,0 +1,246 @@
+package main.java.system.metrics;
+
+import main.java.entities.transit.BusLine;
+import main.java.entities.transit.TransitLine;
+import main.java.entities.transit.TransitNetwork;
+import main.java.entities.transit.TransitStop;
+import main.java.system.Trip;
+import main.java.system.event.Event;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.IdentityHashMap;
+
+/**
+ * Class implementing the Observer which keeps time series of the fares
+ * collected, the stops traveled and the trips taken on each line and at each
+ * stop of a network, at the resolution of a minute, an hour, a day and a month.
+ * Stops keep their minutes and hours for a shorter time than lines. Fares are
+ * counted at the stop where they were charged, stops traveled at the stop they
+ * were traveled to, and trips at the time and stop where they started.
+ * Totals over any range of time are answered from the rollups, without looking
+ * at the trips themselves.
+ */
+public class RollupObserver implements Observer, MetricsBus.BatchObserver {
+	/**
+	 * The quantities kept for each line and stop
+	 */
+	public enum Measure {
+		FARES, STOPS, TRIPS
+	}
+
+	private final IdentityHashMap<TransitLine, Integer> lines;
+	private final IdentityHashMap<TransitStop, Integer> stops;
+	private final Rollup[] rollups;
+
+	/**
+	 * Creates an observer with empty time series for every line and stop in the
+	 * given network
+	 *
+	 * @param network the network whose lines and stops are observed
+	 */
+	public RollupObserver(TransitNetwork network) {
+		this.lines = new IdentityHashMap<TransitLine, Integer>();
+		this.stops = new IdentityHashMap<TransitStop, Integer>();
+		if (network.getSubwayLine() != null) {
+			lines.put(network.getSubwayLine(), lines.size());
+		}
+		for (BusLine line : network.getBusLines()) {
+			lines.put(line, lines.size());
+		}
+		for (int i = 0; i < network.getNumStops(); i++) {
+			stops.put(network.getStop(i), lines.size() + i);
+		}
+
+		this.rollups = new Rollup[Measure.values().length];
+		for (int i = 0; i < rollups.length; i++) {
+			// the lines come first, so they are the series whose minutes and hours are kept longer
+			rollups[i] = new Rollup(lines.size() + stops.size(), lines.size());
+		}
+	}
+
+	/**
+	 * Updates the observer with the fare charged for a tap, counted on the line and
+	 * at the stop of the tap.
+	 */
+	@Override
+	public void update(Observable o, Event tap, long fareCharged) {
+		record(Measure.FARES, tap.getLocation(), tap.getEpochSecond(), fareCharged);
+	}
+
+	/**
+	 * Updates the observer with the stops traveled to a tap, counted on the line
+	 * and at the stop of the tap.
+	 */
+	@Override
+	public void update(Observable o, Event tap, int n) {
+		record(Measure.STOPS, tap.getLocation(), tap.getEpochSecond(), n);
+	}
+
+	/**
+	 * Updates the observer with a trip which was completed, counted on the line and
+	 * at the stop where it started.
+	 */
+	@Override
+	public void tripCompleted(Observable o, Trip trip) {
+		Event start = trip.getFirstEvent();
+		record(Measure.TRIPS, start.getLocation(), start.getEpochSecond(), 1);
+	}
+
+	/**
+	 * Updates the observer with a batch of notifications, each counted as it
+	 * would be on its own.
+	 */
+	@Override
+	public void updateAll(MetricsBus.Batch batch) {
+		for (int i = 0; i < batch.size(); i++) {
+			switch (batch.getKind(i)) {
+			case FARE:
+				record(Measure.FARES, batch.getTap(i).getLocation(), batch.getTap(i).getEpochSecond(),
+						batch.getValue(i));
+				break;
+			case STOPS:
+				record(Measure.STOPS, batch.getTap(i).getLocation(), batch.getTap(i).getEpochSecond(),
+						batch.getValue(i));
+				break;
+			default:
+				tripCompleted(batch.getSource(i), batch.getTrip(i));
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Adds an amount to the series of the given stop and of its line
+	 *
+	 * @param measure the quantity being counted
+	 * @param stop    the stop the amount is counted at
+	 * @param second  the time of the amount in seconds since 1970-01-01T00:00:00
+	 * @param amount  the amount to add
+	 */
+	private void record(Measure measure, TransitStop stop, long second, long amount) {
+		Integer stopSeries = stops.get(stop);
+		Integer lineSeries = lines.get(stop.getLine());
+		if (stopSeries == null || lineSeries == null) {
+			// the stop is not part of the observed network
+			return;
+		}
+		Rollup rollup = rollups[measure.ordinal()];
+		rollup.add(stopSeries, second, amount);
+		rollup.add(lineSeries, second, amount);
+	}
+
+	/**
+	 * Returns the total of a quantity on a line over a range of time, to the
+	 * minute for the last two days and to the hour for the last 400.
+	 *
+	 * @param measure the quantity to total
+	 * @param line    the line to total it on
+	 * @param from    the start of the range
+	 * @param to      the end of the range, excluded from the total
+	 * @return the total, in cents for fares
+	 */
+	public long lineTotal(Measure measure, TransitLine line, LocalDateTime from, LocalDateTime to) {
+		return total(measure, seriesOf(lines, line), from, to);
+	}
+
+	/**
+	 * Returns the total of a quantity at a stop over a range of time, to the
+	 * minute for the last day and to the hour for the last 35.
+	 *
+	 * @param measure the quantity to total
+	 * @param stop    the stop to total it at
+	 * @param from    the start of the range
+	 * @param to      the end of the range, excluded from the total
+	 * @return the total, in cents for fares
+	 */
+	public long stopTotal(Measure measure, TransitStop stop, LocalDateTime from, LocalDateTime to) {
+		return total(measure, seriesOf(stops, stop), from, to);
+	}
+
+	/**
+	 * Returns the total of a quantity on a line during the same hours of every day
+	 * in a range of days, such as between 07:00 and 09:00 every day in March.
+	 *
+	 * @param measure  the quantity to total
+	 * @param line     the line to total it on
+	 * @param firstDay the first day of the range
+	 * @param lastDay  the last day of the range, included in the total
+	 * @param from     the time of day the hours start
+	 * @param to       the time of day the hours end, excluded from the total
+	 * @return the total, in cents for fares
+	 */
+	public long lineTotalDaily(Measure measure, TransitLine line, LocalDate firstDay, LocalDate lastDay,
+			LocalTime from, LocalTime to) {
+		return totalDaily(measure, seriesOf(lines, line), firstDay, lastDay, from, to);
+	}
+
+	/**
+	 * Returns the total of a quantity at a stop during the same hours of every day
+	 * in a range of days.
+	 *
+	 * @param measure  the quantity to total
+	 * @param stop     the stop to total it at
+	 * @param firstDay the first day of the range
+	 * @param lastDay  the last day of the range, included in the total
+	 * @param from     the time of day the hours start
+	 * @param to       the time of day the hours end, excluded from the total
+	 * @return the total, in cents for fares
+	 */
+	public long stopTotalDaily(Measure measure, TransitStop stop, LocalDate firstDay, LocalDate lastDay,
+			LocalTime from, LocalTime to) {
+		return totalDaily(measure, seriesOf(stops, stop), firstDay, lastDay, from, to);
+	}
+
+	/**
+	 * Returns the total of a quantity in a series over a range of time
+	 *
+	 * @param measure the quantity to total
+	 * @param series  the index of the series
+	 * @param from    the start of the range
+	 * @param to      the end of the range, excluded from the total
+	 * @return the total
+	 */
+	private long total(Measure measure, int series, LocalDateTime from, LocalDateTime to) {
+		return rollups[measure.ordinal()].sum(series, from.toEpochSecond(ZoneOffset.UTC),
+				to.toEpochSecond(ZoneOffset.UTC));
+	}
+
+	/**
+	 * Returns the total of a quantity in a series during the same hours of every
+	 * day in a range of days
+	 *
+	 * @param measure  the quantity to total
+	 * @param series   the index of the series
+	 * @param firstDay the first day of the range
+	 * @param lastDay  the last day of the range, included in the total
+	 * @param from     the time of day the hours start
+	 * @param to       the time of day the hours end, excluded from the total
+	 * @return the total
+	 */
+	private long totalDaily(Measure measure, int series, LocalDate firstDay, LocalDate lastDay, LocalTime from,
+			LocalTime to) {
+		long total = 0;
+		for (LocalDate day = firstDay; !day.isAfter(lastDay); day = day.plusDays(1)) {
+			total += total(measure, series, day.atTime(from), day.atTime(to));
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the index of the series of the given line or stop
+	 *
+	 * @param index the series of every line or every stop
+	 * @param key   the line or stop
+	 * @return the index of its series
+	 */
+	private static <K> int seriesOf(IdentityHashMap<K, Integer> index, K key) {
+		Integer series = index.get(key);
+		if (series == null) {
+			throw new IllegalArgumentException("Not part of the observed network");
+		}
+		return series;
+	}
+}
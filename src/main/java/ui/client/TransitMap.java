@@ -129,11 +129,13 @@ public class TransitMap {
      *         stop exists
      */
     private TransitStop getTransfer(TransitStop stop) {
-        for (TransitLine line : lines) {
-            for (TransitStop currStop : line.getStops()) {
-                if (currStop.canTransferTo(stop)) {
-                    return currStop;
-                }
+        StationComplex complex = stop.getComplex();
+        if (complex == null) {
+            return null;
+        }
+        for (TransitStop currStop : complex.getMembers()) {
+            if (currStop.canTransferTo(stop) && lines.contains(currStop.getLine())) {
+                return currStop;
             }
         }
         return null;
@@ -1,27 +1,57 @@
 package main.java.users;
 
+import main.java.entities.Money;
+import main.java.entities.transit.TransitLine;
+import main.java.entities.transit.TransitStop;
+import main.java.system.metrics.MetricsBus;
+import main.java.system.metrics.MetricsBus.OverflowPolicy;
 import main.java.system.metrics.ObserverAdmin;
+import main.java.system.metrics.RollupObserver;
+import main.java.system.metrics.RollupObserver.Measure;
 import main.java.system.TransitSystem;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 
 /**
  * This is the Admin class that represents the Administrators of the Transit
- * System and all the features that they have access to.
+ * System and all the features that they have access to. The totals it reports
+ * are the ones its observers have counted so far, so a query never waits on
+ * the metrics bus; flush the bus first for totals which include every tap
+ * already processed.
  */
 public class Admin {
+	/**
+	 * The number of notifications the metrics bus holds before the system waits
+	 * for the Admin's observers to catch up
+	 */
+	public static final int METRICS_CAPACITY = 1 << 16;
+
+	/**
+	 * The most notifications the Admin's observers count in one batch
+	 */
+	public static final int METRICS_BATCH = 1 << 10;
+
+	public MetricsBus bus;
 	public ObserverAdmin o;
+	public RollupObserver rollups;
 	public TransitSystem ts;
 
 	/**
-	 * Constructs a new Admin given a TransitSystem.
+	 * Constructs a new Admin given a TransitSystem. The Admin's observers are
+	 * notified through a metrics bus, so taps are not held up while they count.
 	 * 
 	 * @param ts TransitSystem which is transportation System.
 	 */
 	public Admin(TransitSystem ts) {
 		this.o = new ObserverAdmin();
+		this.rollups = new RollupObserver(ts.getNetwork());
 		this.ts = ts;
-		ts.attach(o);
+		this.bus = new MetricsBus(METRICS_CAPACITY, OverflowPolicy.BLOCK);
+		bus.subscribe(o, METRICS_BATCH);
+		bus.subscribe(rollups, METRICS_BATCH);
+		ts.attach(bus);
 	}
 
 	/**
@@ -29,15 +59,10 @@ public class Admin {
 	 * 
 	 * @return total fare collected this day.
 	 */
-	public float getTodayFare() {
-		LocalDateTime today = LocalDateTime.now();
+	public Money getTodayFare() {
+		int today = (int) LocalDate.now().toEpochDay();
 
-		int month = today.getMonth().getValue();
-		int day = today.getDayOfMonth();
-		int year = today.getYear();
-		String todayDate = Integer.toString(month) + "/" + Integer.toString(day) + "/" + Integer.toString(year);
-
-		return o.todayCharge(todayDate);
+		return o.todayCharge(today);
 	}
 
 	/**
@@ -49,11 +74,11 @@ public class Admin {
 	 * @param year  year in the format YYYY.
 	 * @return the total fare collected for a specific date.
 	 */
-	public float getFareOnDate(int day, int month, int year) {
+	public Money getFareOnDate(int day, int month, int year) {
 
-		String dateStr = month + "/" + day + "/" + year;
+		int date = (int) LocalDate.of(year, month, day).toEpochDay();
 
-		return o.todayCharge(dateStr);
+		return o.todayCharge(date);
 
 	}
 
@@ -63,14 +88,9 @@ public class Admin {
 	 * @return The total number of stops traveled today.
 	 */
 	public float getTodayStops() {
-		LocalDateTime today = LocalDateTime.now();
-
-		int month = today.getMonth().getValue();
-		int day = today.getDayOfMonth();
-		int year = today.getYear();
-		String todayDate = Integer.toString(month) + "/" + Integer.toString(day) + "/" + Integer.toString(year);
+		int today = (int) LocalDate.now().toEpochDay();
 
-		return o.todayStops(todayDate);
+		return o.todayStops(today);
 	}
 
 	/**
@@ -84,8 +104,129 @@ public class Admin {
 	 */
 	public int getStopsOnDate(int day, int month, int year) {
 
-		String dateStr = month + "/" + day + "/" + year;
+		int date = (int) LocalDate.of(year, month, day).toEpochDay();
+
+		return o.todayStops(date);
+	}
+
+	/**
+	 * Returns the total number of completed trips which riders started on any
+	 * entered day by the Admin.
+	 * 
+	 * @param day   number of day in the month (1-31)
+	 * @param month number of month in the year (1-12)
+	 * @param year  Year in format YYYY.
+	 * @return the total number of trips completed in a day.
+	 */
+	public int getTripsOnDate(int day, int month, int year) {
+
+		int date = (int) LocalDate.of(year, month, day).toEpochDay();
+
+		return o.todayTrips(date);
+	}
+
+	/**
+	 * Returns the total fare collected by the TransitSystem over a range of dates
+	 * entered by the Admin.
+	 * 
+	 * @param from the first date of the range.
+	 * @param to   the last date of the range, included in the total.
+	 * @return the total fare collected from the first date to the last.
+	 */
+	public Money getFareBetween(LocalDate from, LocalDate to) {
+		return o.chargeBetween((int) from.toEpochDay(), (int) to.toEpochDay());
+	}
+
+	/**
+	 * Returns the total number of stops traveled by riders over a range of dates
+	 * entered by the Admin.
+	 * 
+	 * @param from the first date of the range.
+	 * @param to   the last date of the range, included in the total.
+	 * @return the total number of stops traveled from the first date to the last.
+	 */
+	public long getStopsBetween(LocalDate from, LocalDate to) {
+		return o.stopsBetween((int) from.toEpochDay(), (int) to.toEpochDay());
+	}
+
+	/**
+	 * Returns the total number of completed trips which riders started over a
+	 * range of dates entered by the Admin.
+	 * 
+	 * @param from the first date of the range.
+	 * @param to   the last date of the range, included in the total.
+	 * @return the total number of trips completed from the first date to the last.
+	 */
+	public long getTripsBetween(LocalDate from, LocalDate to) {
+		return o.tripsBetween((int) from.toEpochDay(), (int) to.toEpochDay());
+	}
 
-		return o.todayStops(dateStr);
+	/**
+	 * Returns the fare collected on a line over a range of time entered by the
+	 * Admin, to the minute for the last two days.
+	 * 
+	 * @param line the line the fares were charged on.
+	 * @param from the start of the range.
+	 * @param to   the end of the range, excluded from the total.
+	 * @return the total fare collected on the line in the range.
+	 */
+	public Money getLineFare(TransitLine line, LocalDateTime from, LocalDateTime to) {
+		return Money.ofCents(rollups.lineTotal(Measure.FARES, line, from, to));
+	}
+
+	/**
+	 * Returns the fare collected on a line during the same hours of every day in a
+	 * range of days entered by the Admin, such as between 07:00 and 09:00 every
+	 * day in March.
+	 * 
+	 * @param line     the line the fares were charged on.
+	 * @param firstDay the first day of the range.
+	 * @param lastDay  the last day of the range, included in the total.
+	 * @param from     the time of day the hours start.
+	 * @param to       the time of day the hours end, excluded from the total.
+	 * @return the total fare collected on the line in those hours.
+	 */
+	public Money getLineFareDaily(TransitLine line, LocalDate firstDay, LocalDate lastDay, LocalTime from,
+			LocalTime to) {
+		return Money.ofCents(rollups.lineTotalDaily(Measure.FARES, line, firstDay, lastDay, from, to));
+	}
+
+	/**
+	 * Returns the fare collected at a stop over a range of time entered by the
+	 * Admin, to the minute for the last day.
+	 * 
+	 * @param stop the stop the fares were charged at.
+	 * @param from the start of the range.
+	 * @param to   the end of the range, excluded from the total.
+	 * @return the total fare collected at the stop in the range.
+	 */
+	public Money getStopFare(TransitStop stop, LocalDateTime from, LocalDateTime to) {
+		return Money.ofCents(rollups.stopTotal(Measure.FARES, stop, from, to));
+	}
+
+	/**
+	 * Returns the number of completed trips which started on a line over a range of
+	 * time entered by the Admin, to the minute for the last two days.
+	 * 
+	 * @param line the line the trips started on.
+	 * @param from the start of the range.
+	 * @param to   the end of the range, excluded from the total.
+	 * @return the number of trips started on the line in the range.
+	 */
+	public long getLineTrips(TransitLine line, LocalDateTime from, LocalDateTime to) {
+		return rollups.lineTotal(Measure.TRIPS, line, from, to);
+	}
+
+	/**
+	 * Returns the number of completed trips which started at a stop over a range of
+	 * time entered by the Admin, to the minute for the last day.
+	 * 
+	 * @param stop the stop the trips started at.
+	 * @param from the start of the range.
+	 * @param to   the end of the range, excluded from the total.
+	 * @return the number of trips started at the stop in the range.
+	 */
+	public long getStopTrips(TransitStop stop, LocalDateTime from, LocalDateTime to) {
+		return rollups.stopTotal(Measure.TRIPS, stop, from, to);
 	}
-}
\ No newline at end of file
+}
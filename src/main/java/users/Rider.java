@@ -1,6 +1,7 @@
 package main.java.users;
 
 import main.java.entities.Card;
+import main.java.entities.Money;
 import main.java.system.UID.ID;
 import main.java.system.UID.IDGenerator;
 import main.java.system.Logger;
@@ -21,7 +22,7 @@ public class Rider {
     private String email;
     private ArrayList<Card> cards;
     private ID id;
-    private float[] reloadAmounts;
+    private Money[] reloadAmounts;
 
     /**
      * Create a new rider within the transit system with the given name, email
@@ -32,11 +33,23 @@ public class Rider {
      * @param ID    the ID of this rider
      */
     public Rider(String name, String email, String ID) {
+        this(name, email, IDGenerator.fromString(ID));
+    }
+
+    /**
+     * Create a new rider within the transit system with the given name, email
+     * address, and registered ID
+     *
+     * @param name  the name of this riders
+     * @param email the email address of this rider
+     * @param id    the ID of this rider, already registered with IDGenerator
+     */
+    public Rider(String name, String email, ID id) {
         this.name = name;
         this.email = email;
-        this.id = IDGenerator.fromString(ID);
+        this.id = id;
         cards = new ArrayList<Card>();
-        reloadAmounts = new float[] { 10, 20, 50 };
+        reloadAmounts = new Money[] { Money.ofDollars(10), Money.ofDollars(20), Money.ofDollars(50) };
     }
 
     /**
@@ -151,18 +164,18 @@ public class Rider {
      * @param card   to reload
      * @return amount left in the card
      */
-    public float reloadCard(float amount, Card card) {
+    public Money reloadCard(Money amount, Card card) {
         String validAmts = "";
-        for (float candidate : reloadAmounts) {
-            validAmts += "$" + candidate + " ";
-            if (candidate == amount) {
-                card.addBalance(amount);
-                Logger.user(this, "$" + amount + " has been added to the balance of card " + card.getId());
-                return card.getBalance();
+        for (Money candidate : reloadAmounts) {
+            validAmts += candidate + " ";
+            if (candidate.equals(amount)) {
+                Money balance = card.addBalance(amount);
+                Logger.user(this, amount + " has been added to the balance of card " + card.getId());
+                return balance;
             }
         }
 
-        Logger.error("Cannot reload with $" + amount, String.format("Valid amounts are: %s", validAmts));
+        Logger.error("Cannot reload with " + amount, String.format("Valid amounts are: %s", validAmts));
         return card.getBalance();
     }
 
@@ -218,12 +231,12 @@ public class Rider {
      * Returns the average monthly cost of this particular rider, accounts for all
      * the cards this user may have
      *
-     * @return Float of the average monthly cost
+     * @return the average monthly cost, rounded down to the cent
      */
-    public float averageMonthlyCost() {
+    public Money averageMonthlyCost() {
         HashMap<String, ArrayList<Trip>> monthlyTrip = new HashMap<String, ArrayList<Trip>>();
-        ArrayList<Float> prices = new ArrayList<>();
-        float totalSum = 0F;
+        ArrayList<Long> prices = new ArrayList<>();
+        long totalSum = 0;
 
         for (Card card : this.cards) {
             for (Trip trip : card.getTrips()) {
@@ -237,18 +250,21 @@ public class Rider {
         }
 
         for (String key : monthlyTrip.keySet()) {
-            float sum = 0F;
+            long sum = 0;
             for (Trip trip : monthlyTrip.get(key)) {
-                sum += trip.getCurrentPrice();
+                sum += trip.getPriceCents();
             }
             prices.add(sum);
         }
 
-        for (float price : prices) {
+        for (long price : prices) {
             totalSum += price;
         }
 
-        return totalSum / prices.size();
+        if (prices.isEmpty()) {
+            return Money.ZERO;
+        }
+        return Money.ofCents(totalSum / prices.size());
 
     }
 }
\ No newline at end of file